@@ -0,0 +1,70 @@
+package com.abc;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Eddy Brown
+ *
+ * Measures the bank-wide operations, Bank.totalInterestPaid and Bank.getAccountByNumber,
+ * as the number of accounts and the size of the ledger grow.
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class BankBenchmark {
+
+	@Param({ "1000", "100000", "900000" })
+	int accounts;
+
+	@Param({ "0", "1000000" })
+	int ledgerSize;
+
+	SyntheticBank bank;
+	int[] accountNumbers;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		bank = new SyntheticBank(accounts, ledgerSize, 42);
+		accountNumbers = new int[accounts];
+		for (int i = 0; i < accounts; i++)
+			accountNumbers[i] = bank.accounts[i].getAccountNumber();
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		Random random;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			random = new Random(Thread.currentThread().getId());
+		}
+	}
+
+	@Benchmark
+	public long totalInterestPaid() {
+		return bank.bank.totalInterestPaid();
+	}
+
+	@Benchmark
+	public Account getAccountByNumber(ThreadState thread) {
+		return bank.bank.getAccountByNumber(accountNumbers[thread.random.nextInt(accountNumbers.length)]);
+	}
+}
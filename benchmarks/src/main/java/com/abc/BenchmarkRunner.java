@@ -0,0 +1,34 @@
+package com.abc;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author Eddy Brown
+ *
+ * Entry point of the benchmarks jar. Runs the selected benchmarks (all of them by default) once for
+ * each thread count in the "threads" system property, with the GC profiler switched on so the
+ * allocation rate is reported next to throughput and latency.
+ * Any normal JMH command line options can be given as well, e.g.
+ *
+ *     java -Dthreads=1,2,4,8 -jar benchmarks/target/benchmarks.jar PostingBenchmark -p accounts=100000
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		for (String threads : System.getProperty("threads", "1").split(",")) {
+			ChainedOptionsBuilder options = new OptionsBuilder()
+					.parent(commandLine)
+					.threads(Integer.parseInt(threads.trim()))
+					.addProfiler(GCProfiler.class);
+			new Runner(options.build()).run();
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.abc;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Eddy Brown
+ *
+ * Measures what telling the time costs: a Calendar (as DateProvider.now() used to make), a Date,
+ * the system clock and the cached clock. Run with more threads (-t) to see the clocks shared.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClockBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Clocks {
+		DateProvider system;
+		CachedClock cached;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			system = new DateProvider();
+			cached = new CachedClock();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			cached.close();
+		}
+	}
+
+	@Benchmark
+	public Date calendar() {
+		return Calendar.getInstance().getTime();
+	}
+
+	@Benchmark
+	public Date date(Clocks clocks) {
+		return clocks.system.now();
+	}
+
+	@Benchmark
+	public long systemMillis(Clocks clocks) {
+		return clocks.system.nowMillis();
+	}
+
+	@Benchmark
+	public long cachedMillis(Clocks clocks) {
+		return clocks.cached.nowMillis();
+	}
+}
@@ -0,0 +1,67 @@
+package com.abc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Eddy Brown
+ *
+ * Measures how the daily interest calculation of InterestAccrual scales with the number of cores
+ * it is given. The interest is only worked out, not credited, so every invocation sees the same book.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class InterestBenchmark {
+
+	@Param({ "100000", "900000" })
+	int accounts;
+
+	/*
+	 * Cores given to the fork/join pool, 0 for the calling thread only
+	 */
+	@Param({ "0", "1", "2", "4", "8" })
+	int parallelism;
+
+	Account[] book;
+	long[] daily;
+	ForkJoinPool pool;
+	InterestAccrual accrual;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		book = new SyntheticBank(accounts, 0, 42).accounts;
+		daily = new long[book.length];
+		pool = parallelism == 0 ? null : new ForkJoinPool(parallelism);
+		accrual = new InterestAccrual(pool);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	@Benchmark
+	public long[] calculate() {
+		return accrual.calculate(book, daily);
+	}
+}
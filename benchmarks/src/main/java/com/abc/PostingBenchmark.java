@@ -0,0 +1,123 @@
+package com.abc;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Eddy Brown
+ *
+ * Measures Transactions.add through the account operations, with the usual mix of deposits,
+ * withdrawals and transfers, for different bank and ledger sizes and both kinds of ledger storage,
+ * with the operation metrics switched on and off. Transfers are also measured with a new idempotency
+ * key each time (starting each iteration with an empty key cache, so the measurement doesn't depend on
+ * how full earlier iterations left it), and as retries of a transfer already made.
+ * Run with more threads (-t) to see how concurrent posting scales.
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class PostingBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class BankState {
+
+		@Param({ "1000", "100000", "900000" })
+		int accounts;
+
+		/*
+		 * Transactions already in the ledger before measuring
+		 */
+		@Param({ "0", "1000000" })
+		int ledgerSize;
+
+		/*
+		 * How the ledger stores transactions, see Transactions.Storage
+		 */
+		@Param({ "OBJECTS", "COLUMNAR" })
+		String storage;
+
+		/*
+		 * Whether postings are timed and counted, to see what the metrics cost
+		 */
+		@Param({ "true", "false" })
+		boolean metrics;
+
+		SyntheticBank bank;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			BankContext.getDefault().getMetrics().setEnabled(metrics);
+			Transactions.getInstance().setStorage(Transactions.Storage.valueOf(storage));
+			bank = new SyntheticBank(accounts, ledgerSize, 42);
+			Transactions.getInstance().setPostingMode(Transactions.PostingMode.CONCURRENT);
+		}
+
+		@Setup(Level.Iteration)
+		public void forgetKeys() {
+			Transactions.getInstance().setIdempotencyWindow(IdempotencyCache.DEFAULT_CAPACITY, IdempotencyCache.DEFAULT_WINDOW, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		Random random;
+
+		/*
+		 * Makes each thread's idempotency keys its own
+		 */
+		String keyPrefix;
+		long keys;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			random = new Random(Thread.currentThread().getId());
+			keyPrefix = "transfer-" + Thread.currentThread().getId() + "-";
+		}
+	}
+
+	@Benchmark
+	public void postingMix(BankState state, ThreadState thread) {
+		state.bank.postRandom(thread.random);
+	}
+
+	@Benchmark
+	public boolean transfer(BankState state, ThreadState thread) {
+		Account[] accounts = state.bank.accounts;
+		Account from = accounts[thread.random.nextInt(accounts.length)];
+		Account to = accounts[thread.random.nextInt(accounts.length)];
+		return Transactions.getInstance().add(100, from, to);
+	}
+
+	@Benchmark
+	public boolean keyedTransfer(BankState state, ThreadState thread) {
+		Account[] accounts = state.bank.accounts;
+		Account from = accounts[thread.random.nextInt(accounts.length)];
+		Account to = accounts[thread.random.nextInt(accounts.length)];
+		return Transactions.getInstance().add(100, from, to, thread.keyPrefix + thread.keys++);
+	}
+
+	/*
+	 * The same transfer tried again and again: only the first try is made
+	 */
+	@Benchmark
+	public boolean retriedTransfer(BankState state, ThreadState thread) {
+		Account[] accounts = state.bank.accounts;
+		return Transactions.getInstance().add(100, accounts[0], accounts[1], thread.keyPrefix);
+	}
+}
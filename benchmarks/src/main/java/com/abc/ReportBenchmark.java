@@ -0,0 +1,91 @@
+package com.abc;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author Eddy Brown
+ *
+ * Measures the bank-wide reporting pass of BankReporting with the number of cores it is given, on its
+ * own and with the snapshot it reads, and writing the report as JSON. The old way of reporting on
+ * customers, Bank.customerSummary, is measured alongside for comparison.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class ReportBenchmark {
+
+	@Param({ "100000", "900000" })
+	int accounts;
+
+	/*
+	 * Cores given to the fork/join pool, 0 for the calling thread only
+	 */
+	@Param({ "0", "1", "4" })
+	int parallelism;
+
+	Bank bank;
+	BankSnapshot snapshot;
+	BankReport report;
+	ForkJoinPool pool;
+	BankReporting reporting;
+	long now;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		bank = new SyntheticBank(accounts, 0, 42).bank;
+		pool = parallelism == 0 ? null : new ForkJoinPool(parallelism);
+		reporting = new BankReporting(pool);
+		snapshot = BankSnapshot.capture(bank);
+		now = bank.getContext().getClock().nowMillis();
+		report = reporting.report(snapshot, now, BankReporting.DEFAULT_TOP);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	@Benchmark
+	public BankReport reportOnSnapshot() {
+		return reporting.report(snapshot, now, BankReporting.DEFAULT_TOP);
+	}
+
+	@Benchmark
+	public BankReport reportOnBank() {
+		return reporting.report(bank, BankReporting.DEFAULT_TOP);
+	}
+
+	@Benchmark
+	public void writeJson(Blackhole blackhole) throws IOException {
+		StatementBenchmark.CountingWriter out = new StatementBenchmark.CountingWriter();
+		report.writeJson(out);
+		blackhole.consume(out.count);
+	}
+
+	@Benchmark
+	public String customerSummary() {
+		return bank.customerSummary();
+	}
+}
@@ -0,0 +1,84 @@
+package com.abc;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Eddy Brown
+ *
+ * Compares the posting modes on the same stream of transfers: single threaded (run it with one thread
+ * only), lock striping, and sharded with one thread per shard. The transfers are between random accounts,
+ * so with four shards about three in four of them cross from one shard to another.
+ *
+ *     java -Dthreads=1,4 -jar benchmarks/target/benchmarks.jar ShardedPostingBenchmark -p mode=CONCURRENT,SHARDED
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ShardedPostingBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class BankState {
+
+		@Param({ "100000" })
+		int accounts;
+
+		/*
+		 * See Transactions.PostingMode
+		 */
+		@Param({ "SINGLE_THREADED", "CONCURRENT", "SHARDED" })
+		String mode;
+
+		@Param({ "4" })
+		int shards;
+
+		SyntheticBank bank;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			bank = new SyntheticBank(accounts, 0, 42);
+			Transactions.getInstance().setShardCount(shards);
+			Transactions.getInstance().setPostingMode(Transactions.PostingMode.valueOf(mode));
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			Transactions.getInstance().setPostingMode(Transactions.PostingMode.SINGLE_THREADED);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		Random random;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			random = new Random(Thread.currentThread().getId());
+		}
+	}
+
+	@Benchmark
+	public boolean transfer(BankState state, ThreadState thread) {
+		Account[] accounts = state.bank.accounts;
+		Account from = accounts[thread.random.nextInt(accounts.length)];
+		Account to = accounts[thread.random.nextInt(accounts.length)];
+		return Transactions.getInstance().add(100, from, to);
+	}
+}
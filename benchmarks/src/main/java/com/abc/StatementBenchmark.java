@@ -0,0 +1,136 @@
+package com.abc;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author Eddy Brown
+ *
+ * Measures Customer.getStatement for a customer with a growing transaction history,
+ * in a bank whose ledger also holds everyone else's transactions, and reading the
+ * same history as statement pages.
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class StatementBenchmark {
+
+	@Param({ "1000", "100000" })
+	int accounts;
+
+	@Param({ "0", "1000000" })
+	int ledgerSize;
+
+	/*
+	 * Transactions on each of the measured customer's accounts
+	 */
+	@Param({ "10", "1000", "10000" })
+	int history;
+
+	/*
+	 * How the ledger stores transactions, see Transactions.Storage
+	 */
+	@Param({ "OBJECTS", "COLUMNAR" })
+	String storage;
+
+	/*
+	 * Transactions on each statement page
+	 */
+	private static final int PAGE_SIZE = 100;
+
+	Customer customer;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Transactions.getInstance().setStorage(Transactions.Storage.valueOf(storage));
+		SyntheticBank synthetic = new SyntheticBank(accounts, ledgerSize, 42);
+		customer = new Customer("Statement Customer", synthetic.bank);
+		Account checking = customer.openAccount(Account.CHECKING);
+		Account savings = customer.openAccount(Account.SAVINGS);
+		checking.deposit(1000000);
+		for (int i = 0; i < history; i++) {
+			checking.sendMoney(1, savings);
+			checking.deposit(1);
+		}
+	}
+
+	@Benchmark
+	public String getStatement() {
+		return customer.getStatement();
+	}
+
+	/*
+	 * Streams the statement into a writer that only counts what it is given
+	 */
+	@Benchmark
+	public void writeStatement(Blackhole blackhole) throws IOException {
+		CountingWriter out = new CountingWriter();
+		customer.writeStatement(out);
+		blackhole.consume(out.count);
+	}
+
+	/*
+	 * Reads the checking account's whole statement a page at a time
+	 */
+	@Benchmark
+	public void statementPages(Blackhole blackhole) {
+		Account checking = customer.getAccounts().get(0);
+		String cursor = null;
+		do {
+			StatementPage page = checking.getStatementPage(Long.MIN_VALUE, Long.MAX_VALUE, cursor, PAGE_SIZE);
+			blackhole.consume(page.getLines());
+			cursor = page.getCursor();
+		} while (cursor != null);
+	}
+
+	/*
+	 * Reads the first page of the checking account's most recent day, as a client would to start a statement
+	 */
+	@Benchmark
+	public StatementPage firstPageOfToday() {
+		long now = System.currentTimeMillis();
+		return customer.getAccounts().get(0).getStatementPage(now - TimeUnit.DAYS.toMillis(1), now + 1, null, PAGE_SIZE);
+	}
+
+	static class CountingWriter extends Writer {
+		long count;
+
+		@Override
+		public void write(char[] buffer, int offset, int length) {
+			count += length;
+		}
+
+		@Override
+		public Writer append(CharSequence text) {
+			count += text.length();
+			return this;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
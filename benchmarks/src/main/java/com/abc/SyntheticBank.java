@@ -0,0 +1,62 @@
+package com.abc;
+
+import java.util.Random;
+
+/**
+ * @author Eddy Brown
+ *
+ * Builds a bank full of made-up customers, accounts and transactions for the benchmarks.
+ * Each customer gets up to three accounts of mixed types, every account is funded, and then a
+ * mix of deposits, withdrawals and transfers is posted so the ledger has realistic history.
+ *
+ */
+class SyntheticBank {
+
+	/*
+	 * The posting mix: out of every 10 postings, 4 are transfers, 4 are deposits and 2 are withdrawals
+	 */
+	static final int TRANSFERS = 4;
+	static final int DEPOSITS = 4;
+
+	private static final int ACCOUNTS_PER_CUSTOMER = 3;
+	private static final InterestProduct[] ACCOUNT_TYPES = { Account.CHECKING, Account.SAVINGS, Account.MAXI_SAVINGS };
+
+	final Bank bank;
+	final Customer[] customers;
+	final Account[] accounts;
+
+	/**
+	 * @param accountCount		How many accounts to open (at most 900,000, the number of account numbers)
+	 * @param postings			How many transactions to post after the accounts are funded
+	 * @param seed				Seed for the random choices, so runs can be compared
+	 */
+	SyntheticBank(int accountCount, int postings, long seed) {
+		Random random = new Random(seed);
+		bank = new Bank();
+		accounts = new Account[accountCount];
+		customers = new Customer[(accountCount + ACCOUNTS_PER_CUSTOMER - 1) / ACCOUNTS_PER_CUSTOMER];
+		for (int c = 0; c < customers.length; c++)
+			customers[c] = new Customer("Customer " + c, bank);
+		for (int a = 0; a < accountCount; a++) {
+			accounts[a] = customers[a / ACCOUNTS_PER_CUSTOMER].openAccount(ACCOUNT_TYPES[random.nextInt(ACCOUNT_TYPES.length)]);
+			accounts[a].deposit(1000 + random.nextInt(100000));
+		}
+		for (int i = 0; i < postings; i++)
+			postRandom(random);
+	}
+
+	/**
+	 * Posts one transaction picked from the mix
+	 * @param random
+	 */
+	void postRandom(Random random) {
+		Account account = accounts[random.nextInt(accounts.length)];
+		int kind = random.nextInt(10);
+		if (kind < TRANSFERS)
+			account.sendMoney(1 + random.nextInt(500), accounts[random.nextInt(accounts.length)]);
+		else if (kind < TRANSFERS + DEPOSITS)
+			account.deposit(1 + random.nextInt(500));
+		else
+			account.withdraw(1 + random.nextInt(500));
+	}
+}
@@ -1,5 +1,7 @@
 package com.abc;
+import java.math.RoundingMode;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Eddy Brown
@@ -9,22 +11,65 @@ import java.util.List;
  * A six-digit account number is randomly generated for each account.
  * This was done so that an account can be referenced by its account number rather than referencing the object.
  * From this class you can also access all transactions relating to this account.
+ * Amounts are given in dollars when money is moved, but balances and interest are kept in whole cents (see {@link Money}).
  *
  */
 class Account {
 
 	/*
-	 * Storing integer values to reference account types
+	 * The standard account types (see {@link InterestProduct} for others)
 	 */
-    public static final int CHECKING = 0;
-    public static final int SAVINGS = 1;
-    public static final int MAXI_SAVINGS = 2;
-	private final int accountType;
+    public static final InterestProduct CHECKING = InterestProduct.CHECKING;
+    public static final InterestProduct SAVINGS = InterestProduct.SAVINGS;
+    public static final InterestProduct MAXI_SAVINGS = InterestProduct.MAXI_SAVINGS;
+	private final InterestProduct product;
 	
+	/*
+	 * How interest is rounded to the cent
+	 */
+	static final RoundingMode INTEREST_ROUNDING = InterestProduct.ROUNDING;
+	
+    /*
+     * The account balance in cents - initialises as zero.
+     * Only changed by Transactions (under the account's lock when posting concurrently), volatile so other threads see the latest value.
+     */
+    private volatile long balance = 0;
+
     /*
-     * The account balance - initialises as zero
+     * When money last left this account (milliseconds since the epoch), so Maxi Savings can check for
+     * recent withdrawals without going through the transactions. Updated by Transactions when posting.
      */
-    private double balance = 0;
+    private static final long NO_WITHDRAWAL = Long.MIN_VALUE;
+    private volatile long lastWithdrawal = NO_WITHDRAWAL;
+
+    /*
+     * The sequence number of the last journal record applied to this account (0 if none)
+     */
+    private volatile long journalSequence = 0;
+
+    /*
+     * The account as it was at a consistent cut (see Transactions#startCut), kept by Transactions the first
+     * time the account changes after the cut: the cut's number, and the balance, withdrawal time and journal
+     * sequence at the cut. Only used while holding the account (its lock or its shard).
+     */
+    private int cut = 0;
+    private long cutBalance;
+    private long cutWithdrawal;
+    private long cutSequence;
+
+    /*
+     * The balance, interest and withdrawal time last added to the bank's running totals (see BankTotals)
+     */
+    private long countedBalance = 0;
+    private long countedInterest = 0;
+    private long countedWithdrawal = NO_WITHDRAWAL;
+
+    /*
+     * When the last withdrawal known to the bank's totals stops counting, and whether the account is waiting
+     * in the totals' queue to be looked at again then. It is only ever queued once at a time (see BankTotals).
+     */
+    private long expiryDue = NO_WITHDRAWAL;
+    private boolean expiryQueued = false;
 
     /*
      * Which customer does this account belong to
@@ -32,75 +77,135 @@ class Account {
     private final Customer customer;
     
     /*
-     * Reference to the transactions manager
+     * Reference to the transactions manager of the bank's context
      */
-    private Transactions transactions = Transactions.getInstance();
+    private final Transactions transactions;
     
     /*
      * Account number so a customer can deposit or withdraw with their account number rather than just referencing objects
      */
     private final int accountNumber;
+    
+    /*
+     * How the account is named on other accounts' statements, e.g. Bill (123456), made once rather than on every line
+     */
+    private final String label;
 
     /**
      * Account Constructor
      * @param customer		The customer who created the account
-     * @param accountType	The type of account, represented by an int
+     * @param product		The type of account
      */
-    Account(Customer customer, int accountType) {
+    Account(Customer customer, InterestProduct product) {
     	
-    	// Account number is generated via AccountNumber class
-    	accountNumber = AccountNumber.getInstance().generateAccountNumber();
-    	this.customer = customer;
-        this.accountType = accountType;
+    	// Account number is generated by the bank's AccountNumber
+    	this(customer, product, customer.getBank().newAccountNumber());
     } 
     
+    /**
+     * Creates an account with a known number, e.g. when the bank is rebuilt after a restart
+     * @param customer		The customer who created the account
+     * @param product		The type of account
+     * @param accountNumber	The account number
+     */
+    Account(Customer customer, InterestProduct product, int accountNumber) {
+    	this.accountNumber = accountNumber;
+    	this.customer = customer;
+        this.product = product;
+        this.transactions = customer.getBank().getContext().getTransactions();
+        this.label = customer.getName() + " (" + accountNumber + ")";
+    }
+    
     /**
      * Used to create a transaction from this account to another account
-     * @param amount		The amount you want to send
+     * @param amount		The amount you want to send, in dollars
      * @param toAccount		The account that will receive the funds
+     * @return boolean		True if the money was sent, false if it was refused (e.g. not enough funds)
+     * @throws IllegalArgumentException	If the other account's bank is in a different {@link BankContext}
      */
-    void sendMoney(double amount, Account toAccount) {
-    	transactions.add(amount, this, toAccount);
+    boolean sendMoney(double amount, Account toAccount) {
+    	return sendMoney(amount, toAccount, null);
+    }
+
+    /**
+     * Sends money to another account in a way that can be retried: another try with the same key
+     * gets the first try's outcome back, and the money is only sent once (see {@link Transactions#add(long, Account, Account, String)})
+     * @param amount		The amount you want to send, in dollars
+     * @param toAccount		The account that will receive the funds
+     * @param key			The idempotency key, unique to this payment, or null
+     * @return boolean		True if the money was sent, false if it was refused (e.g. not enough funds)
+     * @throws IllegalArgumentException	If the other account is in a different {@link BankContext}, or the key was used for another posting
+     */
+    boolean sendMoney(double amount, Account toAccount, String key) {
+    	if (toAccount != null && toAccount.transactions != transactions)
+    		throw new IllegalArgumentException("Money can't be sent to an account in another bank context");
+    	return transactions.add(Money.fromDollars(amount), this, toAccount, key);
     }
     
     /**
      * Deposit money into this account
-     * @param amount		Amount you'd like to deposit
+     * @param amount		Amount you'd like to deposit, in dollars
+     * @return boolean		True if the money was deposited
+     */
+    boolean deposit(double amount) {
+    	return transactions.add(Money.fromDollars(amount), null, this);
+    }
+
+    /**
+     * Deposit money into this account in a way that can be retried, see {@link #sendMoney(double, Account, String)}
+     * @param amount		Amount you'd like to deposit, in dollars
+     * @param key			The idempotency key, unique to this deposit, or null
+     * @return boolean		True if the money was deposited
+     * @throws IllegalArgumentException	If the key was used for another posting
      */
-    void deposit(double amount) {
-    	transactions.add(amount, null, this);
+    boolean deposit(double amount, String key) {
+    	return transactions.add(Money.fromDollars(amount), null, this, key);
     }
 
     /**
      * Withdraw money from this account
-     * @param amount		Amount you'd like to withdraw
+     * @param amount		Amount you'd like to withdraw, in dollars
+     * @return boolean		True if the money was withdrawn, false if it was refused
      */
-	void withdraw(double amount) {
-		transactions.add(amount, this, null);
+	boolean withdraw(double amount) {
+		return transactions.add(Money.fromDollars(amount), this, null);
+	}
+
+    /**
+     * Withdraw money from this account in a way that can be retried, see {@link #sendMoney(double, Account, String)}
+     * @param amount		Amount you'd like to withdraw, in dollars
+     * @param key			The idempotency key, unique to this withdrawal, or null
+     * @return boolean		True if the money was withdrawn, false if it was refused
+     * @throws IllegalArgumentException	If the key was used for another posting
+     */
+	boolean withdraw(double amount, String key) {
+		return transactions.add(Money.fromDollars(amount), this, null, key);
 	}
 
 	/**
 	 * Calculates the total amount of interest you will earn in a year
-	 * @return double
-	 */
-    double interestEarned() {
-        double amount = balance;
-        switch(accountType){
-        	case CHECKING:
-        		return amount * 0.001;
-            case SAVINGS:
-                if (amount <= 1000)
-                    return amount * 0.001;
-                else
-                    return 1 + (amount-1000) * 0.002;
-            case MAXI_SAVINGS:
-            	if (hasWithdrawn())
-            		return amount * 0.001;
-            	else
-            		return amount * 0.05;
-            default:
-                throw new IllegalArgumentException("Invalid account type");
-        }
+	 * @return long		Interest in cents, rounded with {@link #INTEREST_ROUNDING}
+	 */
+    long interestEarned() {
+        return interest(1);
+    }
+    
+    /**
+     * Calculates one day's interest at today's balance, as credited by {@link InterestAccrual}
+     * @return long		Interest in cents, rounded with {@link #INTEREST_ROUNDING}
+     */
+    long dailyInterest() {
+    	return interest(InterestAccrual.DAYS_PER_YEAR);
+    }
+    
+    /**
+     * Calculates the interest for one period
+     * @param periods	How many periods make a year
+     * @return long		Interest in cents
+     */
+    private long interest(int periods) {
+    	int days = product.getWithdrawalDays();
+    	return product.interest(balance, days > 0 && hasWithdrawn(days), periods);
     }
     
     /**
@@ -111,37 +216,283 @@ class Account {
     	return transactions.getTransactions(this);
     }
     
+    /**
+     * Returns the transactions made in a period, e.g. for a monthly statement
+     * @param from		Start of the period, inclusive, in milliseconds since the epoch
+     * @param to		End of the period, exclusive
+     * @return List<Transaction>	Oldest first
+     */
+    List<Transaction> getTransactions(long from, long to) {
+    	return transactions.getTransactions(this, from, to);
+    }
+    
+    /**
+     * Returns the most recent transactions
+     * @param count		How many transactions
+     * @return List<Transaction>	Oldest first
+     */
+    List<Transaction> getLastTransactions(int count) {
+    	return transactions.getLastTransactions(this, count);
+    }
+    
+    /**
+     * Returns one page of the transactions made in a period
+     * @param from		Start of the period, inclusive, in milliseconds since the epoch
+     * @param to		End of the period, exclusive
+     * @param cursor	{@link TransactionPage#FIRST}, or the cursor returned with the previous page
+     * @param limit		The most transactions on the page
+     * @return TransactionPage
+     */
+    TransactionPage getTransactions(long from, long to, long cursor, int limit) {
+    	return transactions.getTransactions(this, from, to, cursor, limit);
+    }
+    
+    /**
+     * Goes through part of the transactions made in a period without making Transaction objects, e.g. for a statement
+     * @param from		Start of the period, inclusive, in milliseconds since the epoch
+     * @param to		End of the period, exclusive
+     * @param cursor	{@link TransactionPage#FIRST}, or the cursor returned by the previous call
+     * @param limit		The most transactions to visit
+     * @param visitor	Told about each transaction in turn
+     * @return long		The cursor of the next transaction, or -1 if there are no more in the period
+     */
+    long visitTransactions(long from, long to, long cursor, int limit, Ledger.Visitor visitor) {
+    	return transactions.visit(this, from, to, cursor, limit, visitor);
+    }
+    
+    /**
+     * Goes through the transactions made since a time and reads the balance at the same moment, see {@link Transactions#visitSince}
+     * @param time		Milliseconds since the epoch
+     * @param visitor	Told about each transaction in turn
+     * @return long		The balance, in cents
+     */
+    long visitTransactionsSince(long time, Ledger.Visitor visitor) {
+    	return transactions.visitSince(this, time, visitor);
+    }
+    
+    /**
+     * Returns one page of the account's statement for a period, see {@link StatementPage}
+     * @param from		Start of the period, inclusive, in milliseconds since the epoch
+     * @param to		End of the period, exclusive
+     * @param cursor	Null for the first page, or the cursor of the previous page
+     * @param limit		The most transactions on the page
+     * @return StatementPage
+     */
+    StatementPage getStatementPage(long from, long to, String cursor, int limit) {
+    	return StatementPage.read(this, from, to, cursor, limit);
+    }
+    
     /**
      * Checks to see if the account has withdrawn any funds recently
+     * @param days		How recently, in whole days
      * @return boolean	Returns true if funds have been withdrawn recently
      */
-    private boolean hasWithdrawn() {
-    	for (Transaction trans : getTransactions()) {
-    		if (trans.getFromAccount() == this && trans.IsRecentTransaction())
-    			return true;
-    	}
-    	return false;
+    private boolean hasWithdrawn(int days) {
+    	return withdrawnWithin(lastWithdrawal, days, customer.getBank().getContext().getClock().nowMillis());
+    }
+    
+    /**
+     * Checks whether a withdrawal still counts, e.g. for an account copied into a snapshot
+     * @param lastWithdrawal	When money last left the account, as {@link #getLastWithdrawal()}
+     * @param days				How recently, in whole days
+     * @param now				The time to check at, in milliseconds since the epoch
+     * @return boolean			True if the withdrawal was made within the days
+     */
+    static boolean withdrawnWithin(long lastWithdrawal, int days, long now) {
+    	if (lastWithdrawal == NO_WITHDRAWAL)
+    		return false;
+    	return TimeUnit.MILLISECONDS.toDays(now - lastWithdrawal) <= days;
+    }
+    
+    /**
+     * Notes that money left the account. This is called by Transactions when a withdrawal or transfer is posted.
+     * @param time	When the money left, in milliseconds since the epoch
+     */
+    void recordWithdrawal(long time) {
+    	if (time > lastWithdrawal)
+    		lastWithdrawal = time;
+    }
+    
+    /**
+     * @return when money last left the account in milliseconds since the epoch, or Long.MIN_VALUE if it never has
+     */
+    long getLastWithdrawal() {
+    	return lastWithdrawal;
     }
     
     /**
-     * Update the balance of the account. This is called after a transaction has been saved to ensure balance is correct
-     * @param amount	Positive to increase balance, negative to decrease balance
+     * Update the balance of the account. This is called by Transactions when a transaction is posted to ensure balance is correct
+     * @param amount	In cents, positive to increase balance, negative to decrease balance
      */
-    void updateBalance(double amount) {
+    void updateBalance(long amount) {
 		this.balance += amount;
 	}
 
 	/**
-	 * @return the accountType
+	 * Keeps the account's state as it was at a cut, unless the account has already changed since the cut.
+	 * Called by Transactions before each change to the account.
+	 * @param cut	The number of the latest cut
+	 */
+	void keepCut(int cut) {
+		if (this.cut != cut) {
+			this.cut = cut;
+			cutBalance = balance;
+			cutWithdrawal = lastWithdrawal;
+			cutSequence = journalSequence;
+		}
+	}
+
+	/**
+	 * Adds money paid into the account before a cut, but only arriving after it (a transfer between shards),
+	 * to the state kept for the cut
+	 * @param amount	In cents
+	 * @param sequence	The journal record of the transfer, 0 if none
+	 */
+	void addToCut(long amount, long sequence) {
+		cutBalance += amount;
+		if (sequence > cutSequence)
+			cutSequence = sequence;
+	}
+
+	/**
+	 * @param cut		The number of a cut
+	 * @return boolean	True if the account has changed since the cut, so its state then is kept separately
+	 */
+	boolean changedSinceCut(int cut) {
+		return this.cut == cut;
+	}
+
+	/**
+	 * @return the balance at the last cut, see {@link #keepCut}
+	 */
+	long getCutBalance() {
+		return cutBalance;
+	}
+
+	/**
+	 * @return when money last left the account at the last cut
+	 */
+	long getCutWithdrawal() {
+		return cutWithdrawal;
+	}
+
+	/**
+	 * @return the last journal record applied to the account at the last cut
+	 */
+	long getCutSequence() {
+		return cutSequence;
+	}
+
+	/**
+	 * Puts the account back into a saved state, e.g. when the bank is loaded from a snapshot
+	 * @param balance			In cents
+	 * @param lastWithdrawal	When money last left the account, or Long.MIN_VALUE if it never has
+	 * @param journalSequence	The last journal record included in the saved state
+	 */
+	void restore(long balance, long lastWithdrawal, long journalSequence) {
+		this.balance = balance;
+		this.lastWithdrawal = lastWithdrawal;
+		this.journalSequence = journalSequence;
+	}
+
+	/**
+	 * @return the sequence number of the last journal record applied to this account
+	 */
+	long getJournalSequence() {
+		return journalSequence;
+	}
+
+	/**
+	 * @param journalSequence	the sequence number of the last journal record applied to this account
+	 */
+	void setJournalSequence(long journalSequence) {
+		this.journalSequence = journalSequence;
+	}
+
+	/**
+	 * @return the balance last added to the bank's totals
+	 */
+	long getCountedBalance() {
+		return countedBalance;
+	}
+
+	/**
+	 * @return the interest last added to the bank's totals
+	 */
+	long getCountedInterest() {
+		return countedInterest;
+	}
+
+	/**
+	 * Remembers what the bank's totals now include for this account
+	 * @param balance
+	 * @param interest
+	 */
+	void setCounted(long balance, long interest) {
+		this.countedBalance = balance;
+		this.countedInterest = interest;
+	}
+
+	/**
+	 * @return the last withdrawal the bank's totals know about
+	 */
+	long getCountedWithdrawal() {
+		return countedWithdrawal;
+	}
+
+	/**
+	 * @param withdrawal	the last withdrawal the bank's totals know about
+	 */
+	void setCountedWithdrawal(long withdrawal) {
+		this.countedWithdrawal = withdrawal;
+	}
+
+	/**
+	 * @return when the last withdrawal known to the bank's totals stops counting, in milliseconds since the epoch
+	 */
+	long getExpiryDue() {
+		return expiryDue;
+	}
+
+	/**
+	 * @param expiryDue		when the last withdrawal known to the bank's totals stops counting
+	 */
+	void setExpiryDue(long expiryDue) {
+		this.expiryDue = expiryDue;
+	}
+
+	/**
+	 * @return true if the account is waiting in the bank's totals' queue of withdrawals to expire
+	 */
+	boolean isExpiryQueued() {
+		return expiryQueued;
+	}
+
+	/**
+	 * @param expiryQueued	whether the account is waiting in the bank's totals' queue of withdrawals to expire
+	 */
+	void setExpiryQueued(boolean expiryQueued) {
+		this.expiryQueued = expiryQueued;
+	}
+
+	/**
+	 * @return the type of account
+	 */
+	InterestProduct getProduct() {
+		return product;
+	}
+
+	/**
+	 * @return the number of the type of account, see {@link InterestProduct#getId()}
 	 */
 	int getAccountType() {
-		return accountType;
+		return product.getId();
 	}
 
 	/**
-	 * @return the balance
+	 * @return the balance in cents
 	 */
-	double getBalance() {
+	long getBalance() {
 		return balance;
 	}
 
@@ -158,6 +509,13 @@ class Account {
 	int getAccountNumber() {
 		return accountNumber;
 	}
+	
+	/**
+	 * @return the owner and number of the account as they appear on statements, e.g. Bill (123456)
+	 */
+	String getLabel() {
+		return label;
+	}
     
     
 }
@@ -1,50 +1,98 @@
 package com.abc;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Random;
 
 /**
  * @author Eddy Brown
- * 
+ *
  * Generates a unique random number between the minimum and maximum values defined below.
  *
+ * Rather than storing every possible number, the numbers are walked in a scrambled order by a linear
+ * congruential generator (next = (a * current + c) mod range). Its constants are chosen so the walk
+ * visits every number in the range exactly once before repeating, so the generator only has to remember
+ * where it is and how many numbers it has handed out. Numbers can be handed out to many threads at once.
+ *
  */
 class AccountNumber {
-	
-    private static AccountNumber instance = null;
-    
-    private List<Integer> accountNumbers = new ArrayList<Integer>();
-    
-    
-    private final int MAX_ACCOUNT_NUMBER = 999999;
-    private final int MIN_ACCOUNT_NUMBER = 100000; 
-    
-    private int accountIndex = 0;
 
+    private static final int MAX_ACCOUNT_NUMBER = 999999;
+    private static final int MIN_ACCOUNT_NUMBER = 100000;
+
+    /*
+     * How many account numbers there are to hand out
+     */
+    static final int RANGE = MAX_ACCOUNT_NUMBER - MIN_ACCOUNT_NUMBER + 1;
+
+    /*
+     * The multiplier of the generator. The range (900,000) factors into 2^5 * 3^2 * 5^5, so for the walk to
+     * visit every number the multiplier minus one must be divisible by 2, 3, 5 and 4, i.e. by 60.
+     */
+    private static final long MULTIPLIER = 60 * 8736 + 1;
+
+    /*
+     * The increment, which must share no factor with the range. Picked at random so each bank
+     * hands out its numbers in a different order.
+     */
+    private final long increment;
+
+    /*
+     * Where the walk currently is (the next number minus the minimum) and how many numbers have been handed out
+     */
+    private long current;
+    private int issued = 0;
+
+    /**
+     * @return the generator of the default context, see {@link BankContext#getDefault()}
+     */
     static AccountNumber getInstance() {
-        if (instance == null)
-            instance = new AccountNumber();
-        return instance;
+        return BankContext.getDefault().getAccountNumbers();
     }
-    
+
     /**
-     * Populates a list of possible account numbers
+     * Starts the walk at a random place with a random increment
      */
     public AccountNumber() {
-    	for (int i=MIN_ACCOUNT_NUMBER; i<=MAX_ACCOUNT_NUMBER; i++) {
-    		accountNumbers.add(i);
-    	}
-        Collections.shuffle(accountNumbers);
+    	this(new Random());
+    }
+
+    /**
+     * Starts the walk from the given source of randomness, so tests can repeat a sequence
+     * @param random
+     */
+    AccountNumber(Random random) {
+    	long c = random.nextInt(RANGE);
+    	while (c % 2 == 0 || c % 3 == 0 || c % 5 == 0)
+    		c = (c + 1) % RANGE;
+    	increment = c;
+    	current = random.nextInt(RANGE);
     }
- 
+
     /**
      * One unique account number is selected each time
+     * @return int	A six-digit account number that hasn't been handed out before
+     * @throws IllegalStateException	If every account number has already been handed out
      */
-	int generateAccountNumber() {
-		accountIndex++;
-		return accountNumbers.get(accountIndex);
-		
+	synchronized int generateAccountNumber() {
+		if (!hasNext())
+			throw new IllegalStateException("All " + RANGE + " account numbers have been used");
+		int accountNumber = MIN_ACCOUNT_NUMBER + (int) current;
+		current = (MULTIPLIER * current + increment) % RANGE;
+		issued++;
+		return accountNumber;
+	}
+
+	/**
+	 * @return boolean	True if there are account numbers left to hand out
+	 */
+	synchronized boolean hasNext() {
+		return issued < RANGE;
 	}
-	
+
+	/**
+	 * @return int	How many account numbers are left to hand out
+	 */
+	synchronized int remaining() {
+		return RANGE - issued;
+	}
+
 }
@@ -0,0 +1,120 @@
+package com.abc;
+
+/**
+ * @author Eddy Brown
+ *
+ * A lookup table of accounts keyed by their account number.
+ * Account numbers are stored as plain ints (open addressing with linear probing), so finding an
+ * account never has to box the number into an Integer.
+ *
+ */
+class AccountRegistry {
+
+	/*
+	 * Smallest table we create, must be a power of two
+	 */
+	private static final int MIN_CAPACITY = 16;
+
+	/*
+	 * Account numbers and the accounts they belong to. A slot is empty when its account is null.
+	 */
+	private int[] keys;
+	private Account[] values;
+
+	/*
+	 * Number of accounts held
+	 */
+	private int size = 0;
+
+	AccountRegistry() {
+		keys = new int[MIN_CAPACITY];
+		values = new Account[MIN_CAPACITY];
+	}
+
+	/**
+	 * Adds an account to the registry under its account number
+	 * @param account		The account to add
+	 * @throws IllegalArgumentException		If a different account already has the same number
+	 */
+	void put(Account account) {
+
+		// Keep the table at most half full so probes stay short
+		if ((size + 1) * 2 > keys.length)
+			resize(keys.length * 2);
+
+		int accountNumber = account.getAccountNumber();
+		int slot = find(keys, values, accountNumber);
+		if (values[slot] == null) {
+			keys[slot] = accountNumber;
+			values[slot] = account;
+			size++;
+		}
+		else if (values[slot] != account)
+			throw new IllegalArgumentException("Account number " + accountNumber + " is already in use");
+	}
+
+	/**
+	 * Finds an account by its number
+	 * @param accountNumber
+	 * @return Account		The account, or null if no account has this number
+	 */
+	Account get(int accountNumber) {
+		return values[find(keys, values, accountNumber)];
+	}
+
+	/**
+	 * @return int	Number of accounts in the registry
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Finds the slot holding the account number, or the empty slot where it would go
+	 */
+	private static int find(int[] keys, Account[] values, int accountNumber) {
+		int mask = keys.length - 1;
+		int slot = hash(accountNumber) & mask;
+		while (values[slot] != null && keys[slot] != accountNumber)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * Spreads the bits of the account number so neighbouring numbers don't cluster together
+	 */
+	private static int hash(int accountNumber) {
+		int h = accountNumber * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Moves every account into a larger table
+	 */
+	private void resize(int capacity) {
+		int[] newKeys = new int[capacity];
+		Account[] newValues = new Account[capacity];
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) {
+				int slot = find(newKeys, newValues, keys[i]);
+				newKeys[slot] = keys[i];
+				newValues[slot] = values[i];
+			}
+		}
+		keys = newKeys;
+		values = newValues;
+	}
+
+	/**
+	 * @return Account[]	Every account in the registry, in no particular order
+	 */
+	Account[] toArray() {
+		Account[] all = new Account[size];
+		int n = 0;
+		for (Account account : values) {
+			if (account != null)
+				all[n++] = account;
+		}
+		return all;
+	}
+}
@@ -2,11 +2,13 @@ package com.abc;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * @author Eddy Brown
  * 
  * Bank class contains a reference to all customers and therefore all accounts and transactions.
+ * Its transactions, account numbers and clock come from its {@link BankContext}.
  *
  */
 public class Bank {
@@ -15,35 +17,140 @@ public class Bank {
 	 * A list for customers who use this bank
 	 */
     private List<Customer> customers;
+    
+    /*
+     * The ledger, account number generator and clock this bank uses
+     */
+    private final BankContext context;
+    
+    /*
+     * Every account held at this bank, keyed by account number
+     */
+    private AccountRegistry accounts;
+    
+    /*
+     * Taken to open customers and accounts while other threads read them (e.g. through BankServer), and shared
+     * by the readers that go through them all (e.g. BankSnapshot). Code that only opens them on one thread
+     * doesn't need it.
+     */
+    private final StampedLock registryLock = new StampedLock();
+    
+    /*
+     * Running totals of balances and interest, kept up to date as transactions are posted
+     */
+    private final BankTotals totals;
+    
+    /*
+     * Where changes to the bank are recorded so it can be rebuilt after a restart, if anywhere
+     */
+    private volatile Journal journal = null;
 
     /*
      * A bank consists of customers
      */
     Bank() {
+        this(BankContext.getDefault());
+    }
+
+    /**
+     * A bank in its own context, isolated from banks in other contexts
+     * @param context
+     */
+    Bank(BankContext context) {
+        this.context = context;
         customers = new ArrayList<Customer>();
+        accounts = new AccountRegistry();
+        totals = new BankTotals(context.getClock());
     }
 
     /**
      * Add a customer to the bank. This is used in the Customer constructor as a customer must have a bank
      * in order to have an account.
      * @param customer
+     * @return int		The customer's id at this bank (customers are numbered from 0 in the order they join)
      */
-    void addCustomer(Customer customer) {
+    int addCustomer(Customer customer) {
+    	int id = customers.size();
+    	if (journal != null)
+    		journal.customer(id, customer.getName());
         customers.add(customer);
+        return id;
+    }
+    
+    /**
+     * Registers a newly opened account so it can be found by its account number.
+     * This is used when a customer opens an account.
+     * @param account
+     */
+    void addAccount(Account account) {
+    	if (journal != null)
+    		journal.account(account.getCustomer().getId(), account.getAccountNumber(), account.getAccountType());
+    	accounts.put(account);
+    	totals.addAccount(account);
+    }
+    
+    /**
+     * Picks a number for a new account that no other account at this bank has
+     * @return int
+     */
+    int newAccountNumber() {
+    	int accountNumber;
+    	do {
+    		accountNumber = context.getAccountNumbers().generateAccountNumber();
+    	} while (accounts.get(accountNumber) != null);
+    	return accountNumber;
+    }
+    
+    /**
+     * @return the context the bank's transactions, account numbers and clock come from
+     */
+    BankContext getContext() {
+    	return context;
+    }
+    
+    /**
+     * @return int	The number of customers
+     */
+    int getNumberOfCustomers() {
+    	return customers.size();
+    }
+    
+    /**
+     * @param id
+     * @return Customer		The customer with this id
+     */
+    Customer getCustomer(int id) {
+    	return customers.get(id);
+    }
+    
+    /**
+     * Starts recording changes to the bank in a journal. See {@link Journal#recover(java.nio.file.Path, int, BankContext)}.
+     * @param journal
+     */
+    void setJournal(Journal journal) {
+    	this.journal = journal;
+    }
+    
+    /**
+     * @return the journal changes are recorded in, or null if there isn't one
+     */
+    Journal getJournal() {
+    	return journal;
     }
 
     /**
      * Produces a summary of customers currently linked to the bank as well as how many accounts they have.
+     * See {@link BankReporting} for reports on large banks.
      * @return String
      */
     String customerSummary() {
     	if (customers.isEmpty())
     		return "You have no customers";
     	else {
-	        String summary = "Customer Summary";
+	        StringBuilder summary = new StringBuilder("Customer Summary");
 	        for (Customer c : customers)
-	            summary += "\n - " + c.getName() + " (" + format(c.getNumberOfAccounts(), "account") + ")";
-	        return summary;
+	            summary.append("\n - ").append(c.getName()).append(" (").append(format(c.getNumberOfAccounts(), "account")).append(')');
+	        return summary.toString();
     	}
     }
 
@@ -60,39 +167,91 @@ public class Bank {
     /**
      * Gets the amount of interest the account will earn in a year
      * @param account		Account you'd like to check
-     * @return double		The amount of interest earned in a year
+     * @return long		The amount of interest earned in a year, in cents
      */
-    double getAccountInterest(Account account) {
+    long getAccountInterest(Account account) {
     	return account.interestEarned();
     }
     
     /**
-     * Total amount of interest paid to the bank from all accounts
-     * @return double
+     * Total amount of interest paid to the bank from all accounts.
+     * This is read from the running totals rather than worked out account by account.
+     * @return long		In cents
      */
-    double totalInterestPaid() {
-        double total = 0;
-        for(Customer c: customers)
-            total += c.totalInterestEarned();
-        return total;
+    long totalInterestPaid() {
+        Metrics metrics = context.getMetrics();
+        long start = metrics.start();
+        long interest = totals.totalInterest();
+        metrics.end(Metrics.Operation.TOTAL_INTEREST, start);
+        return interest;
     }
     
     /**
-     * Allows the bank to find the account using the account number as a reference
-     * @param accountNumber		
-     * @return Account
+     * Total amount of money held in all accounts
+     * @return long		In cents
      */
-    Account getAccountByNumber(int accountNumber) {
-    	
-    	// Check all customers
+    long totalDeposits() {
+    	return totals.totalBalance();
+    }
+    
+    /**
+     * @return the running totals of the bank, broken down by account type
+     */
+    BankTotals getTotals() {
+    	return totals;
+    }
+    
+    /**
+     * Recounts the interest and money held by going through every customer and account, and checks
+     * the running totals agree. This is slow and meant for tests and audits.
+     * @return boolean		True if the running totals match the recount
+     */
+    boolean checkTotals() {
+    	int[] accountCounts = new int[InterestProduct.MAX_PRODUCTS];
+    	long[] balances = new long[InterestProduct.MAX_PRODUCTS];
+    	long[] interest = new long[InterestProduct.MAX_PRODUCTS];
     	for (Customer c : customers) {
-    		// And all their accounts
     		for (Account a : c.getAccounts()) {
-    			if (a.getAccountNumber() == accountNumber)
-    				return a;
+    			accountCounts[a.getAccountType()]++;
+    			balances[a.getAccountType()] += a.getBalance();
+    			interest[a.getAccountType()] += a.interestEarned();
     		}
     	}
-    	// Return null if no account is found
-    	return null;
+    	for (InterestProduct product : InterestProduct.all()) {
+    		int type = product.getId();
+    		if (accountCounts[type] != totals.numberOfAccounts(product)
+    				|| balances[type] != totals.totalBalance(product)
+    				|| interest[type] != totals.totalInterest(product))
+    			return false;
+    	}
+    	return true;
+    }
+    
+    /**
+     * Allows the bank to find the account using the account number as a reference
+     * @param accountNumber		
+     * @return Account		The account, or null if the bank has no account with this number
+     */
+    Account getAccountByNumber(int accountNumber) {
+    	// Returns null if no account is found
+    	Metrics metrics = context.getMetrics();
+    	long start = metrics.start();
+    	Account account = accounts.get(accountNumber);
+    	metrics.end(Metrics.Operation.ACCOUNT_LOOKUP, start);
+    	return account;
+    }
+    
+    /**
+     * @return StampedLock	The lock guarding the bank's customers and accounts while they are opened and read at once
+     */
+    StampedLock getRegistryLock() {
+    	return registryLock;
+    }
+    
+    /**
+     * @return Account[]	Every account at the bank, e.g. for work that goes through them all
+     */
+    Account[] getAccounts() {
+    	return accounts.toArray();
     }
 }
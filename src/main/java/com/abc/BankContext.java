@@ -0,0 +1,85 @@
+package com.abc;
+
+/**
+ * @author Eddy Brown
+ *
+ * Everything a bank shares with the banks it trades with: the ledger and posting engine
+ * ({@link Transactions}), the account number generator, the clock and the operation metrics
+ * ({@link Metrics}). Banks in different contexts
+ * share nothing, so several isolated banks (e.g. one per tenant, or one per test) can run side by
+ * side in one JVM without seeing each other's transactions or contending for the same locks.
+ * Money can only move between accounts in the same context.
+ *
+ * A context is immutable once made, and its parts are final fields, so it can be handed to other threads
+ * freely. Banks made with {@link Bank#Bank()} share the default context.
+ *
+ */
+class BankContext {
+
+	private final Transactions transactions;
+	private final AccountNumber accountNumbers;
+	private final DateProvider clock;
+	private final Metrics metrics;
+
+	/*
+	 * Made the first time it is used; the class loader makes sure every thread sees it whole
+	 */
+	private static final class Default {
+		static final BankContext INSTANCE = new BankContext();
+	}
+
+	/**
+	 * The context shared by banks that weren't given one
+	 * @return BankContext
+	 */
+	static BankContext getDefault() {
+		return Default.INSTANCE;
+	}
+
+	/**
+	 * A new isolated context with its own ledger, random account numbers and the system clock
+	 */
+	BankContext() {
+		this(new AccountNumber(), new DateProvider());
+	}
+
+	/**
+	 * A new isolated context with its own ledger
+	 * @param accountNumbers	Where new account numbers come from
+	 * @param clock				What the time is, e.g. a fixed clock in tests
+	 */
+	BankContext(AccountNumber accountNumbers, DateProvider clock) {
+		this.accountNumbers = accountNumbers;
+		this.clock = clock;
+		this.metrics = new Metrics();
+		this.transactions = new Transactions(clock, metrics);
+	}
+
+	/**
+	 * @return the ledger and posting engine
+	 */
+	Transactions getTransactions() {
+		return transactions;
+	}
+
+	/**
+	 * @return the account number generator
+	 */
+	AccountNumber getAccountNumbers() {
+		return accountNumbers;
+	}
+
+	/**
+	 * @return the clock
+	 */
+	DateProvider getClock() {
+		return clock;
+	}
+
+	/**
+	 * @return the operation metrics of the context's banks
+	 */
+	Metrics getMetrics() {
+		return metrics;
+	}
+}
@@ -0,0 +1,371 @@
+package com.abc;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * @author Eddy Brown
+ *
+ * The bank-wide reports made by {@link BankReporting} from one snapshot of the bank: a summary of each
+ * customer, the totals for each type of account with a year's and a day's projected interest, and the
+ * customers holding the most money (customers without accounts aren't ranked). Amounts are in cents.
+ *
+ * The reports can be written as CSV, one table at a time, or all together as JSON. Like statements
+ * (see {@link StatementWriter}) they are built in a small buffer that is handed on whenever it fills up,
+ * so a report on millions of customers is never held in memory as text. In CSV and JSON, amounts are
+ * written as plain dollars, e.g. 1234.50.
+ *
+ */
+class BankReport {
+
+	/**
+	 * The tables that can be written as CSV
+	 */
+	enum Table {
+		CUSTOMERS, PRODUCTS, TOP
+	}
+
+	/*
+	 * How much text to collect before passing it on
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	private final BankSnapshot snapshot;
+	private final long time;
+
+	/*
+	 * Each customer's figures, by customer id, filled in by the pieces of the reporting pass
+	 */
+	final int[] customerAccounts;
+	final long[] customerBalances;
+	final long[] customerInterest;
+
+	/*
+	 * Totals by account type, by InterestProduct id, and the richest customers' ids, richest first
+	 */
+	private int[] productAccounts;
+	private long[] productBalances;
+	private long[] productInterest;
+	private long[] productDailyInterest;
+	private int[] top;
+
+	/**
+	 * An empty report, to be filled in by {@link BankReporting}
+	 * @param snapshot	What the report is on
+	 * @param time		When interest is projected from
+	 */
+	BankReport(BankSnapshot snapshot, long time) {
+		this.snapshot = snapshot;
+		this.time = time;
+		int customers = snapshot.customerNames.length;
+		customerAccounts = new int[customers];
+		customerBalances = new long[customers];
+		customerInterest = new long[customers];
+	}
+
+	/**
+	 * Fills in the totals by account type (by InterestProduct id) and the ranking, once the pass is done
+	 */
+	void setTotals(int[] accounts, long[] balances, long[] interest, long[] dailyInterest, int[] top) {
+		this.productAccounts = accounts;
+		this.productBalances = balances;
+		this.productInterest = interest;
+		this.productDailyInterest = dailyInterest;
+		this.top = top;
+	}
+
+	/**
+	 * @return long		When interest was projected from, in milliseconds since the epoch
+	 */
+	long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return long		The journal record the snapshot behind the report was taken at
+	 */
+	long getJournalSequence() {
+		return snapshot.journalSequence;
+	}
+
+	/**
+	 * @return int		The number of customers
+	 */
+	int getNumberOfCustomers() {
+		return customerAccounts.length;
+	}
+
+	/**
+	 * @param customer	Customer id
+	 * @return String	The customer's name
+	 */
+	String getCustomerName(int customer) {
+		return snapshot.customerNames[customer];
+	}
+
+	/**
+	 * @param customer	Customer id
+	 * @return int		The customer's number of accounts
+	 */
+	int getCustomerAccounts(int customer) {
+		return customerAccounts[customer];
+	}
+
+	/**
+	 * @param customer	Customer id
+	 * @return long		Money held in all the customer's accounts
+	 */
+	long getCustomerBalance(int customer) {
+		return customerBalances[customer];
+	}
+
+	/**
+	 * @param customer	Customer id
+	 * @return long		Interest the customer's accounts will earn in a year
+	 */
+	long getCustomerInterest(int customer) {
+		return customerInterest[customer];
+	}
+
+	/**
+	 * @param product
+	 * @return int		The number of accounts of this type
+	 */
+	int getNumberOfAccounts(InterestProduct product) {
+		return productAccounts[product.getId()];
+	}
+
+	/**
+	 * @param product
+	 * @return long		Money held in accounts of this type
+	 */
+	long getTotalBalance(InterestProduct product) {
+		return productBalances[product.getId()];
+	}
+
+	/**
+	 * @param product
+	 * @return long		Interest accounts of this type will earn in a year
+	 */
+	long getTotalInterest(InterestProduct product) {
+		return productInterest[product.getId()];
+	}
+
+	/**
+	 * @param product
+	 * @return long		A day's interest on accounts of this type, as {@link InterestAccrual} would credit it
+	 */
+	long getDailyInterest(InterestProduct product) {
+		return productDailyInterest[product.getId()];
+	}
+
+	/**
+	 * @return long		Money held in all accounts
+	 */
+	long getTotalBalance() {
+		long total = 0;
+		for (long balance : productBalances)
+			total += balance;
+		return total;
+	}
+
+	/**
+	 * @return long		Interest all accounts will earn in a year
+	 */
+	long getTotalInterest() {
+		long total = 0;
+		for (long interest : productInterest)
+			total += interest;
+		return total;
+	}
+
+	/**
+	 * @return int[]	The ids of the customers holding the most money, richest first (ties in id order)
+	 */
+	int[] getTopCustomers() {
+		return top.clone();
+	}
+
+	/**
+	 * Writes one table as CSV, with a header line:
+	 *
+	 *     CUSTOMERS  id,name,accounts,balance,interest
+	 *     PRODUCTS   id,name,accounts,balance,interest,daily_interest
+	 *     TOP        rank,id,name,balance
+	 *
+	 * @param table
+	 * @param out			Where to write the table, e.g. a Writer
+	 * @throws IOException	If the output can't be written to
+	 */
+	void writeCsv(Table table, Appendable out) throws IOException {
+		Output o = new Output(out);
+		StringBuilder b = o.buffer;
+		switch (table) {
+			case CUSTOMERS:
+				b.append("id,name,accounts,balance,interest\n");
+				for (int c = 0; c < customerAccounts.length; c++) {
+					b.append(c).append(',');
+					appendCsv(b, snapshot.customerNames[c]);
+					b.append(',').append(customerAccounts[c]).append(',');
+					Money.appendDecimal(b, customerBalances[c]);
+					b.append(',');
+					Money.appendDecimal(b, customerInterest[c]);
+					b.append('\n');
+					o.flushIfFull();
+				}
+				break;
+			case PRODUCTS:
+				b.append("id,name,accounts,balance,interest,daily_interest\n");
+				for (InterestProduct product : InterestProduct.all()) {
+					int type = product.getId();
+					b.append(type).append(',');
+					appendCsv(b, product.getName());
+					b.append(',').append(productAccounts[type]).append(',');
+					Money.appendDecimal(b, productBalances[type]);
+					b.append(',');
+					Money.appendDecimal(b, productInterest[type]);
+					b.append(',');
+					Money.appendDecimal(b, productDailyInterest[type]);
+					b.append('\n');
+				}
+				break;
+			case TOP:
+				b.append("rank,id,name,balance\n");
+				for (int rank = 0; rank < top.length; rank++) {
+					int c = top[rank];
+					b.append(rank + 1).append(',').append(c).append(',');
+					appendCsv(b, snapshot.customerNames[c]);
+					b.append(',');
+					Money.appendDecimal(b, customerBalances[c]);
+					b.append('\n');
+				}
+				break;
+		}
+		o.flush();
+	}
+
+	/**
+	 * Writes the whole report as one JSON object:
+	 *
+	 *     {"time": ..., "journalSequence": ..., "totals": {...}, "products": [...], "top": [...], "customers": [...]}
+	 *
+	 * @param out			Where to write the report, e.g. a Writer
+	 * @throws IOException	If the output can't be written to
+	 */
+	void writeJson(Appendable out) throws IOException {
+		Output o = new Output(out);
+		StringBuilder b = o.buffer;
+		b.append("{\"time\":").append(time).append(",\"journalSequence\":").append(snapshot.journalSequence);
+		b.append(",\"totals\":{\"customers\":").append(customerAccounts.length)
+			.append(",\"accounts\":").append(snapshot.getNumberOfAccounts()).append(",\"balance\":");
+		Money.appendDecimal(b, getTotalBalance());
+		b.append(",\"interest\":");
+		Money.appendDecimal(b, getTotalInterest());
+		b.append('}');
+
+		b.append(",\"products\":[");
+		List<InterestProduct> products = InterestProduct.all();
+		for (int i = 0; i < products.size(); i++) {
+			int type = products.get(i).getId();
+			b.append(i == 0 ? "{" : ",{").append("\"id\":").append(type).append(",\"name\":");
+			appendJson(b, products.get(i).getName());
+			b.append(",\"accounts\":").append(productAccounts[type]).append(",\"balance\":");
+			Money.appendDecimal(b, productBalances[type]);
+			b.append(",\"interest\":");
+			Money.appendDecimal(b, productInterest[type]);
+			b.append(",\"dailyInterest\":");
+			Money.appendDecimal(b, productDailyInterest[type]);
+			b.append('}');
+		}
+
+		b.append("],\"top\":[");
+		for (int rank = 0; rank < top.length; rank++) {
+			b.append(rank == 0 ? "{" : ",{").append("\"rank\":").append(rank + 1).append(",\"id\":").append(top[rank]).append(",\"name\":");
+			appendJson(b, snapshot.customerNames[top[rank]]);
+			b.append(",\"balance\":");
+			Money.appendDecimal(b, customerBalances[top[rank]]);
+			b.append('}');
+		}
+
+		b.append("],\"customers\":[");
+		for (int c = 0; c < customerAccounts.length; c++) {
+			b.append(c == 0 ? "{" : ",{").append("\"id\":").append(c).append(",\"name\":");
+			appendJson(b, snapshot.customerNames[c]);
+			b.append(",\"accounts\":").append(customerAccounts[c]).append(",\"balance\":");
+			Money.appendDecimal(b, customerBalances[c]);
+			b.append(",\"interest\":");
+			Money.appendDecimal(b, customerInterest[c]);
+			b.append('}');
+			o.flushIfFull();
+		}
+		b.append("]}");
+		o.flush();
+	}
+
+	/**
+	 * Writes a CSV field, quoted if it has a comma, quote or line break in it
+	 */
+	private static void appendCsv(StringBuilder b, String value) {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char ch = value.charAt(i);
+			quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+		}
+		if (!quote) {
+			b.append(value);
+			return;
+		}
+		b.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			if (ch == '"')
+				b.append('"');
+			b.append(ch);
+		}
+		b.append('"');
+	}
+
+	/**
+	 * Writes a JSON string
+	 */
+	private static void appendJson(StringBuilder b, String value) {
+		b.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			if (ch == '"' || ch == '\\') {
+				b.append('\\').append(ch);
+			} else if (ch < 0x20) {
+				b.append("\\u00");
+				b.append(Character.forDigit(ch >> 4, 16)).append(Character.forDigit(ch & 0xF, 16));
+			} else {
+				b.append(ch);
+			}
+		}
+		b.append('"');
+	}
+
+	/*
+	 * The buffer a report is built in. If we are writing into a StringBuilder we can build the report in it directly.
+	 */
+	private static final class Output {
+		final Appendable out;
+		final StringBuilder buffer;
+
+		Output(Appendable out) {
+			this.out = out;
+			this.buffer = out instanceof StringBuilder ? (StringBuilder) out : new StringBuilder(BUFFER_SIZE + 256);
+		}
+
+		void flushIfFull() throws IOException {
+			if (buffer != out && buffer.length() >= BUFFER_SIZE)
+				flush();
+		}
+
+		void flush() throws IOException {
+			if (buffer == out || buffer.length() == 0)
+				return;
+			out.append(buffer);
+			buffer.setLength(0);
+		}
+	}
+}
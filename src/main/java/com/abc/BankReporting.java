@@ -0,0 +1,214 @@
+package com.abc;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @author Eddy Brown
+ *
+ * Works out the bank-wide reports (see {@link BankReport}) in one pass over the bank's accounts: each
+ * customer's accounts, money held and interest, the totals for each type of account, a year's and a
+ * day's projected interest, and the customers holding the most money.
+ *
+ * The pass reads a consistent {@link BankSnapshot} rather than the live accounts, so the report adds up
+ * while postings carry on: the snapshot copies the accounts as they were at one moment, and no posting is
+ * held up for longer than it takes to copy its own account. The snapshot holds each customer's accounts side by side, so the work is split with
+ * fork/join into pieces of whole customers: each piece fills in its own customers' figures, adds up
+ * its own totals and picks its own richest customers, and the pieces' totals and rankings are merged
+ * as they are joined. Every figure only depends on the snapshot, so the result is exactly the same
+ * however the work is split.
+ *
+ */
+class BankReporting {
+
+	/*
+	 * Customers ranked by the report unless told otherwise
+	 */
+	static final int DEFAULT_TOP = 10;
+
+	/*
+	 * Accounts handled by one piece of work without splitting it further
+	 */
+	static final int PIECE_SIZE = 4096;
+
+	/*
+	 * Where the work is done, or null to do it all on the calling thread
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Uses the common fork/join pool
+	 */
+	BankReporting() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool		Where the work is done, or null to do it all on the calling thread
+	 */
+	BankReporting(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Takes a snapshot of the bank and reports on it, with interest projected from the bank's clock
+	 * @param bank
+	 * @param top		How many of the richest customers to rank
+	 * @return BankReport
+	 */
+	BankReport report(Bank bank, int top) {
+		long now = bank.getContext().getClock().nowMillis();
+		return report(BankSnapshot.capture(bank), now, top);
+	}
+
+	/**
+	 * Reports on a snapshot, e.g. one loaded from a file
+	 * @param snapshot
+	 * @param now		When to project interest from (a withdrawal counts if it was recent then), in milliseconds since the epoch
+	 * @param top		How many of the richest customers to rank
+	 * @return BankReport
+	 */
+	BankReport report(BankSnapshot snapshot, long now, int top) {
+		if (top < 0)
+			throw new IllegalArgumentException("Number of customers to rank must not be negative");
+		BankReport report = new BankReport(snapshot, now);
+		Pass pass = new Pass(snapshot, report, now, top);
+		Piece result = pool == null ? pass.piece(0, snapshot.getNumberOfAccounts()) : pool.invoke(new Split(pass, 0, snapshot.getNumberOfAccounts()));
+		report.setTotals(result.accounts, result.balances, result.interest, result.dailyInterest, result.top);
+		return report;
+	}
+
+	/*
+	 * What one piece of the work found: totals by account type and its richest customers, richest first
+	 */
+	private static final class Piece {
+		final int[] accounts = new int[InterestProduct.MAX_PRODUCTS];
+		final long[] balances = new long[InterestProduct.MAX_PRODUCTS];
+		final long[] interest = new long[InterestProduct.MAX_PRODUCTS];
+		final long[] dailyInterest = new long[InterestProduct.MAX_PRODUCTS];
+		int[] top;
+
+		/**
+		 * Adds another piece's totals to this one's and keeps the richest customers of both
+		 */
+		Piece merge(Piece other, Pass pass) {
+			for (int type = 0; type < InterestProduct.MAX_PRODUCTS; type++) {
+				accounts[type] += other.accounts[type];
+				balances[type] += other.balances[type];
+				interest[type] += other.interest[type];
+				dailyInterest[type] += other.dailyInterest[type];
+			}
+			int[] merged = new int[Math.min(pass.top, top.length + other.top.length)];
+			for (int m = 0, i = 0, j = 0; m < merged.length; m++) {
+				if (j == other.top.length || (i < top.length && pass.richer.compare(top[i], other.top[j]) < 0))
+					merged[m] = top[i++];
+				else
+					merged[m] = other.top[j++];
+			}
+			top = merged;
+			return this;
+		}
+	}
+
+	/*
+	 * Everything the pieces share: the snapshot, the report whose customer columns they fill in, and the ranking
+	 */
+	private static final class Pass {
+		final BankSnapshot snapshot;
+		final BankReport report;
+		final long now;
+		final int top;
+
+		/*
+		 * Orders customer ids by the money they hold, most first, then by id
+		 */
+		final Comparator<Integer> richer;
+
+		Pass(BankSnapshot snapshot, BankReport report, long now, int top) {
+			this.snapshot = snapshot;
+			this.report = report;
+			this.now = now;
+			this.top = top;
+			final long[] balances = report.customerBalances;
+			this.richer = (a, b) -> balances[a] != balances[b] ? Long.compare(balances[b], balances[a]) : Integer.compare(a, b);
+		}
+
+		/**
+		 * Works out the figures of the accounts from start to end, which hold all the accounts of their customers
+		 */
+		Piece piece(int start, int end) {
+			Piece piece = new Piece();
+			int[] customerIds = snapshot.customerIds;
+			int[] customerAccounts = report.customerAccounts;
+			long[] customerBalances = report.customerBalances;
+			long[] customerInterest = report.customerInterest;
+			PriorityQueue<Integer> richest = new PriorityQueue<Integer>(Math.max(1, Math.min(top, end - start)), richer.reversed());
+
+			for (int a = start; a < end; a++) {
+				int c = customerIds[a];
+				int type = snapshot.accountTypes[a];
+				long balance = snapshot.balances[a];
+				InterestProduct product = InterestProduct.get(type);
+				int days = product.getWithdrawalDays();
+				boolean withdrawn = days > 0 && Account.withdrawnWithin(snapshot.lastWithdrawals[a], days, now);
+				long yearly = product.interest(balance, withdrawn, 1);
+
+				customerAccounts[c]++;
+				customerBalances[c] += balance;
+				customerInterest[c] += yearly;
+				piece.accounts[type]++;
+				piece.balances[type] += balance;
+				piece.interest[type] += yearly;
+				piece.dailyInterest[type] += product.interest(balance, withdrawn, InterestAccrual.DAYS_PER_YEAR);
+
+				// The customer's last account: they can be ranked, if they beat the poorest of those ranked so far
+				if (top > 0 && (a + 1 == end || customerIds[a + 1] != c)) {
+					if (richest.size() < top) {
+						richest.add(c);
+					} else if (richer.compare(c, richest.peek()) < 0) {
+						richest.poll();
+						richest.add(c);
+					}
+				}
+			}
+
+			piece.top = new int[richest.size()];
+			for (int i = piece.top.length - 1; i >= 0; i--)
+				piece.top[i] = richest.poll();
+			return piece;
+		}
+	}
+
+	/*
+	 * Splits the accounts in halves, never between two accounts of the same customer
+	 */
+	private static final class Split extends RecursiveTask<Piece> {
+		private static final long serialVersionUID = 1L;
+
+		private final Pass pass;
+		private final int start;
+		private final int end;
+
+		Split(Pass pass, int start, int end) {
+			this.pass = pass;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected Piece compute() {
+			int middle = (start + end) >>> 1;
+			int[] customerIds = pass.snapshot.customerIds;
+			while (middle < end && middle > start && customerIds[middle] == customerIds[middle - 1])
+				middle++;
+			if (end - start <= PIECE_SIZE || middle == end)
+				return pass.piece(start, end);
+			Split second = new Split(pass, middle, end);
+			second.fork();
+			Piece first = new Split(pass, start, middle).compute();
+			return first.merge(second.join(), pass);
+		}
+	}
+}
@@ -0,0 +1,363 @@
+package com.abc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Eddy Brown
+ *
+ * A small HTTP front end to a bank's customer operations, so clients can open accounts and move money
+ * without being linked into the bank. Every request is a POST answered with a line of plain text:
+ *
+ *     POST /customers/{id}/accounts?type={product id}                          201, the new account number
+ *     POST /customers/{id}/accounts/{number}/deposit?amount={dollars}          200
+ *     POST /customers/{id}/accounts/{number}/withdraw?amount={dollars}         200, or 409 if refused
+ *     POST /customers/{id}/accounts/{number}/send?amount={dollars}&to={number} 200, or 409 if refused
+ *
+ * Unknown customers and accounts (or accounts the customer doesn't own) get 404, bad parameters 400, and
+ * anything else that goes wrong (e.g. the journal can't be written) 500.
+ * A deposit, withdrawal or payment sent with an Idempotency-Key header can be retried safely, e.g. after a
+ * timeout: a retry with the same key gets the first answer again without the money moving twice, and a key
+ * reused for a different posting from the same account gets 400. Keys belong to the account, so other
+ * customers' keys don't matter.
+ * If the bank has a journal, a change is only acknowledged once its record is on disk (see
+ * {@link Journal#waitDurable(long)}), so an answered request is never lost in a crash.
+ *
+ * Each request runs on its own virtual thread when the JVM has them (Java 21 and later), so a blocked
+ * request costs next to nothing. On older JVMs a fixed pool of platform threads is used instead.
+ * The bank's postings must already be made in concurrent mode, where the striped account locks (see
+ * {@link PostingLocks}) serialise the postings to each account while postings to different accounts run
+ * side by side, or in sharded mode. The server doesn't change the mode itself, as the mode belongs to the
+ * bank's whole context.
+ * Opening an account changes the bank's account registry, so it waits for lookups in progress, and for
+ * snapshots and reports reading the registry, to finish (see {@link Bank#getRegistryLock()}).
+ *
+ * At most a fixed number of requests are worked on at once. With virtual threads any request over the
+ * limit is answered straight away with 503 and a Retry-After header; with the platform pool, requests over
+ * the limit wait in its queue, and when that is full the server stops accepting connections until it drains.
+ *
+ */
+class BankServer implements Closeable {
+
+	/*
+	 * Requests worked on at once, unless told otherwise
+	 */
+	static final int DEFAULT_MAX_IN_FLIGHT = 10000;
+
+	/*
+	 * Size of the platform thread pool used when there are no virtual threads
+	 */
+	private static final int PLATFORM_THREADS = 128;
+
+	/*
+	 * Connections waiting to be accepted
+	 */
+	private static final int BACKLOG = 4096;
+
+	/*
+	 * Executors.newVirtualThreadPerTaskExecutor(), found by reflection as the bank still builds for Java 8,
+	 * or null if the JVM has no virtual threads
+	 */
+	private static final Method VIRTUAL_THREAD_EXECUTOR = virtualThreadExecutor();
+
+	private final Bank bank;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Semaphore inFlight;
+
+	/*
+	 * Guards the bank's account registry: lookups share it (as do snapshots and reports), opening an account
+	 * has it to itself
+	 */
+	private final StampedLock registry;
+
+	/**
+	 * Creates a server for the bank. It doesn't answer requests until it is started.
+	 * @param bank			A bank whose postings are made in concurrent or sharded mode
+	 * @param address		Where to listen, port 0 for any free port
+	 * @param maxInFlight	The most requests to work on at once
+	 * @throws IOException	If the address can't be bound
+	 * @throws IllegalStateException	If the bank's postings are made in single threaded mode
+	 */
+	BankServer(Bank bank, InetSocketAddress address, int maxInFlight) throws IOException {
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("At least one request must be allowed in flight");
+		if (bank.getContext().getTransactions().getPostingMode() == Transactions.PostingMode.SINGLE_THREADED)
+			throw new IllegalStateException("The bank must post in concurrent or sharded mode to be served");
+		this.bank = bank;
+		this.registry = bank.getRegistryLock();
+		this.inFlight = new Semaphore(maxInFlight);
+		this.executor = newExecutor(maxInFlight);
+		this.server = HttpServer.create(address, BACKLOG);
+		server.createContext("/customers/", this::handle);
+		server.setExecutor(executor);
+	}
+
+	/**
+	 * Starts answering requests
+	 */
+	void start() {
+		server.start();
+	}
+
+	/**
+	 * @return int	The port the server listens on
+	 */
+	int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @return boolean	True if requests run on virtual threads
+	 */
+	static boolean hasVirtualThreads() {
+		return VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	/**
+	 * Stops answering requests, letting those in progress finish for up to a second
+	 */
+	@Override
+	public void close() {
+		server.stop(1);
+		executor.shutdown();
+	}
+
+	/**
+	 * A virtual thread per request if the JVM has them, otherwise a pool of platform threads whose
+	 * queue holds up the server's dispatcher when it is full
+	 */
+	private static ExecutorService newExecutor(int maxInFlight) {
+		if (VIRTUAL_THREAD_EXECUTOR != null) {
+			try {
+				return (ExecutorService) VIRTUAL_THREAD_EXECUTOR.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Virtual threads can't be used", e);
+			}
+		}
+
+		int threads = Math.min(PLATFORM_THREADS, maxInFlight);
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = task -> {
+			Thread thread = new Thread(task, "bank-server-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(maxInFlight),
+				factory, (task, pool) -> {
+					if (pool.isShutdown())
+						throw new RejectedExecutionException("Server is stopping");
+					try {
+						pool.getQueue().put(task);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException(e);
+					}
+				});
+	}
+
+	private static Method virtualThreadExecutor() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Answers one request
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!inFlight.tryAcquire()) {
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				respond(exchange, 503, "Busy, try again");
+				return;
+			}
+			try {
+				serve(exchange);
+			} catch (IllegalArgumentException e) {
+				respond(exchange, 400, e.getMessage());
+			} catch (RuntimeException e) {
+				respond(exchange, 500, "The request couldn't be completed");
+			} finally {
+				inFlight.release();
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Works out which operation is wanted and does it
+	 * @throws IllegalArgumentException	If the request is malformed
+	 */
+	private void serve(HttpExchange exchange) throws IOException {
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			respond(exchange, 405, "Only POST is supported");
+			return;
+		}
+
+		// "", "customers", id, "accounts" [, number, operation]
+		String[] path = exchange.getRequestURI().getPath().split("/");
+		if ((path.length != 4 && path.length != 6) || !"accounts".equals(path[3])) {
+			respond(exchange, 404, "Unknown operation");
+			return;
+		}
+		Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+		Customer customer = findCustomer(number(path[2], "customer id"));
+		if (customer == null) {
+			respond(exchange, 404, "Unknown customer");
+			return;
+		}
+
+		if (path.length == 4) {
+			InterestProduct product = InterestProduct.get(number(parameters.get("type"), "type"));
+			int number = openAccount(customer, product).getAccountNumber();
+			awaitDurable();
+			respond(exchange, 201, Integer.toString(number));
+			return;
+		}
+
+		Account account = findAccount(number(path[4], "account number"));
+		if (account == null || account.getCustomer() != customer) {
+			respond(exchange, 404, "Unknown account");
+			return;
+		}
+		double amount = amount(parameters.get("amount"));
+		String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+		boolean made;
+		switch (path[5]) {
+			case "deposit":
+				made = account.deposit(amount, key);
+				break;
+			case "withdraw":
+				made = account.withdraw(amount, key);
+				break;
+			case "send":
+				Account to = findAccount(number(parameters.get("to"), "to"));
+				if (to == null) {
+					respond(exchange, 404, "Unknown account to send to");
+					return;
+				}
+				made = account.sendMoney(amount, to, key);
+				break;
+			default:
+				respond(exchange, 404, "Unknown operation");
+				return;
+		}
+		if (made) {
+			awaitDurable();
+			respond(exchange, 200, "OK");
+		} else {
+			respond(exchange, 409, "Insufficient funds");
+		}
+	}
+
+	/**
+	 * Waits until everything journaled so far, including the change just made, is on disk
+	 */
+	private void awaitDurable() {
+		Journal journal = bank.getJournal();
+		if (journal != null)
+			journal.waitDurable(journal.lastSequence());
+	}
+
+	private Customer findCustomer(int id) {
+		long stamp = registry.readLock();
+		try {
+			return id >= 0 && id < bank.getNumberOfCustomers() ? bank.getCustomer(id) : null;
+		} finally {
+			registry.unlockRead(stamp);
+		}
+	}
+
+	private Account findAccount(int accountNumber) {
+		long stamp = registry.readLock();
+		try {
+			return bank.getAccountByNumber(accountNumber);
+		} finally {
+			registry.unlockRead(stamp);
+		}
+	}
+
+	private Account openAccount(Customer customer, InterestProduct product) {
+		long stamp = registry.writeLock();
+		try {
+			return customer.openAccount(product);
+		} finally {
+			registry.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Splits a query string into its decoded parameters
+	 */
+	private static Map<String, String> parameters(String query) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (query == null)
+			return parameters;
+		for (String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals > 0)
+				parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+		}
+		return parameters;
+	}
+
+	private static int number(String value, String name) {
+		if (value == null)
+			throw new IllegalArgumentException("Missing " + name);
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name);
+		}
+	}
+
+	/**
+	 * @return double	A positive amount of dollars
+	 */
+	private static double amount(String value) {
+		if (value == null)
+			throw new IllegalArgumentException("Missing amount");
+		try {
+			double amount = Double.parseDouble(value);
+			if (amount > 0 && !Double.isInfinite(amount))
+				return amount;
+		} catch (NumberFormatException e) {
+			// Falls through to the same message as a negative amount
+		}
+		throw new IllegalArgumentException("Invalid amount");
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
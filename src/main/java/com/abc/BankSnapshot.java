@@ -0,0 +1,361 @@
+package com.abc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * @author Eddy Brown
+ *
+ * A copy of the state of a whole bank, its customers and its accounts' balances and last withdrawals,
+ * held column by column in plain arrays. It can be saved to a file and loaded back through a memory map,
+ * so a restart only has to load the snapshot and replay the short end of the journal written after it,
+ * instead of every transaction the bank has ever made. Loading isn't free, though: the mapped columns are
+ * copied into arrays and {@link #toBank} then opens every customer and account again, so a restart still
+ * takes time in proportion to the number of accounts (but not to the number of transactions). The bank's
+ * customers and accounts are objects, so they can't be used straight from the mapped file.
+ *
+ * Taking a snapshot doesn't stop transactions being posted, in any mode. It notes how far the journal has
+ * got and starts a cut (see {@link Transactions#startCut()}), then copies the accounts one at a time, each
+ * under its own lock, as they were at the cut: every transfer is either in both of its accounts or in
+ * neither, even one between two shards, so the snapshot is consistent (e.g. for a report, see
+ * {@link BankReporting}). An account may include some postings made after the journal position was noted,
+ * so every account also records the last journal record applied to it, and when the journal is replayed
+ * each account skips the records it already has (see {@link Journal}).
+ * In single threaded posting mode the snapshot must be taken on the thread that posts.
+ * The snapshot holds the customers and accounts there were when it started: customers and accounts opened
+ * while it is being taken are left for the journal to replay. The bank's registry is read under its
+ * registry lock (see {@link Bank#getRegistryLock()}), so it isn't read half way through a new account
+ * being opened through the same lock.
+ *
+ * Transaction histories aren't included: after loading a snapshot, an account's history starts with the
+ * journal records that follow it.
+ *
+ * File layout (big-endian):
+ *
+ *     header     long magic, int version, long journal sequence, int customers, int accounts, int name bytes
+ *     customers  int name offsets [customers + 1], byte names [name bytes]
+ *     accounts   int numbers, int customer ids, byte types, long balances, long last withdrawals,
+ *                long journal sequences (one column of [accounts] values each)
+ *     trailer    int CRC32 of everything before it
+ *
+ */
+class BankSnapshot {
+
+	private static final long MAGIC = 0x414243534E415031L;	// "ABCSNAP1"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8 + 4 + 8 + 4 + 4 + 4;
+
+	/*
+	 * The journal record the snapshot was started at; every record up to it is included
+	 */
+	final long journalSequence;
+
+	/*
+	 * Customer names, in id order
+	 */
+	final String[] customerNames;
+
+	/*
+	 * Account columns, one entry per account
+	 */
+	final int[] accountNumbers;
+	final int[] customerIds;
+	final byte[] accountTypes;
+	final long[] balances;
+	final long[] lastWithdrawals;
+	final long[] journalSequences;
+
+	private BankSnapshot(long journalSequence, String[] customerNames, int accounts) {
+		this.journalSequence = journalSequence;
+		this.customerNames = customerNames;
+		accountNumbers = new int[accounts];
+		customerIds = new int[accounts];
+		accountTypes = new byte[accounts];
+		balances = new long[accounts];
+		lastWithdrawals = new long[accounts];
+		journalSequences = new long[accounts];
+	}
+
+	/**
+	 * Copies the state of the bank as it was at one moment, while transactions carry on being posted
+	 * @param bank
+	 * @return BankSnapshot
+	 */
+	static BankSnapshot capture(Bank bank) {
+		Journal journal = bank.getJournal();
+
+		// Everything up to here is on disk in the journal and will be in the snapshot
+		long start = journal == null ? 0 : journal.syncedSequence();
+
+		// The customers and their accounts now, anything opened later is left to the journal. The bank's
+		// registry lock keeps out anyone opening customers or accounts through it (e.g. BankServer) meanwhile.
+		BankSnapshot snapshot;
+		Account[] accounts;
+		StampedLock registry = bank.getRegistryLock();
+		long stamp = registry.readLock();
+		try {
+			int customerCount = bank.getNumberOfCustomers();
+			String[] names = new String[customerCount];
+			int[] accountCounts = new int[customerCount];
+			int accountCount = 0;
+			for (int c = 0; c < customerCount; c++) {
+				Customer customer = bank.getCustomer(c);
+				names[c] = customer.getName();
+				accountCounts[c] = customer.getNumberOfAccounts();
+				accountCount += accountCounts[c];
+			}
+
+			// Exactly as many of each customer's accounts as were counted, their first ones
+			snapshot = new BankSnapshot(start, names, accountCount);
+			accounts = new Account[accountCount];
+			int a = 0;
+			for (int c = 0; c < customerCount; c++) {
+				List<Account> customerAccounts = bank.getCustomer(c).getAccounts();
+				for (int i = 0; i < accountCounts[c]; i++, a++) {
+					accounts[a] = customerAccounts.get(i);
+					snapshot.accountNumbers[a] = accounts[a].getAccountNumber();
+					snapshot.customerIds[a] = c;
+					snapshot.accountTypes[a] = (byte) accounts[a].getAccountType();
+				}
+			}
+		} finally {
+			registry.unlockRead(stamp);
+		}
+
+		Transactions transactions = bank.getContext().getTransactions();
+		int cut = transactions.startCut();
+		try {
+			copyAccounts(snapshot, accounts, transactions, cut);
+		} finally {
+			transactions.endCut();
+		}
+
+		// Postings caught by the copy must be on disk too, or a crash could leave the snapshot ahead of the journal
+		if (journal != null)
+			journal.sync();
+		return snapshot;
+	}
+
+	/**
+	 * Copies each account's state as it was at the cut, while only that account is stopped
+	 * @param accounts	The accounts, in the snapshot's order
+	 */
+	private static void copyAccounts(BankSnapshot snapshot, Account[] accounts, Transactions transactions, int cut) {
+		for (int a = 0; a < accounts.length; a++) {
+			Account account = accounts[a];
+
+			// Only this account stops while it is copied
+			transactions.lock(account);
+			try {
+				if (account.changedSinceCut(cut)) {
+					snapshot.balances[a] = account.getCutBalance();
+					snapshot.lastWithdrawals[a] = account.getCutWithdrawal();
+					snapshot.journalSequences[a] = account.getCutSequence();
+				} else {
+					snapshot.balances[a] = account.getBalance();
+					snapshot.lastWithdrawals[a] = account.getLastWithdrawal();
+					snapshot.journalSequences[a] = account.getJournalSequence();
+				}
+			} finally {
+				transactions.unlock(account);
+			}
+		}
+	}
+
+	/**
+	 * @return int	Number of accounts in the snapshot
+	 */
+	int getNumberOfAccounts() {
+		return accountNumbers.length;
+	}
+
+	/**
+	 * Saves the snapshot. It is written to a temporary file first and then moved into place,
+	 * so a crash while writing leaves the previous snapshot intact.
+	 * @param file
+	 * @throws IOException
+	 */
+	void write(Path file) throws IOException {
+		byte[][] names = new byte[customerNames.length][];
+		int nameBytes = 0;
+		for (int c = 0; c < names.length; c++) {
+			names[c] = customerNames[c].getBytes(StandardCharsets.UTF_8);
+			nameBytes += names[c].length;
+		}
+		int accounts = getNumberOfAccounts();
+		long size = HEADER_SIZE + 4L * (names.length + 1) + nameBytes + accounts * (4L + 4 + 1 + 8 + 8 + 8) + 4;
+
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			out.putLong(MAGIC).putInt(VERSION).putLong(journalSequence)
+				.putInt(names.length).putInt(accounts).putInt(nameBytes);
+
+			int offset = 0;
+			for (byte[] name : names) {
+				out.putInt(offset);
+				offset += name.length;
+			}
+			out.putInt(offset);
+			for (byte[] name : names)
+				out.put(name);
+
+			out.asIntBuffer().put(accountNumbers);
+			out.position(out.position() + 4 * accounts);
+			out.asIntBuffer().put(customerIds);
+			out.position(out.position() + 4 * accounts);
+			out.put(accountTypes);
+			out.asLongBuffer().put(balances);
+			out.position(out.position() + 8 * accounts);
+			out.asLongBuffer().put(lastWithdrawals);
+			out.position(out.position() + 8 * accounts);
+			out.asLongBuffer().put(journalSequences);
+			out.position(out.position() + 8 * accounts);
+
+			out.putInt(checksum(out, out.position()));
+			out.force();
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Loads a snapshot by mapping the file into memory and copying its columns out
+	 * @param file
+	 * @return BankSnapshot
+	 * @throws IOException				If the file can't be read
+	 * @throws IllegalStateException	If the file isn't a snapshot or is damaged
+	 */
+	static BankSnapshot read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (in.remaining() < HEADER_SIZE + 4 || in.getLong() != MAGIC || in.getInt() != VERSION)
+				throw new IllegalStateException(file + " is not a bank snapshot");
+			if (checksum(in, in.limit() - 4) != in.getInt(in.limit() - 4))
+				throw new IllegalStateException(file + " is damaged");
+
+			long journalSequence = in.getLong();
+			int customers = in.getInt();
+			int accounts = in.getInt();
+			int nameBytes = in.getInt();
+
+			int[] offsets = new int[customers + 1];
+			in.asIntBuffer().get(offsets);
+			in.position(in.position() + 4 * offsets.length);
+			byte[] allNames = new byte[nameBytes];
+			in.get(allNames);
+			String[] names = new String[customers];
+			for (int c = 0; c < customers; c++)
+				names[c] = new String(allNames, offsets[c], offsets[c + 1] - offsets[c], StandardCharsets.UTF_8);
+
+			BankSnapshot snapshot = new BankSnapshot(journalSequence, names, accounts);
+			in.asIntBuffer().get(snapshot.accountNumbers);
+			in.position(in.position() + 4 * accounts);
+			in.asIntBuffer().get(snapshot.customerIds);
+			in.position(in.position() + 4 * accounts);
+			in.get(snapshot.accountTypes);
+			in.asLongBuffer().get(snapshot.balances);
+			in.position(in.position() + 8 * accounts);
+			in.asLongBuffer().get(snapshot.lastWithdrawals);
+			in.position(in.position() + 8 * accounts);
+			in.asLongBuffer().get(snapshot.journalSequences);
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Builds a bank in the state of the snapshot
+	 * @param context	The context of the new bank
+	 * @return Bank
+	 */
+	Bank toBank(BankContext context) {
+		Bank bank = new Bank(context);
+		for (String name : customerNames)
+			new Customer(name, bank);
+		for (int a = 0; a < accountNumbers.length; a++) {
+			Account account = bank.getCustomer(customerIds[a]).openAccount(InterestProduct.get(accountTypes[a]), accountNumbers[a]);
+			account.restore(balances[a], lastWithdrawals[a], journalSequences[a]);
+			bank.getTotals().refresh(account);
+		}
+		return bank;
+	}
+
+	/**
+	 * Restarts a bank from its latest snapshot and the journal written since, and reattaches the journal.
+	 * If there is no snapshot yet the whole journal is replayed.
+	 * @param snapshotFile
+	 * @param journalFile
+	 * @param batchSize		Journal batch size, see {@link Journal}
+	 * @param context		The context of the restarted bank
+	 * @return Bank
+	 * @throws IOException
+	 */
+	static Bank restore(Path snapshotFile, Path journalFile, int batchSize, BankContext context) throws IOException {
+		if (!Files.exists(snapshotFile))
+			return Journal.recover(journalFile, batchSize, new Bank(context), 0);
+		BankSnapshot snapshot = read(snapshotFile);
+		return Journal.recover(journalFile, batchSize, snapshot.toBank(context), snapshot.journalSequence);
+	}
+
+	/**
+	 * Takes and saves a snapshot of the bank at a fixed interval, on the executor's thread. Postings must be
+	 * made in concurrent or sharded mode, as in single threaded mode a snapshot can only be taken on the
+	 * thread that posts. A snapshot that can't be taken or saved is passed to failures and the schedule
+	 * carries on, leaving the last good snapshot in place; if failures throws, the schedule stops and the
+	 * returned future fails with what it threw.
+	 * @param bank
+	 * @param file			Where to save the snapshots (each one replaces the last)
+	 * @param period		Time between snapshots
+	 * @param unit
+	 * @param executor		The thread the snapshots are taken on
+	 * @param failures		Told why each failed snapshot failed, on the executor's thread
+	 * @return ScheduledFuture	Cancel this to stop taking snapshots
+	 * @throws IllegalStateException	If postings are made in single threaded mode
+	 */
+	static ScheduledFuture<?> schedule(final Bank bank, final Path file, long period, TimeUnit unit, ScheduledExecutorService executor,
+			final Consumer<? super Exception> failures) {
+		final Transactions transactions = bank.getContext().getTransactions();
+		checkPostingMode(transactions);
+		return executor.scheduleAtFixedRate(() -> {
+			try {
+				checkPostingMode(transactions);
+				capture(bank).write(file);
+			} catch (IOException | RuntimeException e) {
+				failures.accept(e);
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * @throws IllegalStateException	If postings are made in single threaded mode, so a snapshot can't be taken on another thread
+	 */
+	private static void checkPostingMode(Transactions transactions) {
+		if (transactions.getPostingMode() == Transactions.PostingMode.SINGLE_THREADED)
+			throw new IllegalStateException("Snapshots can only be taken on the posting thread in single threaded mode");
+	}
+
+	/**
+	 * CRC32 of the first bytes of a buffer
+	 */
+	private static int checksum(ByteBuffer buffer, int length) {
+		ByteBuffer body = buffer.duplicate();
+		body.position(0).limit(length);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		return (int) crc.getValue();
+	}
+}
@@ -0,0 +1,207 @@
+package com.abc;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Eddy Brown
+ *
+ * Running totals for a whole bank: the number of accounts, the money held and the interest due,
+ * for each type of account ({@link InterestProduct}). They are kept up to date as transactions are posted, so reading them
+ * doesn't have to go through every customer and account.
+ *
+ * Each account remembers the balance and interest it last contributed to the totals. When an account
+ * changes, only the difference from what it contributed before is added, so every account's interest is
+ * rounded exactly as {@link Account#interestEarned()} rounds it and the totals match a full recount.
+ * Maxi Savings interest (and that of any product that pays less after a withdrawal) also goes up on its own
+ * once the withdrawal is old enough, so those accounts are queued and their interest is refreshed when the
+ * totals are next read after that time. An account is only queued once however often money leaves it: a
+ * later withdrawal just moves its time on, and when the earlier time comes round it is queued again for the new one.
+ * The queue is ordered by when each account is due, so an account queued again never holds up the ones
+ * due before it.
+ *
+ */
+class BankTotals {
+
+	/*
+	 * Tells when withdrawals have aged out
+	 */
+	private final DateProvider clock;
+
+	private final LongAdder[] accounts = newAdders();
+	private final LongAdder[] balances = newAdders();
+	private final LongAdder[] interest = newAdders();
+
+	/*
+	 * Maxi Savings accounts waiting for a withdrawal to age out, at most once each, one queue per product,
+	 * soonest first
+	 */
+	private final List<Queue<Expiry>> expiries = new ArrayList<Queue<Expiry>>(InterestProduct.MAX_PRODUCTS);
+	{
+		for (int i = 0; i < InterestProduct.MAX_PRODUCTS; i++)
+			expiries.add(new PriorityBlockingQueue<Expiry>(16, Comparator.comparingLong((Expiry expiry) -> expiry.time)));
+	}
+
+	private static class Expiry {
+		final Account account;
+		final long time;
+
+		Expiry(Account account, long time) {
+			this.account = account;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * @param clock		The bank's clock
+	 */
+	BankTotals(DateProvider clock) {
+		this.clock = clock;
+	}
+
+	private static LongAdder[] newAdders() {
+		LongAdder[] adders = new LongAdder[InterestProduct.MAX_PRODUCTS];
+		for (int i = 0; i < adders.length; i++)
+			adders[i] = new LongAdder();
+		return adders;
+	}
+
+	/**
+	 * Counts a newly opened account
+	 * @param account
+	 */
+	void addAccount(Account account) {
+		accounts[account.getAccountType()].increment();
+		refresh(account);
+	}
+
+	/**
+	 * Brings the account's share of the totals up to date. Called after a transaction is posted to it.
+	 * @param account
+	 */
+	void refresh(Account account) {
+		int type = account.getAccountType();
+
+		// The account's monitor stops a posting and a reader refreshing the same account at once
+		synchronized (account) {
+			long balance = account.getBalance();
+			long earned = account.interestEarned();
+			balances[type].add(balance - account.getCountedBalance());
+			interest[type].add(earned - account.getCountedInterest());
+			account.setCounted(balance, earned);
+
+			// Come back to a Maxi Savings account once a new withdrawal stops counting.
+			// A withdrawal counts for as long as its age in whole days is at most the product's withdrawal days.
+			long withdrawn = account.getLastWithdrawal();
+			int days = account.getProduct().getWithdrawalDays();
+			if (days > 0 && account.getCountedWithdrawal() != withdrawn) {
+				account.setCountedWithdrawal(withdrawn);
+				long due = withdrawn + TimeUnit.DAYS.toMillis(days + 1);
+				account.setExpiryDue(due);
+				if (!account.isExpiryQueued()) {
+					account.setExpiryQueued(true);
+					expiries.get(type).add(new Expiry(account, due));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Refreshes any Maxi Savings accounts whose last withdrawal has become too old to count
+	 */
+	private void expireWithdrawals() {
+		long now = clock.nowMillis();
+		for (Queue<Expiry> queue : expiries) {
+			Expiry expiry;
+			while ((expiry = queue.peek()) != null && expiry.time <= now) {
+				expiry = queue.poll();
+				if (expiry == null)
+					break;
+
+				// Another reader took the one that was due first
+				if (expiry.time > now) {
+					queue.add(expiry);
+					break;
+				}
+				expire(expiry, queue);
+			}
+		}
+	}
+
+	/**
+	 * Refreshes an account whose withdrawal has aged out, unless money has left it again since it was queued,
+	 * in which case it goes back in the queue for when the later withdrawal ages out
+	 */
+	private void expire(Expiry expiry, Queue<Expiry> queue) {
+		Account account = expiry.account;
+		synchronized (account) {
+			if (account.getExpiryDue() > expiry.time) {
+				queue.add(new Expiry(account, account.getExpiryDue()));
+				return;
+			}
+			account.setExpiryQueued(false);
+		}
+		refresh(account);
+	}
+
+	/**
+	 * @return int	The number of accounts waiting for a withdrawal to age out
+	 */
+	int queuedExpiries() {
+		int queued = 0;
+		for (Queue<Expiry> queue : expiries)
+			queued += queue.size();
+		return queued;
+	}
+
+	/**
+	 * @param product
+	 * @return int	The number of accounts of this type
+	 */
+	int numberOfAccounts(InterestProduct product) {
+		return accounts[product.getId()].intValue();
+	}
+
+	/**
+	 * @param product
+	 * @return long		Money held in accounts of this type, in cents
+	 */
+	long totalBalance(InterestProduct product) {
+		return balances[product.getId()].sum();
+	}
+
+	/**
+	 * @return long		Money held in all accounts, in cents
+	 */
+	long totalBalance() {
+		long total = 0;
+		for (LongAdder balance : balances)
+			total += balance.sum();
+		return total;
+	}
+
+	/**
+	 * @param product
+	 * @return long		Interest due in a year on accounts of this type, in cents
+	 */
+	long totalInterest(InterestProduct product) {
+		expireWithdrawals();
+		return interest[product.getId()].sum();
+	}
+
+	/**
+	 * @return long		Interest due in a year on all accounts, in cents
+	 */
+	long totalInterest() {
+		expireWithdrawals();
+		long total = 0;
+		for (LongAdder earned : interest)
+			total += earned.sum();
+		return total;
+	}
+}
@@ -0,0 +1,97 @@
+package com.abc;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Eddy Brown
+ *
+ * A coarse clock for banks that post at high rates. A ticker thread reads the system clock once per
+ * tick and keeps the result in volatile fields, so telling the time is a plain memory read shared by
+ * every posting thread instead of a call into the system. The time it tells is up to a tick (plus any
+ * delay in scheduling the ticker) behind, which is far finer than anything the bank does with it:
+ * transactions are dated to the millisecond and withdrawals age in days.
+ *
+ * The ticker is a daemon thread, so a forgotten clock doesn't keep the JVM alive, but it should be
+ * closed once the bank using it is finished with.
+ *
+ */
+class CachedClock extends DateProvider implements Closeable {
+
+	/*
+	 * How often the time is read unless told otherwise
+	 */
+	static final long DEFAULT_TICK_MILLIS = 1;
+
+	private final long tickNanos;
+	private final Thread ticker;
+	private volatile boolean running = true;
+
+	/*
+	 * The time at the last tick
+	 */
+	private volatile long millis;
+
+	/**
+	 * Starts a clock that reads the time every millisecond
+	 */
+	CachedClock() {
+		this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts a clock that reads the time once a tick
+	 * @param tick		How often to read the time
+	 * @param unit		The unit of the tick
+	 */
+	CachedClock(long tick, TimeUnit unit) {
+		if (tick <= 0)
+			throw new IllegalArgumentException("Tick must be positive");
+		this.tickNanos = unit.toNanos(tick);
+		tick();
+		ticker = new Thread(this::run, "clock-ticker");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	private void tick() {
+		millis = System.currentTimeMillis();
+	}
+
+	private void run() {
+		while (running) {
+			LockSupport.parkNanos(this, tickNanos);
+			tick();
+		}
+	}
+
+	/**
+	 * @return Milliseconds since the epoch at the last tick
+	 */
+	@Override
+	long nowMillis() {
+		return millis;
+	}
+
+	/**
+	 * @return long		How often the time is read, in nanoseconds
+	 */
+	long getTickNanos() {
+		return tickNanos;
+	}
+
+	/**
+	 * Stops the ticker. The clock then keeps telling the time of its last tick.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(ticker);
+		try {
+			ticker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,381 @@
+package com.abc;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Eddy Brown
+ *
+ * A ledger that keeps transactions column by column in arrays of primitives instead of as objects:
+ * one column each for the amount, the from account, the to account and the time. Accounts are stored
+ * as small ids handed out the first time an account appears, and each account's history is a growable
+ * array of row numbers. Alongside each row number the history keeps what the transaction did to the account
+ * and the id of the other account, worked out once when the row is added, so a statement can be written
+ * straight from the arrays (see {@link #visit}). A transaction takes about 40 bytes this way (24 in the
+ * columns and 8 in the history of each account it touches) and the garbage collector only ever sees a
+ * few large arrays.
+ *
+ * The columns are split into fixed-size chunks so they never have to be copied as they grow.
+ * {@link Transaction} objects are only made when a history is read, as short-lived views of a row.
+ *
+ */
+class ColumnarLedger implements Ledger {
+
+	/*
+	 * Rows per chunk, a power of two
+	 */
+	static final int CHUNK_BITS = 16;
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/*
+	 * The account id stored for the missing side of a deposit or withdrawal, and as the payer of interest
+	 */
+	private static final int NO_ACCOUNT = -1;
+	private static final int INTEREST = -2;
+
+	/*
+	 * A history's code for a row is the direction in the low bits and the other account's id plus one above them
+	 */
+	private static final int DIRECTION_BITS = 3;
+	private static final int DIRECTION_MASK = (1 << DIRECTION_BITS) - 1;
+
+	/*
+	 * One chunk of each column
+	 */
+	private static final class Chunk {
+		final long[] amounts = new long[CHUNK_SIZE];
+		final int[] fromIds = new int[CHUNK_SIZE];
+		final int[] toIds = new int[CHUNK_SIZE];
+		final long[] times = new long[CHUNK_SIZE];
+	}
+
+	/*
+	 * The rows of one account's transactions, oldest first, and the code of each (see {@link #code}).
+	 * Only changed while holding the account's lock (in concurrent mode). Rows already handed out in a view are
+	 * never changed: a row that has to go before them is put into a new copy of the array.
+	 */
+	private static final class History {
+		final int id;
+		int[] rows = new int[4];
+		int[] codes = new int[4];
+		int count;
+		long lastTime = Long.MIN_VALUE;
+
+		History(int id) {
+			this.id = id;
+		}
+	}
+
+	/*
+	 * Chunks are added (under this ledger's lock) but never moved, and the array is republished whenever it changes
+	 */
+	private volatile Chunk[] chunks = new Chunk[16];
+
+	/*
+	 * The next free row
+	 */
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final Map<Account, History> histories = new ConcurrentHashMap<Account, History>();
+
+	/*
+	 * Accounts by id (ids are handed out under this ledger's lock)
+	 */
+	private volatile Account[] accounts = new Account[1024];
+	private int accountCount;
+
+	@Override
+	public void add(long amount, Account fromAccount, Account toAccount, long time, boolean concurrent) {
+		History from = history(fromAccount);
+		History to = history(toAccount);
+		int row = write(amount, id(from), id(to), time);
+
+		if (from != null)
+			index(from, row, time);
+
+		// A transfer to the same account only appears once in its history
+		if (to != null && to != from)
+			index(to, row, time);
+	}
+
+	@Override
+	public void addInterest(long amount, Account account, long time, boolean concurrent) {
+		History to = history(account);
+		index(to, write(amount, INTEREST, to.id, time), time);
+	}
+
+	@Override
+	public int record(long amount, Account fromAccount, Account toAccount, long time) {
+		return write(amount, id(history(fromAccount)), id(history(toAccount)), time);
+	}
+
+	@Override
+	public void index(Account account, int position) {
+		index(history(account), position, chunks[position >>> CHUNK_BITS].times[position & CHUNK_MASK]);
+	}
+
+	/**
+	 * Fills in the next free row
+	 * @return int	The row
+	 */
+	private int write(long amount, int fromId, int toId, long time) {
+		int row = size.getAndIncrement();
+		if (row < 0) {
+			size.set(Integer.MAX_VALUE);
+			throw new IllegalStateException("Ledger is full");
+		}
+		Chunk chunk = chunk(row >>> CHUNK_BITS);
+		int i = row & CHUNK_MASK;
+		chunk.amounts[i] = amount;
+		chunk.fromIds[i] = fromId;
+		chunk.toIds[i] = toId;
+		chunk.times[i] = time;
+		return row;
+	}
+
+	/**
+	 * Adds a row to the account's history, keeping it in time order
+	 */
+	private void index(History history, int row, long time) {
+		int count = history.count;
+		int code = code(history.id, row);
+		if (time >= history.lastTime) {
+			if (count == history.rows.length) {
+				history.rows = Arrays.copyOf(history.rows, count * 2);
+				history.codes = Arrays.copyOf(history.codes, count * 2);
+			}
+			history.rows[count] = row;
+			history.codes[count] = code;
+			history.lastTime = time;
+		} else {
+
+			// The clock went back: the row goes before some that may already be in use
+			int at = indexOf(history, time + 1);
+			history.rows = insert(history.rows, count, at, row);
+			history.codes = insert(history.codes, count, at, code);
+		}
+		history.count = count + 1;
+	}
+
+	/**
+	 * @return int[]	A copy of the first count values with the value put in at the given place
+	 */
+	private static int[] insert(int[] values, int count, int at, int value) {
+		int[] copy = new int[Math.max(count + 1, values.length)];
+		System.arraycopy(values, 0, copy, 0, at);
+		copy[at] = value;
+		System.arraycopy(values, at, copy, at + 1, count - at);
+		return copy;
+	}
+
+	/**
+	 * Works out what a row does to an account, as {@link Transaction#direction} does for objects
+	 * @param id	The account's id
+	 * @param row	A row of the account's
+	 * @return int	The direction, and the other account's id plus one (0 for none)
+	 */
+	private int code(int id, int row) {
+		Chunk chunk = chunks[row >>> CHUNK_BITS];
+		int fromId = chunk.fromIds[row & CHUNK_MASK];
+		int toId = chunk.toIds[row & CHUNK_MASK];
+		int direction;
+		int counterparty;
+		if (fromId == INTEREST) {
+			direction = Transaction.INTEREST;
+			counterparty = NO_ACCOUNT;
+		} else if (fromId == NO_ACCOUNT) {
+			direction = Transaction.DEPOSIT;
+			counterparty = NO_ACCOUNT;
+		} else if (toId == NO_ACCOUNT) {
+			direction = Transaction.WITHDRAWAL;
+			counterparty = NO_ACCOUNT;
+		} else if (fromId == toId) {
+			direction = Transaction.TO_SELF;
+			counterparty = id;
+		} else if (fromId == id) {
+			direction = Transaction.SENT;
+			counterparty = toId;
+		} else {
+			direction = Transaction.RECEIVED;
+			counterparty = fromId;
+		}
+		return direction | (counterparty + 1) << DIRECTION_BITS;
+	}
+
+	@Override
+	public List<Transaction> getTransactions(Account account, boolean concurrent) {
+		History history = histories.get(account);
+		if (history == null)
+			return Collections.emptyList();
+
+		// Rows are only ever added after the ones seen here, so the view never changes
+		return Collections.unmodifiableList(new HistoryView(history.rows, 0, history.count));
+	}
+
+	@Override
+	public int count(Account account) {
+		History history = histories.get(account);
+		return history == null ? 0 : history.count;
+	}
+
+	@Override
+	public int indexOf(Account account, long time) {
+		History history = histories.get(account);
+		return history == null ? 0 : indexOf(history, time);
+	}
+
+	@Override
+	public List<Transaction> getTransactions(Account account, int fromIndex, int toIndex, boolean concurrent) {
+		History history = histories.get(account);
+		if (history == null || fromIndex >= toIndex)
+			return Collections.emptyList();
+		if (fromIndex < 0 || toIndex > history.count)
+			throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + history.count);
+		return Collections.unmodifiableList(new HistoryView(history.rows, fromIndex, toIndex - fromIndex));
+	}
+
+	@Override
+	public void visit(Account account, int fromIndex, int toIndex, Visitor visitor) {
+		History history = histories.get(account);
+		if (history == null)
+			return;
+		int[] rows = history.rows;
+		int[] codes = history.codes;
+		Chunk[] chunks = this.chunks;
+		Account[] accounts = this.accounts;
+		for (int i = fromIndex; i < toIndex; i++) {
+			int row = rows[i];
+			int code = codes[i];
+			int counterparty = (code >>> DIRECTION_BITS) - 1;
+			visitor.posting(code & DIRECTION_MASK, chunks[row >>> CHUNK_BITS].amounts[row & CHUNK_MASK],
+					counterparty == NO_ACCOUNT ? null : accounts[counterparty]);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Makes a view of one row
+	 * @param row
+	 * @return Transaction
+	 */
+	Transaction transaction(int row) {
+		Chunk chunk = chunks[row >>> CHUNK_BITS];
+		int i = row & CHUNK_MASK;
+		if (chunk.fromIds[i] == INTEREST)
+			return new Transaction(chunk.amounts[i], null, account(chunk.toIds[i]), chunk.times[i], Transaction.INTEREST);
+		return new Transaction(chunk.amounts[i], account(chunk.fromIds[i]), account(chunk.toIds[i]), chunk.times[i]);
+	}
+
+	/**
+	 * Binary search of the time column, through the account's rows
+	 * @return int	The position of the first row at or after the time
+	 */
+	private int indexOf(History history, long time) {
+		int[] rows = history.rows;
+		Chunk[] chunks = this.chunks;
+		int low = 0;
+		int high = history.count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int row = rows[middle];
+			if (chunks[row >>> CHUNK_BITS].times[row & CHUNK_MASK] < time)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	private Account account(int id) {
+		return id == NO_ACCOUNT ? null : accounts[id];
+	}
+
+	/**
+	 * @return int	The history's account id, or NO_ACCOUNT for none
+	 */
+	private static int id(History history) {
+		return history == null ? NO_ACCOUNT : history.id;
+	}
+
+	/**
+	 * Finds the account's history, giving the account an id the first time it is seen
+	 * @param account	The account, or null
+	 * @return History	Null for a null account
+	 */
+	private History history(Account account) {
+		if (account == null)
+			return null;
+		History history = histories.get(account);
+		if (history == null)
+			history = histories.computeIfAbsent(account, key -> new History(newId(key)));
+		return history;
+	}
+
+	private synchronized int newId(Account account) {
+		Account[] current = accounts;
+		if (accountCount == current.length)
+			current = Arrays.copyOf(current, accountCount * 2);
+		current[accountCount] = account;
+		accounts = current;
+		return accountCount++;
+	}
+
+	/**
+	 * @param index		Which chunk
+	 * @return Chunk	The chunk, added if it isn't there yet
+	 */
+	private Chunk chunk(int index) {
+		Chunk[] current = chunks;
+		if (index < current.length && current[index] != null)
+			return current[index];
+		return addChunk(index);
+	}
+
+	private synchronized Chunk addChunk(int index) {
+		Chunk[] current = chunks;
+		if (index >= current.length)
+			current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+		if (current[index] == null)
+			current[index] = new Chunk();
+		chunks = current;
+		return current[index];
+	}
+
+	/*
+	 * Part of an account's history as the rows it had when it was asked for
+	 */
+	private final class HistoryView extends AbstractList<Transaction> implements RandomAccess {
+		private final int[] rows;
+		private final int offset;
+		private final int count;
+
+		HistoryView(int[] rows, int offset, int count) {
+			this.rows = rows;
+			this.offset = offset;
+			this.count = count;
+		}
+
+		@Override
+		public Transaction get(int index) {
+			if (index < 0 || index >= count)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+			return transaction(rows[offset + index]);
+		}
+
+		@Override
+		public int size() {
+			return count;
+		}
+	}
+}
@@ -1,10 +1,10 @@
 package com.abc;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import static java.lang.Math.abs;
-
 /**
  * @author Eddy Brown
  * 
@@ -19,6 +19,11 @@ class Customer {
 	 */
 	private final Bank bank;
 	
+	/*
+	 * The customer's id at their bank
+	 */
+	private final int id;
+	
 	/*
 	 * Customers name and accounts
 	 */
@@ -37,7 +42,7 @@ class Customer {
         this.accounts = new ArrayList<Account>();
         
         // Adds the customer to the banks customer list
-        bank.addCustomer(this);
+        this.id = bank.addCustomer(this);
     }
     
     /**
@@ -70,11 +75,22 @@ class Customer {
 
     /**
      * Open a new account for this customer
-     * @param accountType
+     * @param product		The type of account, e.g. Account.SAVINGS
      * @return Account		Return the account as an object
      */
-    Account openAccount(int accountType) {
-    	Account account = new Account(this, accountType);
+    Account openAccount(InterestProduct product) {
+    	return openAccount(product, bank.newAccountNumber());
+    }
+    
+    /**
+     * Open an account with a given number, e.g. when rebuilding the bank from its journal
+     * @param product		The type of account
+     * @param accountNumber	A number no other account at the bank has
+     * @return Account
+     */
+    Account openAccount(InterestProduct product, int accountNumber) {
+    	Account account = new Account(this, product, accountNumber);
+    	bank.addAccount(account);
         accounts.add(account);
         return account;
     }
@@ -89,10 +105,10 @@ class Customer {
 
     /**
      * 
-     * @return double	Amount of interest that will be earned in a year
+     * @return long	Amount of interest that will be earned in a year, in cents
      */
-    double totalInterestEarned() {
-        double total = 0;
+    long totalInterestEarned() {
+        long total = 0;
         for (Account a : accounts)
             total += a.interestEarned();
         return total;
@@ -103,77 +119,53 @@ class Customer {
      * @return String
      */
     String getStatement() {
-        String statement = null;
-        statement = "Statement for " + name + "\n";
-        double total = 0.0;
-        for (Account a : accounts) {
-            statement += "\n" + statementForAccount(a) + "\n";
-            total += a.getBalance();
+        StringBuilder statement = new StringBuilder();
+        try {
+            writeStatement(statement);
+        } catch (IOException e) {
+            // A StringBuilder never fails to append
+            throw new UncheckedIOException(e);
         }
-        statement += "\nTotal In All Accounts " + toDollars(total);
-        return statement;
+        return statement.toString();
     }
 
     /**
-     * Shows the statement for a given account
-     * @param a			The account
-     * @return String	The details of transactions
+     * Writes the same statement as {@link #getStatement()}, a few lines at a time, so a large statement
+     * can be sent straight to a file or a client without building it all in memory first
+     * @param out			Where to write the statement, e.g. a Writer
+     * @throws IOException	If the output can't be written to
      */
-    private String statementForAccount(Account a) {
-        String s = "";
-
-       // Translate to pretty account type
-        switch(a.getAccountType()){
-            case Account.CHECKING:
-                s += "Checking Account\n";
-                break;
-            case Account.SAVINGS:
-                s += "Savings Account\n";
-                break;
-            case Account.MAXI_SAVINGS:
-                s += "Maxi Savings Account\n";
-                break;
-        }
-        
-        // Iterate through all transactions related to the account
-        for (Transaction t : a.getTransactions()) {
-        	// If the transaction has money sent too the account from a null account (deposit)
-        	if (t.getToAccount() == a && t.getFromAccount() == null) {
-        		s += "  " + ("deposit: ") + toDollars(t.getAmount()) + "\n";
-        	}
-        	
-        	// If the transaction has money sent from the account to a null account (withdraw)
-        	if (t.getFromAccount() == a && t.getToAccount() == null) {
-        		s += "  " + ("withdrawal: " + toDollars(t.getAmount()) + "\n");
-        	}
-        	
-        	// If the transaction has money sent to the account and is not from a null account (receive)
-        	if (t.getToAccount() == a && t.getFromAccount() != null) {
-        		s += "  " + ("received " + toDollars(t.getAmount()) + " from " +
-        				t.getFromAccount().getCustomer().getName() + " (" + t.getFromAccount().getAccountNumber() + ")\n");
-        	}
-        	
-        	// If the transaction has money sent from the account to a null account (sent)
-        	if (t.getFromAccount() == a && t.getToAccount() != null) {
-        		s += "  " + ("sent " + toDollars(t.getAmount()) + " to " +
-        				t.getToAccount().getCustomer().getName() + " (" + t.getToAccount().getAccountNumber() + ")\n");
-        	}
-        }
-        s += "Total " + toDollars(a.getBalance());
-        return s;
+    void writeStatement(Appendable out) throws IOException {
+        Metrics metrics = bank.getContext().getMetrics();
+        long start = metrics.start();
+        new StatementWriter(out).writeStatement(this);
+        metrics.end(Metrics.Operation.STATEMENT, start);
     }
-    
+
     /**
      * Finds an account owned by the customer using the account number as a reference
      * @param myAccountNumber
-     * @return
+     * @return Account	The account, or null if the customer doesn't own an account with this number
      */
     private Account findMyAccount(int myAccountNumber) {
-    	for (Account a : accounts) {
-    		if (a.getAccountNumber() == myAccountNumber)
-    			return a;
-    	}
-		return null;
+    	Account account = bank.getAccountByNumber(myAccountNumber);
+    	if (account == null || account.getCustomer() != this)
+    		return null;
+		return account;
+    }
+    
+    /**
+     * @return the customer's id at their bank
+     */
+    int getId() {
+        return id;
+    }
+    
+    /**
+     * @return the bank
+     */
+    Bank getBank() {
+        return bank;
     }
     
     /**
@@ -190,13 +182,4 @@ class Customer {
     List<Account> getAccounts() {
     	return accounts;
     }
-
-    /**
-     * Formats the double to have 2 decimal points and a dollar sign
-     * @param d				Amount in dollars
-     * @return String		Formatted string
-     */
-    private String toDollars(double d) {
-        return String.format("$%,.2f", abs(d));
-    }
 }
@@ -1,31 +1,44 @@
 package com.abc;
 
-import java.util.Calendar;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
 /**
  * @author Eddy Brown
  * 
- * DateProvider class used in transaction time stamps and other time related methods
+ * DateProvider class used in transaction time stamps and other time related methods.
+ * Each {@link BankContext} has its own, so a test can give its banks a clock of their own.
+ *
+ * The clock is read as primitive milliseconds, so reading it allocates nothing. It only tells the time
+ * things happen at; how long they take (see {@link Metrics}) is measured with {@link System#nanoTime()}.
+ * This one asks the system every time; {@link CachedClock} reads a time kept up to date by a ticker
+ * thread, for banks posting at high rates, and the tests have a fake clock that only moves when they move it.
  *
  */
 class DateProvider {
-	
-    private static DateProvider instance = null;
 
+    /**
+     * @return the clock of the default context, see {@link BankContext#getDefault()}
+     */
     static DateProvider getInstance() {
-        if (instance == null)
-            instance = new DateProvider();
-        return instance;
+        return BankContext.getDefault().getClock();
     }
 
     /**
      * 
-     * @return The time now
+     * @return The time now, as told by {@link #nowMillis()}
      */
     Date now() {
-        return Calendar.getInstance().getTime();
+        return new Date(nowMillis());
+    }
+    
+    /**
+     * The time now without creating a Date, for checks that happen on every transaction.
+     * A clock for tests only needs to override this.
+     * @return Milliseconds since the epoch
+     */
+    long nowMillis() {
+        return System.currentTimeMillis();
     }
     
     /**
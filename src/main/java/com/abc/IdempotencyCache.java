@@ -0,0 +1,209 @@
+package com.abc;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author Eddy Brown
+ *
+ * Remembers the outcome of each posting made with an idempotency key for a while, so a client that
+ * retries a posting (e.g. after a timeout) gets the original outcome back instead of moving the money
+ * twice. See {@link Transactions#add(long, Account, Account, String)}.
+ *
+ * Keys belong to the account paying (or for a deposit, the account paid), so two customers who happen
+ * to choose the same key never see each other's postings, or learn that the other used it.
+ *
+ * The cache is a fixed-size open-addressed hash table of immutable entries, so it never grows however
+ * many keys are used. Looking a key up only reads a few slots, and entries are put in with compare-and-set,
+ * so threads posting to different accounts never wait for each other here. A key is claimed before its
+ * posting is made and given the outcome afterwards, and an entry is normally forgotten once its time window
+ * has passed (its slot is simply reused). If the slots a new key can go in are all taken by keys still in
+ * their window, the one that would expire soonest is dropped to make room, so posting never stops however
+ * many keys are used; a retry with the dropped key would be made again. The table has twice as many slots
+ * as its capacity, so that is rare until more keys than the capacity are used within one window: the
+ * defaults keep a whole day's keys at up to about twelve keyed postings a second, and a bank expecting more
+ * should set a larger capacity (see {@link Transactions#setIdempotencyWindow}). A key whose posting is
+ * still being made is never dropped; only if every slot a new key can go in holds one is the new key refused.
+ *
+ * The cache doesn't stop two postings with the same key being made at the same time: that is left to the
+ * posting engine, which only looks a key up and records its outcome while it has the paying account (or
+ * for a deposit, the account paid) to itself. The entries aren't journaled, so they are lost on a restart.
+ *
+ */
+class IdempotencyCache {
+
+	/*
+	 * Keys kept unless told otherwise, and for how long
+	 */
+	static final int DEFAULT_CAPACITY = 1 << 20;
+	static final long DEFAULT_WINDOW = 24 * 60 * 60 * 1000L;
+
+	/*
+	 * Slots a key can go in, starting from its hash
+	 */
+	private static final int PROBES = 16;
+
+	private final AtomicReferenceArray<Entry> slots;
+	private final int mask;
+	private final long window;
+
+	/**
+	 * @param capacity	The most keys kept, rounded up to a power of two
+	 * @param window	How long a key is kept, in milliseconds
+	 */
+	IdempotencyCache(int capacity, long window) {
+		if (capacity <= 0 || capacity > 1 << 29)
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^29");
+		if (window <= 0)
+			throw new IllegalArgumentException("Window must be positive");
+		int size = Math.max(PROBES, Integer.highestOneBit(capacity - 1) << 2);
+		this.slots = new AtomicReferenceArray<Entry>(size);
+		this.mask = size - 1;
+		this.window = window;
+	}
+
+	/**
+	 * Finds the outcome of a posting made with the key
+	 * @param key			The idempotency key
+	 * @param fromAccount	The account paying, or null
+	 * @param toAccount		The account paid, or null
+	 * @param amount		In cents
+	 * @param now			The time, in milliseconds since the epoch
+	 * @return Outcome		The posting's outcome, or null if the account hasn't made a posting with the key within the window
+	 * @throws IllegalArgumentException	If the account used the key for a different posting
+	 */
+	PostingBatch.Outcome find(String key, Account fromAccount, Account toAccount, long amount, long now) {
+		Account owner = owner(fromAccount, toAccount);
+		int hash = hash(owner, key);
+		for (int probe = 0; probe < PROBES; probe++) {
+			Entry entry = slots.get((hash + probe) & mask);
+			if (entry != null && entry.hash == hash && entry.expires > now && entry.owner == owner && entry.key.equals(key)) {
+				if (entry.from != fromAccount || entry.to != toAccount || entry.amount != amount)
+					throw new IllegalArgumentException("Idempotency key was used for a different posting");
+				return entry.outcome;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Claims the key for a posting about to be made, which must not already be in the cache. The claim must
+	 * be settled with the posting's outcome, or released if the posting fails.
+	 * @param key			The idempotency key
+	 * @param fromAccount	The account paying, or null
+	 * @param toAccount		The account paid, or null
+	 * @param amount		In cents
+	 * @param now			The time, in milliseconds since the epoch
+	 * @return Claim		The claim
+	 * @throws IllegalStateException	If every slot the key can go in holds a key whose posting is still being made
+	 */
+	Claim claim(String key, Account fromAccount, Account toAccount, long amount, long now) {
+		Account owner = owner(fromAccount, toAccount);
+		int hash = hash(owner, key);
+		Entry claimed = new Entry(key, hash, owner, fromAccount, toAccount, amount, PostingBatch.Outcome.PENDING, now + window);
+		while (true) {
+			int oldest = -1;
+			Entry oldestEntry = null;
+			for (int probe = 0; probe < PROBES; probe++) {
+				int slot = (hash + probe) & mask;
+				Entry entry = slots.get(slot);
+				if (entry == null || entry.expires <= now) {
+					if (slots.compareAndSet(slot, entry, claimed))
+						return new Claim(slot, claimed);
+				} else if (entry.outcome != PostingBatch.Outcome.PENDING && (oldestEntry == null || entry.expires < oldestEntry.expires)) {
+					oldest = slot;
+					oldestEntry = entry;
+				}
+			}
+
+			// No free slot: drop the key that would expire soonest, unless another thread takes the slot first
+			if (oldestEntry == null)
+				throw new IllegalStateException("Too many postings with idempotency keys in progress, try again later");
+			if (slots.compareAndSet(oldest, oldestEntry, claimed))
+				return new Claim(oldest, claimed);
+		}
+	}
+
+	/**
+	 * Records the outcome of a claimed key's posting. Only the claimed entry is replaced, so nothing happens
+	 * if the slot has been taken over since (e.g. the claim outlived its window).
+	 * @param claim		From {@link #claim}
+	 * @param outcome	Whether the posting was made or why it was refused
+	 */
+	void settle(Claim claim, PostingBatch.Outcome outcome) {
+		Entry entry = claim.entry;
+		slots.compareAndSet(claim.slot, entry, new Entry(entry.key, entry.hash, entry.owner, entry.from, entry.to, entry.amount, outcome, entry.expires));
+	}
+
+	/**
+	 * Gives up a claim whose posting wasn't made, so the key can be tried again
+	 * @param claim		From {@link #claim}
+	 */
+	void release(Claim claim) {
+		slots.compareAndSet(claim.slot, claim.entry, null);
+	}
+
+	/**
+	 * @return long		How long a key is kept, in milliseconds
+	 */
+	long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @return int		The most keys kept
+	 */
+	int getCapacity() {
+		return (mask + 1) >>> 1;
+	}
+
+	/**
+	 * The account a key belongs to: the one paying, or for a deposit the one paid
+	 */
+	private static Account owner(Account fromAccount, Account toAccount) {
+		return fromAccount != null ? fromAccount : toAccount;
+	}
+
+	/**
+	 * Mixes the account number into the key's hash code and spreads it, so keys that differ only in their
+	 * last characters, or are used by different accounts, land apart
+	 */
+	private static int hash(Account owner, String key) {
+		int h = (key.hashCode() + owner.getAccountNumber() * 31) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * A key claimed for a posting: the slot it went in and the entry put there
+	 */
+	static final class Claim {
+		private final int slot;
+		private final Entry entry;
+
+		private Claim(int slot, Entry entry) {
+			this.slot = slot;
+			this.entry = entry;
+		}
+	}
+
+	private static final class Entry {
+		final String key;
+		final int hash;
+		final Account owner;
+		final Account from;
+		final Account to;
+		final long amount;
+		final PostingBatch.Outcome outcome;
+		final long expires;
+
+		Entry(String key, int hash, Account owner, Account from, Account to, long amount, PostingBatch.Outcome outcome, long expires) {
+			this.key = key;
+			this.hash = hash;
+			this.owner = owner;
+			this.from = from;
+			this.to = to;
+			this.amount = amount;
+			this.outcome = outcome;
+			this.expires = expires;
+		}
+	}
+}
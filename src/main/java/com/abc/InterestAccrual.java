@@ -0,0 +1,164 @@
+package com.abc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @author Eddy Brown
+ *
+ * Credits a day's interest to every account at a bank. It is meant to be run once a day (running it
+ * twice credits the day twice), e.g. from a ScheduledExecutorService.
+ *
+ * The work is split across cores with fork/join: the accounts are divided in halves until each piece
+ * is small enough, and each piece works out its accounts' daily interest ({@link Account#dailyInterest()})
+ * and adds up the total per account type. The interest is then paid in, one batch per piece
+ * ({@link Transactions#payInterest}), in parallel if transactions are posted concurrently. Each payment
+ * is journaled and shown on statements as interest rather than as a deposit.
+ * Every account's interest only depends on that account, so the result is exactly the same however
+ * the work is split.
+ *
+ */
+class InterestAccrual {
+
+	static final int DAYS_PER_YEAR = 365;
+
+	/*
+	 * Accounts handled by one piece of work without splitting it further
+	 */
+	static final int PIECE_SIZE = 4096;
+
+	/*
+	 * Where the work is done, or null to do it all on the calling thread
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Uses the common fork/join pool
+	 */
+	InterestAccrual() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool		Where the work is done, or null to do it all on the calling thread
+	 */
+	InterestAccrual(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Credits a day's interest to every account at the bank
+	 * @param bank
+	 * @return long[]	The interest credited to each type of account, in cents, by {@link InterestProduct#getId()}
+	 */
+	long[] accrue(Bank bank) {
+		Account[] accounts = bank.getAccounts();
+		long[] daily = new long[accounts.length];
+		long[] totals = calculate(accounts, daily);
+		post(bank.getContext().getTransactions(), accounts, daily);
+		return totals;
+	}
+
+	/**
+	 * Works out a day's interest for each account, without crediting it
+	 * @param accounts
+	 * @param daily		Filled in with each account's interest, in cents
+	 * @return long[]	The total for each type of account, in cents, by {@link InterestProduct#getId()}
+	 */
+	long[] calculate(Account[] accounts, long[] daily) {
+		if (pool == null)
+			return calculate(accounts, daily, 0, accounts.length);
+		return pool.invoke(new Calculate(accounts, daily, 0, accounts.length));
+	}
+
+	/**
+	 * Pays the interest into the accounts
+	 */
+	private void post(Transactions transactions, Account[] accounts, long[] daily) {
+		if (pool == null || transactions.getPostingMode() == Transactions.PostingMode.SINGLE_THREADED) {
+			for (int start = 0; start < accounts.length; start += PIECE_SIZE)
+				post(transactions, accounts, daily, start, Math.min(start + PIECE_SIZE, accounts.length));
+		} else {
+			pool.invoke(new Post(transactions, accounts, daily, 0, accounts.length));
+		}
+	}
+
+	/**
+	 * Works out the interest of one piece of the accounts
+	 */
+	private static long[] calculate(Account[] accounts, long[] daily, int start, int end) {
+		long[] totals = new long[InterestProduct.MAX_PRODUCTS];
+		for (int i = start; i < end; i++) {
+			long interest = accounts[i].dailyInterest();
+			daily[i] = interest;
+			totals[accounts[i].getAccountType()] += interest;
+		}
+		return totals;
+	}
+
+	/**
+	 * Pays the interest of one piece of the accounts in a single batch
+	 */
+	private static void post(Transactions transactions, Account[] accounts, long[] daily, int start, int end) {
+		transactions.payInterest(accounts, daily, start, end);
+	}
+
+	private static class Calculate extends RecursiveTask<long[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final Account[] accounts;
+		private final long[] daily;
+		private final int start;
+		private final int end;
+
+		Calculate(Account[] accounts, long[] daily, int start, int end) {
+			this.accounts = accounts;
+			this.daily = daily;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (end - start <= PIECE_SIZE)
+				return calculate(accounts, daily, start, end);
+			int middle = (start + end) >>> 1;
+			Calculate left = new Calculate(accounts, daily, start, middle);
+			left.fork();
+			long[] totals = new Calculate(accounts, daily, middle, end).compute();
+			long[] leftTotals = left.join();
+			for (int type = 0; type < totals.length; type++)
+				totals[type] += leftTotals[type];
+			return totals;
+		}
+	}
+
+	private static class Post extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Transactions transactions;
+		private final Account[] accounts;
+		private final long[] daily;
+		private final int start;
+		private final int end;
+
+		Post(Transactions transactions, Account[] accounts, long[] daily, int start, int end) {
+			this.transactions = transactions;
+			this.accounts = accounts;
+			this.daily = daily;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= PIECE_SIZE) {
+				post(transactions, accounts, daily, start, end);
+				return;
+			}
+			int middle = (start + end) >>> 1;
+			invokeAll(new Post(transactions, accounts, daily, start, middle), new Post(transactions, accounts, daily, middle, end));
+		}
+	}
+}
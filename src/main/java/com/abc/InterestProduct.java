@@ -0,0 +1,306 @@
+package com.abc;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * @author Eddy Brown
+ *
+ * A kind of account and the interest it pays: Checking, Savings, Maxi Savings, or any other product
+ * defined with {@link #define} or loaded from configuration with {@link #load(Properties)}.
+ *
+ * A product's interest is a table of tiers. Each tier starts at a balance and pays its own yearly rate
+ * on the part of the balance within it. A product can also have a second table that applies instead
+ * for a number of days after a withdrawal (Maxi Savings pays 0.1% instead of 5%).
+ *
+ * The tables are compiled into flat arrays when a product is defined, together with the interest a
+ * full tier pays, so working out interest is a short scan of the tier starts and one multiplication.
+ * Every product is evaluated by the same code in this one final class, so the call is never a
+ * virtual call that depends on the product.
+ *
+ * Products are numbered; the number is what the journal and snapshots record for an account.
+ *
+ */
+final class InterestProduct {
+
+	/*
+	 * Products are numbered from 0 to MAX_PRODUCTS - 1
+	 */
+	static final int MAX_PRODUCTS = 64;
+
+	/*
+	 * How interest is rounded to the cent; each tier is rounded on its own
+	 */
+	static final RoundingMode ROUNDING = Money.DEFAULT_ROUNDING;
+
+	/*
+	 * Every product defined so far, by number. Replaced as a whole when a product is added.
+	 */
+	private static volatile InterestProduct[] products = new InterestProduct[MAX_PRODUCTS];
+
+	static final InterestProduct CHECKING = define(0, "Checking", "0:0.1%");
+	static final InterestProduct SAVINGS = define(1, "Savings", "0:0.1%, 1000:0.2%");
+	static final InterestProduct MAXI_SAVINGS = define(2, "Maxi Savings", "0:5%", "0:0.1%", Transaction.TRANSACTION_AGE_DAYS);
+
+	private final int id;
+	private final String name;
+	private final String statementTitle;
+
+	/*
+	 * The tier tables, the usual one and the one used after a withdrawal
+	 */
+	private final Tiers tiers;
+	private final Tiers withdrawalTiers;
+
+	/*
+	 * How many days the withdrawal tiers apply for after a withdrawal (0 if the product doesn't have them)
+	 */
+	private final int withdrawalDays;
+
+	/*
+	 * A compiled tier table
+	 */
+	private static final class Tiers {
+
+		/*
+		 * Where each tier starts in cents, lowest first (the first is always 0), and its yearly rate in parts per million
+		 */
+		final long[] starts;
+		final long[] rates;
+
+		/*
+		 * The interest paid by all the tiers below each tier when they are full, for a year and for a day
+		 */
+		final long[] yearlyBelow;
+		final long[] dailyBelow;
+
+		Tiers(long[] starts, long[] rates) {
+			this.starts = starts;
+			this.rates = rates;
+			yearlyBelow = below(1);
+			dailyBelow = below(InterestAccrual.DAYS_PER_YEAR);
+		}
+
+		private long[] below(int periods) {
+			long[] below = new long[starts.length];
+			for (int i = 1; i < starts.length; i++)
+				below[i] = below[i - 1] + Money.applyRate(starts[i] - starts[i - 1], rates[i - 1], periods, ROUNDING);
+			return below;
+		}
+
+		long interest(long balance, int periods) {
+			if (balance <= 0)
+				return 0;
+
+			// Find the top tier the balance reaches
+			long[] starts = this.starts;
+			int tier = 0;
+			while (tier + 1 < starts.length && balance > starts[tier + 1])
+				tier++;
+
+			long below;
+			if (periods == 1)
+				below = yearlyBelow[tier];
+			else if (periods == InterestAccrual.DAYS_PER_YEAR)
+				below = dailyBelow[tier];
+			else
+				below = below(periods)[tier];
+			return below + Money.applyRate(balance - starts[tier], rates[tier], periods, ROUNDING);
+		}
+	}
+
+	private InterestProduct(int id, String name, Tiers tiers, Tiers withdrawalTiers, int withdrawalDays) {
+		this.id = id;
+		this.name = name;
+		this.statementTitle = name + " Account\n";
+		this.tiers = tiers;
+		this.withdrawalTiers = withdrawalTiers;
+		this.withdrawalDays = withdrawalDays;
+	}
+
+	/**
+	 * Defines a product whose rates don't change after a withdrawal
+	 * @param id		The product's number, from 0 to {@link #MAX_PRODUCTS} - 1
+	 * @param name		e.g. "Savings", statements call it a "Savings Account"
+	 * @param tiers		The tier table, see {@link #parseTiers(String)}
+	 * @return InterestProduct
+	 */
+	static InterestProduct define(int id, String name, String tiers) {
+		return define(id, name, tiers, null, 0);
+	}
+
+	/**
+	 * Defines a product. Defining the same product again is allowed, but a different one with the same number isn't.
+	 * @param id				The product's number, from 0 to {@link #MAX_PRODUCTS} - 1
+	 * @param name				e.g. "Savings", statements call it a "Savings Account"
+	 * @param tiers				The tier table, see {@link #parseTiers(String)}
+	 * @param withdrawalTiers	The tier table used for a while after a withdrawal, or null for none
+	 * @param withdrawalDays	How long the withdrawal tiers are used for: while a withdrawal is at most this many
+	 * 							whole days old
+	 * @return InterestProduct
+	 * @throws IllegalArgumentException	If the definition is wrong or clashes with another product
+	 */
+	static synchronized InterestProduct define(int id, String name, String tiers, String withdrawalTiers, int withdrawalDays) {
+		if (id < 0 || id >= MAX_PRODUCTS)
+			throw new IllegalArgumentException("Product number must be from 0 to " + (MAX_PRODUCTS - 1));
+		if (name == null || name.isEmpty())
+			throw new IllegalArgumentException("Product " + id + " needs a name");
+		if (withdrawalTiers != null && withdrawalDays <= 0)
+			throw new IllegalArgumentException("Product " + id + " has withdrawal tiers but no days they apply for");
+		Tiers compiled = parseTiers(tiers);
+		InterestProduct product = withdrawalTiers == null
+				? new InterestProduct(id, name, compiled, compiled, 0)
+				: new InterestProduct(id, name, compiled, parseTiers(withdrawalTiers), withdrawalDays);
+
+		InterestProduct existing = products[id];
+		if (existing != null) {
+			if (existing.sameAs(product))
+				return existing;
+			throw new IllegalArgumentException("Product " + id + " is already defined as " + existing.name);
+		}
+		InterestProduct[] updated = Arrays.copyOf(products, MAX_PRODUCTS);
+		updated[id] = product;
+		products = updated;
+		return product;
+	}
+
+	/**
+	 * Defines the products described in a configuration, e.g.
+	 *
+	 *     product.3.name = Premier Savings
+	 *     product.3.tiers = 0:0.1%, 1000:0.5%, 50000:1.25%
+	 *     product.3.withdrawalTiers = 0:0.1%
+	 *     product.3.withdrawalDays = 30
+	 *
+	 * @param configuration
+	 * @return List<InterestProduct>	The products, in order of number
+	 * @throws IllegalArgumentException	If a product is described wrongly
+	 */
+	static List<InterestProduct> load(Properties configuration) {
+		List<InterestProduct> loaded = new ArrayList<InterestProduct>();
+		for (int id = 0; id < MAX_PRODUCTS; id++) {
+			String prefix = "product." + id + ".";
+			String name = configuration.getProperty(prefix + "name");
+			if (name == null)
+				continue;
+			String days = configuration.getProperty(prefix + "withdrawalDays", "0").trim();
+			try {
+				loaded.add(define(id, name.trim(), configuration.getProperty(prefix + "tiers"),
+						configuration.getProperty(prefix + "withdrawalTiers"), Integer.parseInt(days)));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Product " + id + " has withdrawal days " + days, e);
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Reads a tier table: a comma separated list of tiers, each the balance in dollars where it starts
+	 * and its yearly rate as a percentage, e.g. "0:0.1%, 1000:0.2%". The first tier must start at 0.
+	 */
+	private static Tiers parseTiers(String table) {
+		if (table == null || table.trim().isEmpty())
+			throw new IllegalArgumentException("No tiers given");
+		String[] parts = table.split(",");
+		long[] starts = new long[parts.length];
+		long[] rates = new long[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			String part = parts[i].trim();
+			int colon = part.indexOf(':');
+			if (colon < 0 || !part.endsWith("%"))
+				throw new IllegalArgumentException("Tier should look like 1000:0.2% but is " + part);
+			try {
+				starts[i] = new BigDecimal(part.substring(0, colon).trim()).movePointRight(2).longValueExact();
+				rates[i] = new BigDecimal(part.substring(colon + 1, part.length() - 1).trim()).movePointRight(4).longValueExact();
+			} catch (ArithmeticException | NumberFormatException e) {
+				throw new IllegalArgumentException("Tier " + part + " must be whole cents and whole parts per million", e);
+			}
+			if (rates[i] < 0)
+				throw new IllegalArgumentException("Tier " + part + " has a negative rate");
+			if (i == 0 ? starts[i] != 0 : starts[i] <= starts[i - 1])
+				throw new IllegalArgumentException("Tiers must start at 0 and go up, but " + table + " doesn't");
+		}
+		return new Tiers(starts, rates);
+	}
+
+	/**
+	 * @param id
+	 * @return InterestProduct	The product with this number
+	 * @throws IllegalArgumentException	If there is no such product
+	 */
+	static InterestProduct get(int id) {
+		InterestProduct product = id >= 0 && id < MAX_PRODUCTS ? products[id] : null;
+		if (product == null)
+			throw new IllegalArgumentException("Invalid account type " + id);
+		return product;
+	}
+
+	/**
+	 * @return List<InterestProduct>	Every product defined so far, in order of number
+	 */
+	static List<InterestProduct> all() {
+		List<InterestProduct> all = new ArrayList<InterestProduct>();
+		for (InterestProduct product : products) {
+			if (product != null)
+				all.add(product);
+		}
+		return all;
+	}
+
+	/**
+	 * Works out the interest on a balance
+	 * @param balance		In cents
+	 * @param withdrawn		True if there has been a withdrawal within {@link #getWithdrawalDays()} days
+	 * @param periods		How many of these periods make a year, 1 for a year's interest, 365 for a day's
+	 * @return long			Interest in cents
+	 */
+	long interest(long balance, boolean withdrawn, int periods) {
+		return (withdrawn ? withdrawalTiers : tiers).interest(balance, periods);
+	}
+
+	/**
+	 * @return int	The product's number
+	 */
+	int getId() {
+		return id;
+	}
+
+	/**
+	 * @return String	e.g. "Savings"
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @return String	The heading of the product's accounts in a statement, e.g. "Savings Account\n"
+	 */
+	String getStatementTitle() {
+		return statementTitle;
+	}
+
+	/**
+	 * @return int	How many days a withdrawal lowers the interest for, 0 if it doesn't
+	 */
+	int getWithdrawalDays() {
+		return withdrawalDays;
+	}
+
+	private boolean sameAs(InterestProduct other) {
+		return name.equals(other.name) && withdrawalDays == other.withdrawalDays
+				&& same(tiers, other.tiers) && same(withdrawalTiers, other.withdrawalTiers);
+	}
+
+	private static boolean same(Tiers a, Tiers b) {
+		return Arrays.equals(a.starts, b.starts) && Arrays.equals(a.rates, b.rates);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,559 @@
+package com.abc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * @author Eddy Brown
+ *
+ * An append-only journal of everything that changes a bank: new customers, new accounts and postings.
+ * Each change is written as one fixed-size binary record before it is applied, so after a restart the
+ * bank can be rebuilt exactly by replaying the journal from the start (see {@link #recover(Path, int, BankContext)}),
+ * or from a {@link BankSnapshot} plus the records written since it was taken.
+ *
+ * Records are collected into batches and each batch is written and forced to disk in one go (group
+ * commit) by the journal's own flusher thread, so the threads making changes (which may be holding
+ * posting locks) never wait for the disk: they only add a record to the batch being filled while the
+ * flusher writes the previous one, and only wait if that is still being written when the next batch
+ * fills up. A batch that doesn't fill up is written anyway once its first record has waited for the
+ * linger time (see {@link #setLinger}), so on a quiet system a change still reaches the disk soon after
+ * it is made. A larger batch and a longer linger mean fewer disk syncs and more throughput, but the most
+ * recent changes can be lost in a crash until they are durable: a change that must not be acknowledged
+ * before then waits for its record with {@link #waitDurable(long)}, which joins the group commit
+ * rather than forcing a sync of its own like {@link #sync()}.
+ *
+ * If a batch can't be written the journal fails for good: the records not yet on disk are kept, but
+ * every further change is refused (see {@link #posting}) so nothing is made that the journal doesn't
+ * hold and the sequence numbers never have a gap. The bank has to be restarted from its snapshot and
+ * journal once the disk is fixed.
+ *
+ * Record layout (64 bytes, big-endian):
+ *
+ *     0  long  sequence number, starting at 1
+ *     8  byte  record kind
+ *    12  ...   payload, depending on the kind
+ *    60  int   CRC32 of bytes 0-59
+ *
+ *     CUSTOMER  12 int customer id, 16 byte name length, 17 name (UTF-8, up to 40 bytes)
+ *     ACCOUNT   12 int customer id, 16 int account number, 20 byte account type
+ *     POSTING   12 long amount in cents, 20 int from account, 24 int to account (0 for none), 28 long time
+ *     INTEREST  12 long amount in cents, 24 int account paid, 28 long time
+ *
+ * A record that is cut short or fails its checksum (a torn write) marks the end of the journal.
+ *
+ */
+class Journal implements Closeable {
+
+	static final int RECORD_SIZE = 64;
+	static final int MAX_NAME_BYTES = 40;
+
+	/*
+	 * How long a batch that isn't full waits for more records, unless told otherwise
+	 */
+	static final long DEFAULT_LINGER_MICROS = 1000;
+
+	static final byte CUSTOMER = 1;
+	static final byte ACCOUNT = 2;
+	static final byte POSTING = 3;
+	static final byte INTEREST = 4;
+
+	private static final int CHECKSUM_OFFSET = RECORD_SIZE - 4;
+
+	/*
+	 * The account number written when one side of a posting has no account (deposits and withdrawals)
+	 */
+	static final int NO_ACCOUNT = 0;
+
+	private final FileChannel channel;
+
+	private final CRC32 crc = new CRC32();
+
+	/*
+	 * The batch records are added to, the batch the flusher is writing (null while it waits for one) and the
+	 * sequence number of its last record, and the batch to fill next (null while the flusher has it).
+	 * These and the fields below are guarded by the journal's monitor.
+	 */
+	private ByteBuffer filling;
+	private ByteBuffer flushing = null;
+	private long flushingLast;
+	private ByteBuffer spare;
+
+	/*
+	 * When the first record of the batch being filled was added, and how long the batch may wait for more,
+	 * in nanoseconds
+	 */
+	private long fillingSince;
+	private long lingerNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_LINGER_MICROS);
+
+	/*
+	 * The sequence number of the next record, and of the last record on disk
+	 */
+	private long nextSequence;
+	private long durableSequence;
+
+	/*
+	 * Where the next batch is written in the file
+	 */
+	private long end;
+
+	/*
+	 * Why a batch couldn't be written, once the journal has failed
+	 */
+	private IOException failure = null;
+
+	private boolean closed = false;
+	private final Thread flusher;
+
+	/**
+	 * Opens a journal file for appending, and starts its flusher thread. Use {@link #recover(Path, int, BankContext)} to open an existing journal.
+	 * @param channel		The journal file, holding the records before nextSequence
+	 * @param nextSequence	Sequence number of the next record
+	 * @param batchSize		How many records to collect before writing and syncing them
+	 */
+	Journal(FileChannel channel, long nextSequence, int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		this.channel = channel;
+		this.nextSequence = nextSequence;
+		this.durableSequence = nextSequence - 1;
+		this.end = (nextSequence - 1) * RECORD_SIZE;
+		this.filling = ByteBuffer.allocateDirect(batchSize * RECORD_SIZE);
+		this.spare = ByteBuffer.allocateDirect(batchSize * RECORD_SIZE);
+		this.flusher = new Thread(this::flush, "journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Rebuilds a bank from its journal and opens the journal to record further changes to it.
+	 * If the file doesn't exist yet, a new empty bank is returned with a new journal.
+	 * Anything after the last complete, valid record (e.g. half a record written as the process died) is
+	 * cut off the end of the file.
+	 * @param file			The journal file
+	 * @param batchSize		How many records to collect before writing and syncing them
+	 * @param context		The context of the recovered bank
+	 * @return Bank			The recovered bank, with the journal attached
+	 * @throws IOException	If the file can't be read or written
+	 */
+	static Bank recover(Path file, int batchSize, BankContext context) throws IOException {
+		return recover(file, batchSize, new Bank(context), 0);
+	}
+
+	/**
+	 * Brings a bank loaded from a snapshot up to date from its journal, and opens the journal to record
+	 * further changes to it. Records the bank already includes are skipped.
+	 * @param file			The journal file
+	 * @param batchSize		How many records to collect before writing and syncing them
+	 * @param bank			The bank as it was loaded from the snapshot
+	 * @param after			The journal sequence number the snapshot was taken at, reading starts after it
+	 * @return Bank			The bank, with the journal attached
+	 * @throws IOException	If the file can't be read or written
+	 */
+	static Bank recover(Path file, int batchSize, Bank bank, long after) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (channel.size() < after * RECORD_SIZE)
+				throw new IllegalStateException("Journal ends before record " + after + " where the snapshot was taken");
+			long sequence = replay(channel, bank, after);
+
+			// Drop any torn record and carry on from the last good one
+			long end = sequence * RECORD_SIZE;
+			if (channel.size() > end)
+				channel.truncate(end);
+			channel.position(end);
+
+			bank.setJournal(new Journal(channel, sequence + 1, batchSize));
+			return bank;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Applies every good record after a given sequence number to the bank
+	 * @param channel		The journal file
+	 * @param bank			The bank to rebuild
+	 * @param after			Reading starts with the record after this one
+	 * @return long			The sequence number of the last good record
+	 * @throws IOException
+	 */
+	private static long replay(FileChannel channel, Bank bank, long after) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		CRC32 check = new CRC32();
+		long sequence = after;
+		long position = after * RECORD_SIZE;
+		while (true) {
+			record.clear();
+			while (record.hasRemaining()) {
+				if (channel.read(record, position + record.position()) < 0)
+					return sequence;
+			}
+			record.flip();
+			check.reset();
+			check.update(record.array(), 0, CHECKSUM_OFFSET);
+			if ((int) check.getValue() != record.getInt(CHECKSUM_OFFSET) || record.getLong(0) != sequence + 1)
+				return sequence;
+
+			sequence++;
+			position += RECORD_SIZE;
+			apply(record, bank);
+		}
+	}
+
+	/**
+	 * Makes the change described by one record, unless the bank already includes it
+	 * (a snapshot may have caught some changes made after it started)
+	 */
+	private static void apply(ByteBuffer record, Bank bank) {
+		switch (record.get(8)) {
+			case CUSTOMER:
+				int id = record.getInt(12);
+				if (id < bank.getNumberOfCustomers())
+					break;
+				String name = new String(record.array(), 17, record.get(16), StandardCharsets.UTF_8);
+				Customer customer = new Customer(name, bank);
+				if (customer.getId() != id)
+					throw new IllegalStateException("Journal is out of order at customer " + id);
+				break;
+			case ACCOUNT:
+				if (bank.getAccountByNumber(record.getInt(16)) == null)
+					bank.getCustomer(record.getInt(12)).openAccount(InterestProduct.get(record.get(20)), record.getInt(16));
+				break;
+			case POSTING:
+				long sequence = record.getLong(0);
+				Account from = bank.getAccountByNumber(record.getInt(20));
+				Account to = bank.getAccountByNumber(record.getInt(24));
+
+				// Only apply the sides of the posting the accounts don't already include
+				if (from != null && from.getJournalSequence() >= sequence)
+					from = null;
+				if (to != null && to.getJournalSequence() >= sequence)
+					to = null;
+				if (from != null || to != null)
+					bank.getContext().getTransactions().replay(record.getLong(12), from, to, record.getLong(28), sequence);
+				break;
+			case INTEREST:
+				Account account = bank.getAccountByNumber(record.getInt(24));
+				if (account != null && account.getJournalSequence() < record.getLong(0))
+					bank.getContext().getTransactions().replayInterest(record.getLong(12), account, record.getLong(28), record.getLong(0));
+				break;
+			default:
+				throw new IllegalStateException("Unknown journal record kind " + record.get(8));
+		}
+	}
+
+	/**
+	 * Records a new customer
+	 * @param customerId
+	 * @param name			At most {@link #MAX_NAME_BYTES} bytes once encoded as UTF-8
+	 */
+	synchronized void customer(int customerId, String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_NAME_BYTES)
+			throw new IllegalArgumentException("Customer name is longer than " + MAX_NAME_BYTES + " bytes");
+		int start = begin(CUSTOMER);
+		filling.putInt(start + 12, customerId);
+		filling.put(start + 16, (byte) bytes.length);
+		for (int i = 0; i < bytes.length; i++)
+			filling.put(start + 17 + i, bytes[i]);
+		end(start);
+	}
+
+	/**
+	 * Records a new account
+	 * @param customerId
+	 * @param accountNumber
+	 * @param accountType
+	 */
+	synchronized void account(int customerId, int accountNumber, int accountType) {
+		int start = begin(ACCOUNT);
+		filling.putInt(start + 12, customerId);
+		filling.putInt(start + 16, accountNumber);
+		filling.put(start + 20, (byte) accountType);
+		end(start);
+	}
+
+	/**
+	 * Records a posting, before it is applied
+	 * @param amount		In cents
+	 * @param fromAccount	Account number, or {@link #NO_ACCOUNT}
+	 * @param toAccount		Account number, or {@link #NO_ACCOUNT}
+	 * @param time			Milliseconds since the epoch
+	 * @return long			The sequence number of the record
+	 */
+	synchronized long posting(long amount, int fromAccount, int toAccount, long time) {
+		return money(POSTING, amount, fromAccount, toAccount, time);
+	}
+
+	/**
+	 * Records interest paid into an account, before it is applied
+	 * @param amount		In cents
+	 * @param account		Account number
+	 * @param time			Milliseconds since the epoch
+	 * @return long			The sequence number of the record
+	 */
+	synchronized long interest(long amount, int account, long time) {
+		return money(INTEREST, amount, NO_ACCOUNT, account, time);
+	}
+
+	/**
+	 * Writes a record of money moving
+	 * @return long			The sequence number of the record
+	 */
+	private long money(byte kind, long amount, int fromAccount, int toAccount, long time) {
+		int start = begin(kind);
+		filling.putLong(start + 12, amount);
+		filling.putInt(start + 20, fromAccount);
+		filling.putInt(start + 24, toAccount);
+		filling.putLong(start + 28, time);
+		end(start);
+		return nextSequence - 1;
+	}
+
+	/**
+	 * Starts a record in the batch being filled, with everything but its header zeroed. If that batch is full
+	 * it is handed to the flusher first, waiting for it to finish the one before.
+	 * @return int		Where the record starts in the batch
+	 * @throws UncheckedIOException	If the journal has failed or is closed
+	 */
+	private int begin(byte kind) {
+		if (closed)
+			throw new UncheckedIOException("Journal is closed", new ClosedChannelException());
+		while (!filling.hasRemaining()) {
+			checkFailure();
+			if (flushing == null)
+				handOff();
+			else
+				awaitFlusher();
+		}
+		checkFailure();
+		int start = filling.position();
+		if (start == 0)
+			fillingSince = System.nanoTime();
+		for (int i = 0; i < RECORD_SIZE; i += 8)
+			filling.putLong(start + i, 0);
+		filling.putLong(start, nextSequence);
+		filling.put(start + 8, kind);
+		return start;
+	}
+
+	/**
+	 * Seals a record with its checksum, and hands the batch to the flusher if it is full and the flusher is free.
+	 * The first record of a batch wakes the flusher, so it can start timing the batch's linger.
+	 */
+	private void end(int start) {
+		ByteBuffer body = filling.duplicate();
+		body.position(start).limit(start + CHECKSUM_OFFSET);
+		crc.reset();
+		crc.update(body);
+		filling.putInt(start + CHECKSUM_OFFSET, (int) crc.getValue());
+		filling.position(start + RECORD_SIZE);
+		nextSequence++;
+		if (!filling.hasRemaining() && flushing == null)
+			handOff();
+		else if (start == 0)
+			notifyAll();
+	}
+
+	/**
+	 * Gives the batch being filled to the flusher, which must be free, and starts filling the spare one
+	 */
+	private void handOff() {
+		flushing = filling;
+		flushingLast = nextSequence - 1;
+		filling = spare;
+		spare = null;
+		notifyAll();
+	}
+
+	/**
+	 * Writes batches to the file as they are handed over, or as they are once they have lingered long enough,
+	 * until the journal is closed or fails. Runs on the flusher thread.
+	 */
+	private void flush() {
+		while (true) {
+			ByteBuffer batch;
+			long last;
+			long position;
+			synchronized (this) {
+				while (flushing == null && !closed) {
+					if (filling.position() == 0) {
+						awaitQuietly(0);
+						continue;
+					}
+					long lingered = System.nanoTime() - fillingSince;
+					if (lingered >= lingerNanos)
+						handOff();
+					else
+						awaitQuietly(lingerNanos - lingered);
+				}
+				if (flushing == null)
+					return;
+				batch = flushing;
+				last = flushingLast;
+				position = end;
+			}
+
+			// Written and forced without holding the journal, so records can be added meanwhile
+			IOException failed = null;
+			try {
+				ByteBuffer out = batch.duplicate();
+				out.flip();
+				while (out.hasRemaining())
+					position += channel.write(out, position);
+				channel.force(false);
+			} catch (IOException e) {
+				failed = e;
+			}
+
+			synchronized (this) {
+				if (failed != null) {
+					failure = failed;
+					notifyAll();
+					return;
+				}
+				end = position;
+				durableSequence = last;
+				batch.clear();
+				spare = batch;
+				flushing = null;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the flusher to finish a batch or fail
+	 */
+	private void awaitFlusher() {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the journal", e);
+		}
+	}
+
+	/**
+	 * Waits for a batch on the flusher thread, which only stops when the journal is closed
+	 * @param nanos		The longest to wait, or 0 to wait until woken
+	 */
+	private void awaitQuietly(long nanos) {
+		try {
+			if (nanos == 0)
+				wait();
+			else
+				TimeUnit.NANOSECONDS.timedWait(this, nanos);
+		} catch (InterruptedException e) {
+			// Carries on until closed
+		}
+	}
+
+	/**
+	 * @throws UncheckedIOException	If a batch couldn't be written
+	 */
+	private void checkFailure() {
+		if (failure != null)
+			throw new UncheckedIOException("Journal can't be written, no further changes can be made", failure);
+	}
+
+	/**
+	 * Writes any waiting records and waits for them to be forced to disk
+	 * @throws UncheckedIOException	If the journal has failed
+	 */
+	synchronized void sync() {
+		long target = nextSequence - 1;
+		while (durableSequence < target) {
+			checkFailure();
+			if (flushing == null && filling.position() > 0)
+				handOff();
+			else
+				awaitFlusher();
+		}
+	}
+
+	/**
+	 * Waits until a record is on disk, without writing out a partial batch early: the record goes to disk
+	 * with the rest of its batch, at the latest once the batch has lingered. Use it to hold back the
+	 * acknowledgement of a change until the change can't be lost.
+	 * @param sequence		The record's sequence number, e.g. from {@link #posting} or {@link #lastSequence()}
+	 * @throws UncheckedIOException	If the journal has failed, or was closed before the record got to disk
+	 */
+	synchronized void waitDurable(long sequence) {
+		while (durableSequence < sequence) {
+			checkFailure();
+			if (closed)
+				throw new UncheckedIOException("Journal is closed", new ClosedChannelException());
+			awaitFlusher();
+		}
+	}
+
+	/**
+	 * Sets how long a batch that isn't full waits for more records before it is written anyway
+	 * @param linger	At least zero
+	 * @param unit		The unit of the linger
+	 */
+	synchronized void setLinger(long linger, TimeUnit unit) {
+		if (linger < 0)
+			throw new IllegalArgumentException("Linger must not be negative");
+		lingerNanos = unit.toNanos(linger);
+		notifyAll();
+	}
+
+	/**
+	 * @return long		The sequence number of the last record written to the journal
+	 */
+	synchronized long lastSequence() {
+		return nextSequence - 1;
+	}
+
+	/**
+	 * @return long		The sequence number of the last record forced to disk
+	 */
+	synchronized long durableSequence() {
+		return durableSequence;
+	}
+
+	/**
+	 * Writes any waiting records to disk
+	 * @return long		The sequence number of the last record, which is now on disk
+	 */
+	synchronized long syncedSequence() {
+		sync();
+		return nextSequence - 1;
+	}
+
+	/**
+	 * Syncs any waiting records, stops the flusher and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			synchronized (this) {
+				if (failure == null && !closed)
+					sync();
+			}
+		} finally {
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+			}
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			channel.close();
+		}
+	}
+}
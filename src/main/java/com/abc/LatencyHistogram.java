@@ -0,0 +1,131 @@
+package com.abc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Eddy Brown
+ *
+ * A histogram of latencies in nanoseconds, in the style of HdrHistogram: values below 64 each get
+ * their own bucket, and above that every power of two is split into 32 equal buckets, so any value is
+ * known to within about 3%. Values of an hour or more all count in the top bucket.
+ *
+ * Recording is lock-free (one atomic increment of a bucket) and can be done from any number of threads.
+ * Reading the percentiles while values are being recorded gives a close, not exact, picture.
+ *
+ */
+class LatencyHistogram {
+
+	/*
+	 * Values below 2^LINEAR_BITS each have a bucket; above, each power of two has 2^(LINEAR_BITS - 1) buckets
+	 */
+	private static final int LINEAR_BITS = 6;
+	private static final int LINEAR = 1 << LINEAR_BITS;
+	private static final int HALF = LINEAR >>> 1;
+
+	/*
+	 * Largest value told apart from the ones above it: about an hour in nanoseconds
+	 */
+	static final long HIGHEST = (1L << 42) - 1;
+
+	private static final int BUCKETS = index(HIGHEST) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records one value
+	 * @param nanos		A latency in nanoseconds, negative values count as 0
+	 */
+	void record(long nanos) {
+		long value = Math.max(0, Math.min(nanos, HIGHEST));
+		counts.incrementAndGet(index(value));
+		total.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * @param value		Between 0 and HIGHEST
+	 * @return int		The bucket the value goes in
+	 */
+	static int index(long value) {
+		if (value < LINEAR)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (LINEAR_BITS - 1);
+		int top = (int) (value >>> shift);
+		return LINEAR + (shift - 1) * HALF + (top - HALF);
+	}
+
+	/**
+	 * @param index
+	 * @return long		The highest value that goes in the bucket
+	 */
+	static long highestIn(int index) {
+		if (index < LINEAR)
+			return index;
+		int shift = (index - LINEAR) / HALF + 1;
+		long top = (index - LINEAR) % HALF + HALF;
+		return ((top + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return long		The number of values recorded
+	 */
+	long count() {
+		return total.sum();
+	}
+
+	/**
+	 * @return double	The mean of the values recorded, 0 if there are none
+	 */
+	double mean() {
+		long count = total.sum();
+		return count == 0 ? 0 : (double) sum.sum() / count;
+	}
+
+	/**
+	 * @return long		The largest value recorded
+	 */
+	long max() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile	From 0 to 100
+	 * @return long			A value at least as large as that percentage of the values recorded (to within
+	 * 						a bucket), 0 if there are none
+	 */
+	long percentile(double percentile) {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += copy[i];
+			if (seen >= rank)
+				return Math.min(highestIn(i), max());
+		}
+		return max();
+	}
+
+	/**
+	 * Forgets everything recorded so far
+	 */
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		total.reset();
+		sum.reset();
+		max.reset();
+	}
+}
@@ -0,0 +1,119 @@
+package com.abc;
+
+import java.util.List;
+
+/**
+ * @author Eddy Brown
+ *
+ * Where {@link Transactions} keeps the transactions it has posted: every transaction in the order it
+ * was made, and each account's own history.
+ *
+ * Each account's history is kept in order of time (a transaction made at an earlier time than the last one,
+ * e.g. because the clock was turned back, is put in its place), so parts of it can be found by binary search.
+ *
+ * Transactions holds the locks of the accounts involved (in concurrent mode) whenever it calls a ledger,
+ * so two calls for the same account never overlap, but calls for different accounts can. In sharded mode
+ * (see {@link ShardedPosting}) each account is only ever touched by the thread of its shard, and a transfer
+ * between shards is recorded in two steps: {@link #record} on the paying shard and {@link #index} on each.
+ *
+ */
+interface Ledger {
+
+	/**
+	 * Records a transaction that has been posted
+	 * @param amount		In cents
+	 * @param fromAccount	The account the amount came from, or null for a deposit
+	 * @param toAccount		The account the amount went to, or null for a withdrawal
+	 * @param time			When it was made, in milliseconds since the epoch
+	 * @param concurrent	True if other threads may be adding transactions at the same time
+	 */
+	void add(long amount, Account fromAccount, Account toAccount, long time, boolean concurrent);
+
+	/**
+	 * Records interest paid into an account by the bank, which the account's history shows as
+	 * {@link Transaction#INTEREST} rather than as a deposit
+	 * @param amount		In cents
+	 * @param account		The account paid
+	 * @param time			When it was paid, in milliseconds since the epoch
+	 * @param concurrent	True if other threads may be adding transactions at the same time
+	 */
+	void addInterest(long amount, Account account, long time, boolean concurrent);
+
+	/**
+	 * Records a transaction in the order transactions were made, without adding it to either account's
+	 * history yet. Always safe to call from many threads at once.
+	 * @param amount		In cents
+	 * @param fromAccount	The account the amount came from, or null for a deposit
+	 * @param toAccount		The account the amount went to, or null for a withdrawal
+	 * @param time			When it was made, in milliseconds since the epoch
+	 * @return int			Where the transaction was recorded, to be passed to {@link #index}
+	 */
+	int record(long amount, Account fromAccount, Account toAccount, long time);
+
+	/**
+	 * Adds a transaction recorded by {@link #record} to the history of one of its accounts
+	 * @param account		The from or to account of the transaction
+	 * @param position		What record returned
+	 */
+	void index(Account account, int position);
+
+	/**
+	 * Gets the transactions related to the account, oldest first
+	 * @param account
+	 * @param concurrent	True if other threads may be adding transactions at the same time
+	 * @return List<Transaction>	A read-only list. If concurrent it must not change after the call returns.
+	 */
+	List<Transaction> getTransactions(Account account, boolean concurrent);
+
+	/**
+	 * @param account
+	 * @return int		The number of transactions in the account's history
+	 */
+	int count(Account account);
+
+	/**
+	 * Finds where a time falls in the account's history
+	 * @param account
+	 * @param time		Milliseconds since the epoch
+	 * @return int		The position of the first transaction made at or after the time (the count if there is none)
+	 */
+	int indexOf(Account account, long time);
+
+	/**
+	 * Gets part of the account's history
+	 * @param account
+	 * @param fromIndex		The first position, inclusive
+	 * @param toIndex		The last position, exclusive
+	 * @param concurrent	True if other threads may be adding transactions at the same time
+	 * @return List<Transaction>	A read-only list that doesn't change after the call returns
+	 */
+	List<Transaction> getTransactions(Account account, int fromIndex, int toIndex, boolean concurrent);
+
+	/**
+	 * Goes through part of the account's history in order without making {@link Transaction} objects,
+	 * e.g. to write a statement
+	 * @param account
+	 * @param fromIndex		The first position, inclusive
+	 * @param toIndex		The last position, exclusive
+	 * @param visitor		Told about each transaction in turn
+	 */
+	void visit(Account account, int fromIndex, int toIndex, Visitor visitor);
+
+	/**
+	 * @return int		The number of transactions recorded
+	 */
+	int size();
+
+	/**
+	 * Told about each transaction in part of an account's history by {@link Ledger#visit}
+	 */
+	interface Visitor {
+
+		/**
+		 * @param direction		What the transaction did to the account, e.g. {@link Transaction#SENT}
+		 * @param amount		In cents
+		 * @param counterparty	The other account of a transfer, the account itself for a transfer to itself, or null
+		 */
+		void posting(int direction, long amount, Account counterparty);
+	}
+}
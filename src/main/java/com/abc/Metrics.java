@@ -0,0 +1,209 @@
+package com.abc;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * @author Eddy Brown
+ *
+ * Counts and times the bank's hot operations: posting a transaction, writing a statement, finding an
+ * account by number and reading the total interest paid. Every operation has a count and a
+ * {@link LatencyHistogram}, and postings are also counted by outcome, so refused postings are visible.
+ *
+ * Each {@link BankContext} has its own metrics, so banks in different contexts never write to the same
+ * counters or histograms. Timing an operation costs two calls to System.nanoTime and a few uncontended
+ * atomic adds. It can be switched off, which leaves a single volatile read. The metrics can be read as a
+ * plain text table ({@link #snapshot()}) or through JMX once {@link #register()} has been called.
+ *
+ */
+class Metrics implements MetricsMXBean {
+
+	static final String OBJECT_NAME = "com.abc:type=Metrics";
+
+	/**
+	 * The operations that are measured
+	 */
+	enum Operation {
+		POSTING("posting"),
+		BATCH("batch"),
+		STATEMENT("statement"),
+		ACCOUNT_LOOKUP("accountLookup"),
+		TOTAL_INTEREST("totalInterest");
+
+		final String label;
+
+		Operation(String label) {
+			this.label = label;
+		}
+	}
+
+	/*
+	 * Percentiles shown for each operation
+	 */
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+
+	/*
+	 * Postings (including batch items) by outcome
+	 */
+	private final LongAdder[] outcomes = new LongAdder[PostingBatch.Outcome.values().length];
+
+	private volatile boolean enabled = true;
+
+	/**
+	 * Empty metrics, switched on. Each {@link BankContext} makes its own.
+	 */
+	Metrics() {
+		for (int i = 0; i < latencies.length; i++)
+			latencies[i] = new LatencyHistogram();
+		for (int i = 0; i < outcomes.length; i++)
+			outcomes[i] = new LongAdder();
+	}
+
+	/**
+	 * Marks the start of an operation
+	 * @return long		The time now in nanoseconds, or 0 if metrics are switched off
+	 */
+	long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Marks the end of an operation started with {@link #start()}
+	 * @param operation
+	 * @param start		What start() returned
+	 */
+	void end(Operation operation, long start) {
+		if (start != 0)
+			latencies[operation.ordinal()].record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Counts the outcome of a posting
+	 * @param outcome
+	 */
+	void posted(PostingBatch.Outcome outcome) {
+		if (enabled)
+			outcomes[outcome.ordinal()].increment();
+	}
+
+	/**
+	 * @param operation
+	 * @return LatencyHistogram		The operation's latencies, in nanoseconds
+	 */
+	LatencyHistogram latency(Operation operation) {
+		return latencies[operation.ordinal()];
+	}
+
+	/**
+	 * @param outcome
+	 * @return long		The number of postings with this outcome
+	 */
+	long count(PostingBatch.Outcome outcome) {
+		return outcomes[outcome.ordinal()].sum();
+	}
+
+	/**
+	 * Makes the metrics visible through JMX on the platform MBean server, under {@link #OBJECT_NAME}.
+	 * Only one context's metrics can have that name; see {@link #register(String)} for the others.
+	 * @throws IllegalStateException	If they can't be registered
+	 */
+	void register() {
+		register(null);
+	}
+
+	/**
+	 * Makes the metrics visible through JMX on the platform MBean server, under {@link #OBJECT_NAME} with
+	 * the context's name added, so several contexts' metrics can be seen side by side
+	 * @param context	The context's name, or null for just {@link #OBJECT_NAME}
+	 * @throws IllegalStateException	If they can't be registered
+	 */
+	synchronized void register(String context) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName(context == null ? OBJECT_NAME : OBJECT_NAME + ",context=" + ObjectName.quote(context));
+			if (!server.isRegistered(name))
+				server.registerMBean(this, name);
+		} catch (JMException e) {
+			throw new IllegalStateException("Metrics can't be registered with JMX", e);
+		}
+	}
+
+	/**
+	 * Writes every operation's count and latency percentiles (in microseconds), and the posting outcomes, as a table
+	 * @return String
+	 */
+	String snapshot() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format(Locale.ROOT, "%-16s %12s %10s %10s %10s %10s %10s %10s%n",
+				"operation (us)", "count", "mean", "p50", "p90", "p99", "p99.9", "max"));
+		for (Operation operation : Operation.values()) {
+			LatencyHistogram histogram = latency(operation);
+			out.append(String.format(Locale.ROOT, "%-16s %12d %10.2f", operation.label, histogram.count(), histogram.mean() / 1000));
+			for (double percentile : PERCENTILES)
+				out.append(String.format(Locale.ROOT, " %10.2f", histogram.percentile(percentile) / 1000.0));
+			out.append(String.format(Locale.ROOT, " %10.2f%n", histogram.max() / 1000.0));
+		}
+		out.append("postings");
+		for (PostingBatch.Outcome outcome : PostingBatch.Outcome.values()) {
+			if (outcome != PostingBatch.Outcome.PENDING)
+				out.append(' ').append(outcome.name().toLowerCase(Locale.ROOT)).append('=').append(count(outcome));
+		}
+		return out.append('\n').toString();
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public Map<String, Long> getCounts() {
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (Operation operation : Operation.values())
+			counts.put(operation.label, latency(operation).count());
+		counts.put("posting.accepted", count(PostingBatch.Outcome.ACCEPTED));
+		counts.put("posting.insufficientFunds", count(PostingBatch.Outcome.INSUFFICIENT_FUNDS));
+		counts.put("posting.invalid", count(PostingBatch.Outcome.INVALID));
+		return counts;
+	}
+
+	@Override
+	public Map<String, Double> getLatencies() {
+		Map<String, Double> percentiles = new LinkedHashMap<String, Double>();
+		for (Operation operation : Operation.values()) {
+			LatencyHistogram histogram = latency(operation);
+			for (double percentile : PERCENTILES)
+				percentiles.put(operation.label + ".p" + (percentile == (int) percentile ? String.valueOf((int) percentile) : String.valueOf(percentile)),
+						histogram.percentile(percentile) / 1000.0);
+			percentiles.put(operation.label + ".max", histogram.max() / 1000.0);
+		}
+		return percentiles;
+	}
+
+	@Override
+	public String getSnapshot() {
+		return snapshot();
+	}
+
+	@Override
+	public void reset() {
+		for (LatencyHistogram histogram : latencies)
+			histogram.reset();
+		for (LongAdder outcome : outcomes)
+			outcome.reset();
+	}
+}
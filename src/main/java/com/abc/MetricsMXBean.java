@@ -0,0 +1,41 @@
+package com.abc;
+
+import java.util.Map;
+
+/**
+ * @author Eddy Brown
+ *
+ * The bank's operation metrics as seen through JMX (see {@link Metrics#register()}).
+ * Latencies are in microseconds.
+ *
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * @return boolean	True if operations are being timed and counted
+	 */
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	/**
+	 * @return Map<String, Long>	How many times each operation has been done, and how many postings were
+	 * 								accepted and refused, e.g. "posting" or "posting.insufficientFunds"
+	 */
+	Map<String, Long> getCounts();
+
+	/**
+	 * @return Map<String, Double>	Latency percentiles of each operation, e.g. "posting.p99"
+	 */
+	Map<String, Double> getLatencies();
+
+	/**
+	 * @return String	Everything as a plain text table
+	 */
+	String getSnapshot();
+
+	/**
+	 * Starts counting again from zero
+	 */
+	void reset();
+}
@@ -0,0 +1,227 @@
+package com.abc;
+
+import java.math.RoundingMode;
+
+/**
+ * @author Eddy Brown
+ *
+ * Money is held as a whole number of cents in a long, so adding and subtracting amounts is exact
+ * and never allocates. This class converts between cents and dollars and does the few calculations
+ * that need rounding (such as applying an interest rate), always with an explicit rounding mode.
+ *
+ * Rates are given in parts per million, so 0.1% is 1,000 and 5% is 50,000.
+ *
+ */
+final class Money {
+
+	static final long CENTS_PER_DOLLAR = 100;
+
+	/*
+	 * A rate of 100%
+	 */
+	static final long ONE_MILLION = 1000000;
+
+	/*
+	 * Rounding used for money unless a calculation says otherwise (banker's rounding)
+	 */
+	static final RoundingMode DEFAULT_ROUNDING = RoundingMode.HALF_EVEN;
+
+	private Money() {
+	}
+
+	/**
+	 * Converts a dollar amount into cents using the default rounding
+	 * @param dollars
+	 * @return long		The amount in cents
+	 */
+	static long fromDollars(double dollars) {
+		return fromDollars(dollars, DEFAULT_ROUNDING);
+	}
+
+	/**
+	 * Converts a dollar amount into cents
+	 * @param dollars
+	 * @param rounding		How to round fractions of a cent
+	 * @return long			The amount in cents
+	 * @throws ArithmeticException	If the amount is too large, or has fractions of a cent with {@link RoundingMode#UNNECESSARY}
+	 */
+	static long fromDollars(double dollars, RoundingMode rounding) {
+		double cents = dollars * CENTS_PER_DOLLAR;
+		if (Double.isNaN(cents) || Math.abs(cents) >= Long.MAX_VALUE)
+			throw new ArithmeticException("Amount is not a valid number of cents: " + dollars);
+
+		double rounded;
+		switch (rounding) {
+			case UP:
+				rounded = cents < 0 ? Math.floor(cents) : Math.ceil(cents);
+				break;
+			case DOWN:
+				rounded = cents < 0 ? Math.ceil(cents) : Math.floor(cents);
+				break;
+			case CEILING:
+				rounded = Math.ceil(cents);
+				break;
+			case FLOOR:
+				rounded = Math.floor(cents);
+				break;
+			case HALF_UP:
+				rounded = Math.copySign(Math.floor(Math.abs(cents) + 0.5), cents);
+				break;
+			case HALF_DOWN:
+				rounded = Math.copySign(Math.ceil(Math.abs(cents) - 0.5), cents);
+				break;
+			case HALF_EVEN:
+				rounded = Math.rint(cents);
+				break;
+			case UNNECESSARY:
+				rounded = cents;
+				if (rounded != Math.rint(cents))
+					throw new ArithmeticException("Amount has fractions of a cent: " + dollars);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown rounding mode " + rounding);
+		}
+		return (long) rounded;
+	}
+
+	/**
+	 * @param cents
+	 * @return double	The amount in dollars (for display only, calculations should stay in cents)
+	 */
+	static double toDollars(long cents) {
+		return (double) cents / CENTS_PER_DOLLAR;
+	}
+
+	/**
+	 * Writes an amount as dollars with a dollar sign, thousands separators and two decimal places, e.g. $1,234.50.
+	 * The sign is dropped, as statements say which way the money went. This is used instead of String.format
+	 * so formatting doesn't parse a pattern or allocate for every line of a statement.
+	 * @param out		Where to write the amount
+	 * @param cents		The amount in cents
+	 */
+	static void appendDollars(StringBuilder out, long cents) {
+		long value = Math.abs(cents);
+		out.append('$');
+		appendGrouped(out, value / CENTS_PER_DOLLAR);
+		int remainder = (int) (value % CENTS_PER_DOLLAR);
+		out.append('.');
+		if (remainder < 10)
+			out.append('0');
+		out.append(remainder);
+	}
+
+	/**
+	 * Writes an amount as a plain decimal number of dollars with two decimal places and its sign, e.g. -1234.50,
+	 * for reports read by other programs (CSV, JSON)
+	 * @param out		Where to write the amount
+	 * @param cents		The amount in cents
+	 */
+	static void appendDecimal(StringBuilder out, long cents) {
+		if (cents < 0)
+			out.append('-');
+		long dollars = cents / CENTS_PER_DOLLAR;
+		int remainder = (int) (cents % CENTS_PER_DOLLAR);
+		out.append(Math.abs(dollars)).append('.');
+		if (Math.abs(remainder) < 10)
+			out.append('0');
+		out.append(Math.abs(remainder));
+	}
+
+	/**
+	 * Writes a whole number with a comma between each group of three digits
+	 */
+	private static void appendGrouped(StringBuilder out, long value) {
+		if (value < 1000) {
+			out.append(value);
+			return;
+		}
+		appendGrouped(out, value / 1000);
+		int group = (int) (value % 1000);
+		out.append(',');
+		if (group < 100)
+			out.append('0');
+		if (group < 10)
+			out.append('0');
+		out.append(group);
+	}
+
+	/**
+	 * Applies a rate to an amount, e.g. to work out interest
+	 * @param cents			The amount
+	 * @param ratePpm		The rate in parts per million
+	 * @param rounding		How to round fractions of a cent
+	 * @return long			The amount multiplied by the rate, in cents
+	 * @throws ArithmeticException	If the result doesn't fit in a long
+	 */
+	static long applyRate(long cents, long ratePpm, RoundingMode rounding) {
+		return divide(Math.multiplyExact(cents, ratePpm), ONE_MILLION, rounding);
+	}
+
+	/**
+	 * Applies a yearly rate to an amount for part of a year, e.g. to work out a day's interest
+	 * @param cents			The amount
+	 * @param ratePpm		The yearly rate in parts per million
+	 * @param periods		How many of these periods make a year, e.g. 365 for a day
+	 * @param rounding		How to round fractions of a cent
+	 * @return long			The amount multiplied by the rate and divided by the number of periods, in cents
+	 * @throws ArithmeticException	If the result doesn't fit in a long
+	 */
+	static long applyRate(long cents, long ratePpm, int periods, RoundingMode rounding) {
+		return divide(Math.multiplyExact(cents, ratePpm), ONE_MILLION * periods, rounding);
+	}
+
+	/**
+	 * Divides two whole numbers, rounding the result as asked
+	 * @param dividend
+	 * @param divisor		Must not be zero
+	 * @param rounding
+	 * @return long
+	 * @throws ArithmeticException	If the divisor is zero, or the result needs rounding with {@link RoundingMode#UNNECESSARY}
+	 */
+	static long divide(long dividend, long divisor, RoundingMode rounding) {
+		long quotient = dividend / divisor;
+		long remainder = dividend % divisor;
+		if (remainder == 0)
+			return quotient;
+
+		// Which way the exact result lies from the truncated quotient
+		int sign = (dividend < 0) == (divisor < 0) ? 1 : -1;
+		boolean awayFromZero;
+		switch (rounding) {
+			case UP:
+				awayFromZero = true;
+				break;
+			case DOWN:
+				awayFromZero = false;
+				break;
+			case CEILING:
+				awayFromZero = sign > 0;
+				break;
+			case FLOOR:
+				awayFromZero = sign < 0;
+				break;
+			case HALF_UP:
+			case HALF_DOWN:
+			case HALF_EVEN:
+				// Compare the remainder with what is left of the divisor, i.e. with half the divisor, without overflowing
+				long part = Math.abs(remainder);
+				int comparison = Long.compare(part, Math.abs(divisor) - part);
+				if (comparison > 0)
+					awayFromZero = true;
+				else if (comparison < 0)
+					awayFromZero = false;
+				else if (rounding == RoundingMode.HALF_UP)
+					awayFromZero = true;
+				else if (rounding == RoundingMode.HALF_DOWN)
+					awayFromZero = false;
+				else
+					awayFromZero = (quotient & 1) != 0;
+				break;
+			case UNNECESSARY:
+				throw new ArithmeticException("Division needs rounding: " + dividend + " / " + divisor);
+			default:
+				throw new IllegalArgumentException("Unknown rounding mode " + rounding);
+		}
+		return awayFromZero ? quotient + sign : quotient;
+	}
+}
@@ -0,0 +1,162 @@
+package com.abc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Eddy Brown
+ *
+ * The default ledger: every transaction is kept as a {@link Transaction} object in one list in the order
+ * it was made (for auditing) and is also indexed against the accounts it touches, so an account's history
+ * can be found without scanning the whole ledger.
+ *
+ */
+class ObjectLedger implements Ledger {
+
+	/*
+	 * List of the transactions, in the order they were made
+	 */
+	private final List<Transaction> transactionList = new ArrayList<Transaction>();
+
+	/*
+	 * The transactions of each account, kept up to date as transactions are added.
+	 * Each account's list is only changed while holding that account's lock (in concurrent mode).
+	 */
+	private final Map<Account, List<Transaction>> accountIndex = new ConcurrentHashMap<Account, List<Transaction>>();
+
+	@Override
+	public void add(long amount, Account fromAccount, Account toAccount, long time, boolean concurrent) {
+		Transaction transaction = new Transaction(amount, fromAccount, toAccount, time);
+		record(transaction, concurrent);
+		index(fromAccount, transaction);
+
+		// A transfer to the same account only appears once in its history
+		if (toAccount != fromAccount)
+			index(toAccount, transaction);
+	}
+
+	@Override
+	public void addInterest(long amount, Account account, long time, boolean concurrent) {
+		Transaction transaction = new Transaction(amount, null, account, time, Transaction.INTEREST);
+		record(transaction, concurrent);
+		index(account, transaction);
+	}
+
+	@Override
+	public int record(long amount, Account fromAccount, Account toAccount, long time) {
+		synchronized (transactionList) {
+			transactionList.add(new Transaction(amount, fromAccount, toAccount, time));
+			return transactionList.size() - 1;
+		}
+	}
+
+	@Override
+	public void index(Account account, int position) {
+		Transaction transaction;
+		synchronized (transactionList) {
+			transaction = transactionList.get(position);
+		}
+		index(account, transaction);
+	}
+
+	@Override
+	public List<Transaction> getTransactions(Account account, boolean concurrent) {
+		List<Transaction> accountTransactions = accountIndex.get(account);
+		if (accountTransactions == null)
+			return Collections.emptyList();
+		if (!concurrent)
+			return Collections.unmodifiableList(accountTransactions);
+		return Collections.unmodifiableList(new ArrayList<Transaction>(accountTransactions));
+	}
+
+	@Override
+	public int count(Account account) {
+		List<Transaction> accountTransactions = accountIndex.get(account);
+		return accountTransactions == null ? 0 : accountTransactions.size();
+	}
+
+	@Override
+	public int indexOf(Account account, long time) {
+		List<Transaction> accountTransactions = accountIndex.get(account);
+		return accountTransactions == null ? 0 : indexOf(accountTransactions, time);
+	}
+
+	@Override
+	public List<Transaction> getTransactions(Account account, int fromIndex, int toIndex, boolean concurrent) {
+		List<Transaction> accountTransactions = accountIndex.get(account);
+		if (accountTransactions == null || fromIndex >= toIndex)
+			return Collections.emptyList();
+		return Collections.unmodifiableList(new ArrayList<Transaction>(accountTransactions.subList(fromIndex, toIndex)));
+	}
+
+	@Override
+	public void visit(Account account, int fromIndex, int toIndex, Visitor visitor) {
+		List<Transaction> accountTransactions = accountIndex.get(account);
+		if (accountTransactions == null)
+			return;
+		for (int i = fromIndex; i < toIndex; i++) {
+			Transaction t = accountTransactions.get(i);
+			visitor.posting(t.getDirection(account), t.getAmount(), t.getCounterparty(account));
+		}
+	}
+
+	@Override
+	public int size() {
+		synchronized (transactionList) {
+			return transactionList.size();
+		}
+	}
+
+	/**
+	 * Adds the transaction to the audit list. This is the only step shared by every account,
+	 * so it is kept as short as possible.
+	 */
+	private void record(Transaction transaction, boolean concurrent) {
+		if (!concurrent) {
+			transactionList.add(transaction);
+			return;
+		}
+		synchronized (transactionList) {
+			transactionList.add(transaction);
+		}
+	}
+
+	/**
+	 * Records the transaction against the account's history
+	 * @param account		The account, ignored if null (deposits and withdrawals only have one account)
+	 * @param transaction	The transaction to record
+	 */
+	private void index(Account account, Transaction transaction) {
+		if (account == null)
+			return;
+		List<Transaction> accountTransactions = accountIndex.get(account);
+		if (accountTransactions == null)
+			accountTransactions = accountIndex.computeIfAbsent(account, key -> new ArrayList<Transaction>());
+
+		// Almost always the newest, but keep the history in time order if the clock went back
+		int last = accountTransactions.size() - 1;
+		if (last >= 0 && accountTransactions.get(last).getTime() > transaction.getTime())
+			accountTransactions.add(indexOf(accountTransactions, transaction.getTime() + 1), transaction);
+		else
+			accountTransactions.add(transaction);
+	}
+
+	/**
+	 * Binary search for the first transaction made at or after the time
+	 */
+	private static int indexOf(List<Transaction> accountTransactions, long time) {
+		int low = 0;
+		int high = accountTransactions.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (accountTransactions.get(middle).getTime() < time)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+}
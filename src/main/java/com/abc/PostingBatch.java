@@ -0,0 +1,213 @@
+package com.abc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Eddy Brown
+ *
+ * A batch of postings to be made together, e.g. from a payroll or direct debit file, and the outcome of
+ * each one once the batch has been posted with {@link Transactions#add(PostingBatch)}.
+ * Items are numbered in the order they are added; amounts are in cents.
+ *
+ */
+class PostingBatch {
+
+	/**
+	 * What happened to an item of the batch
+	 */
+	enum Outcome {
+		/*
+		 * Not posted yet
+		 */
+		PENDING,
+		/*
+		 * Posted
+		 */
+		ACCEPTED,
+		/*
+		 * Refused because the account paying couldn't cover it
+		 */
+		INSUFFICIENT_FUNDS,
+		/*
+		 * Refused because it isn't a posting at all: a negative amount, or no account on either side
+		 */
+		INVALID
+	}
+
+	private long[] amounts;
+	private Account[] fromAccounts;
+	private Account[] toAccounts;
+	private Outcome[] outcomes;
+	private int size;
+
+	PostingBatch() {
+		this(16);
+	}
+
+	/**
+	 * @param capacity	How many items are expected
+	 */
+	PostingBatch(int capacity) {
+		capacity = Math.max(capacity, 1);
+		amounts = new long[capacity];
+		fromAccounts = new Account[capacity];
+		toAccounts = new Account[capacity];
+		outcomes = new Outcome[capacity];
+	}
+
+	/**
+	 * Adds an item to the batch
+	 * @param amount		In cents
+	 * @param fromAccount	The account paying, or null for a deposit
+	 * @param toAccount		The account paid, or null for a withdrawal
+	 * @return int			The item's number in the batch
+	 */
+	int add(long amount, Account fromAccount, Account toAccount) {
+		if (size == amounts.length) {
+			int capacity = size * 2;
+			amounts = Arrays.copyOf(amounts, capacity);
+			fromAccounts = Arrays.copyOf(fromAccounts, capacity);
+			toAccounts = Arrays.copyOf(toAccounts, capacity);
+			outcomes = Arrays.copyOf(outcomes, capacity);
+		}
+		amounts[size] = amount;
+		fromAccounts[size] = fromAccount;
+		toAccounts[size] = toAccount;
+		outcomes[size] = Outcome.PENDING;
+		return size++;
+	}
+
+	/**
+	 * @return int	The number of items in the batch
+	 */
+	int size() {
+		return size;
+	}
+
+	long getAmount(int item) {
+		return amounts[item];
+	}
+
+	Account getFromAccount(int item) {
+		return fromAccounts[item];
+	}
+
+	Account getToAccount(int item) {
+		return toAccounts[item];
+	}
+
+	/**
+	 * @param item
+	 * @return Outcome	What happened to the item, PENDING until the batch is posted
+	 */
+	Outcome getOutcome(int item) {
+		if (item < 0 || item >= size)
+			throw new IndexOutOfBoundsException("Item: " + item + ", Size: " + size);
+		return outcomes[item];
+	}
+
+	/**
+	 * @param item
+	 * @return boolean	True if the item was posted
+	 */
+	boolean isAccepted(int item) {
+		return getOutcome(item) == Outcome.ACCEPTED;
+	}
+
+	/**
+	 * @return int	The number of items that were posted
+	 */
+	int acceptedCount() {
+		int accepted = 0;
+		for (int i = 0; i < size; i++) {
+			if (outcomes[i] == Outcome.ACCEPTED)
+				accepted++;
+		}
+		return accepted;
+	}
+
+	void setOutcome(int item, Outcome outcome) {
+		outcomes[item] = outcome;
+	}
+
+	/**
+	 * Splits the batch into groups of items that share no accounts with any other group, so each group
+	 * can be posted on its own (and at the same time as the others). The accounts are joined with union-find,
+	 * so items linked through any shared account end up together: if every item has the same payer, the
+	 * whole batch is one group.
+	 * @return List<int[]>	The item numbers of each group, in batch order
+	 */
+	List<int[]> groups() {
+
+		// Union-find over the accounts, each item joining its two accounts
+		Map<Account, Integer> ids = new IdentityHashMap<Account, Integer>();
+		int[] parent = new int[2 * size + 1];
+		int[] itemAccount = new int[size];
+		for (int i = 0; i < size; i++) {
+			int from = id(ids, parent, fromAccounts[i]);
+			int to = id(ids, parent, toAccounts[i]);
+			if (from < 0 && to < 0) {
+				itemAccount[i] = -1;
+				continue;
+			}
+			if (from >= 0 && to >= 0)
+				parent[find(parent, from)] = find(parent, to);
+			itemAccount[i] = from >= 0 ? from : to;
+		}
+
+		// Collect the items by the root of their accounts
+		int[] groupOf = new int[ids.size()];
+		Arrays.fill(groupOf, -1);
+		List<int[]> groups = new ArrayList<int[]>();
+		int[] counts = new int[size];
+		int[] itemGroup = new int[size];
+		for (int i = 0; i < size; i++) {
+			int group;
+			if (itemAccount[i] < 0) {
+				group = groups.size();
+				groups.add(null);
+			} else {
+				int root = find(parent, itemAccount[i]);
+				if (groupOf[root] < 0) {
+					groupOf[root] = groups.size();
+					groups.add(null);
+				}
+				group = groupOf[root];
+			}
+			itemGroup[i] = group;
+			counts[group]++;
+		}
+		for (int g = 0; g < groups.size(); g++)
+			groups.set(g, new int[counts[g]]);
+		Arrays.fill(counts, 0);
+		for (int i = 0; i < size; i++) {
+			int group = itemGroup[i];
+			groups.get(group)[counts[group]++] = i;
+		}
+		return groups;
+	}
+
+	private static int id(Map<Account, Integer> ids, int[] parent, Account account) {
+		if (account == null)
+			return -1;
+		Integer id = ids.get(account);
+		if (id == null) {
+			id = ids.size();
+			ids.put(account, id);
+			parent[id] = id;
+		}
+		return id;
+	}
+
+	private static int find(int[] parent, int id) {
+		while (parent[id] != id) {
+			parent[id] = parent[parent[id]];
+			id = parent[id];
+		}
+		return id;
+	}
+}
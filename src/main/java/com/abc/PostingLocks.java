@@ -0,0 +1,122 @@
+package com.abc;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Eddy Brown
+ *
+ * A fixed set of locks shared out between accounts (lock striping).
+ * Each account always maps to the same lock, so two postings touching different accounts usually take
+ * different locks and run in parallel, while two postings touching the same account take turns.
+ * When a posting needs two accounts the locks are always taken lowest stripe first, so two transfers
+ * going opposite ways between the same accounts can never deadlock.
+ *
+ */
+class PostingLocks {
+
+	/*
+	 * Default number of locks, must be a power of two
+	 */
+	static final int DEFAULT_STRIPES = 1024;
+
+	private final ReentrantLock[] stripes;
+
+	PostingLocks() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param stripes	Number of locks, must be a power of two
+	 */
+	PostingLocks(int stripes) {
+		if (stripes <= 0 || Integer.bitCount(stripes) != 1)
+			throw new IllegalArgumentException("Number of stripes must be a power of two");
+		this.stripes = new ReentrantLock[stripes];
+		for (int i = 0; i < stripes; i++)
+			this.stripes[i] = new ReentrantLock();
+	}
+
+	/**
+	 * Locks the stripes of both accounts, in a fixed order
+	 * @param first		An account, or null
+	 * @param second	Another account, or null
+	 */
+	void lock(Account first, Account second) {
+		int a = stripe(first);
+		int b = stripe(second);
+		if (a > b) {
+			int swap = a;
+			a = b;
+			b = swap;
+		}
+		if (a >= 0)
+			stripes[a].lock();
+		if (b >= 0 && b != a)
+			stripes[b].lock();
+	}
+
+	/**
+	 * Releases the locks taken by {@link #lock(Account, Account)} for the same accounts
+	 * @param first
+	 * @param second
+	 */
+	void unlock(Account first, Account second) {
+		int a = stripe(first);
+		int b = stripe(second);
+		if (b >= 0 && b != a)
+			stripes[b].unlock();
+		if (a >= 0)
+			stripes[a].unlock();
+	}
+
+	/**
+	 * Finds the locks needed to post to a set of accounts at once
+	 * @param accounts
+	 * @param count		How many of the accounts to use
+	 * @return int[]	The stripes, lowest first, each only once
+	 */
+	int[] stripes(Account[] accounts, int count) {
+		int[] needed = new int[count];
+		for (int i = 0; i < count; i++)
+			needed[i] = stripe(accounts[i]);
+		Arrays.sort(needed);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (needed[i] >= 0 && (distinct == 0 || needed[distinct - 1] != needed[i]))
+				needed[distinct++] = needed[i];
+		}
+		return Arrays.copyOf(needed, distinct);
+	}
+
+	/**
+	 * Locks a set of stripes found by {@link #stripes(Account[], int)}. Taking them lowest first keeps to the same
+	 * order as {@link #lock(Account, Account)}, so batches and single postings can't deadlock each other.
+	 * @param needed
+	 */
+	void lock(int[] needed) {
+		for (int stripe : needed)
+			stripes[stripe].lock();
+	}
+
+	/**
+	 * Releases the locks taken by {@link #lock(int[])}
+	 * @param needed
+	 */
+	void unlock(int[] needed) {
+		for (int i = needed.length - 1; i >= 0; i--)
+			stripes[needed[i]].unlock();
+	}
+
+	/**
+	 * Finds which lock an account uses
+	 * @param account
+	 * @return int	Index of the lock, or -1 for a null account
+	 */
+	int stripe(Account account) {
+		if (account == null)
+			return -1;
+		int h = account.getAccountNumber() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (stripes.length - 1);
+	}
+}
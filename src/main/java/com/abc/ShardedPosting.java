@@ -0,0 +1,414 @@
+package com.abc;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Eddy Brown
+ *
+ * A posting engine without account locks, in the style of the LMAX Disruptor. Accounts are split into
+ * shards by account number, and each shard has one thread that makes every change to its accounts:
+ * balances, withdrawals, histories and journal sequences are only ever written by that thread, so
+ * nothing about an account is contended.
+ *
+ * Postings reach a shard through its ring buffer, an array of reusable entries that any number of
+ * threads claim in turn (one atomic increment) and that the shard's thread works through in order,
+ * many at a time. The thread that made the posting waits until the shard has dealt with it.
+ *
+ * A transfer between accounts on different shards is made in two steps. The paying shard checks the
+ * funds, journals the transfer, takes the money out and records it (reserve), then hands the rest to
+ * the receiving shard, which puts the money in and adds it to that account's history (credit). Credits
+ * can't fail and never wait for space: they go on a separate unbounded queue that a shard empties before
+ * taking anything new from its ring, so two shards passing work to each other can never deadlock. While
+ * a transfer is between the two steps its money is in neither account.
+ *
+ * Each shard holds its own lock while it works through a run of entries. Reading an account's history
+ * takes the same lock (see {@link #lock(Account)}), as does copying an account for a snapshot, which only
+ * stops one shard at a time.
+ *
+ */
+class ShardedPosting implements Closeable {
+
+	/*
+	 * Shards used unless told otherwise, and entries in each ring. Both must be powers of two.
+	 */
+	static final int DEFAULT_SHARDS = 4;
+	static final int RING_SIZE = 1024;
+
+	/*
+	 * Times to look for more work before going to sleep
+	 */
+	private static final int SPINS = 64;
+
+	/*
+	 * The most entries worked through under one hold of the shard's lock
+	 */
+	private static final int MAX_RUN = 256;
+
+	private final Transactions transactions;
+	private final Shard[] shards;
+	private final int mask;
+
+	/*
+	 * Each posting thread waits on its own completion, used again for its next posting
+	 */
+	private final ThreadLocal<Completion> completions = ThreadLocal.withInitial(Completion::new);
+
+	/**
+	 * Starts one thread per shard
+	 * @param transactions	Makes the postings
+	 * @param shardCount	A power of two
+	 */
+	ShardedPosting(Transactions transactions, int shardCount) {
+		if (shardCount <= 0 || Integer.bitCount(shardCount) != 1)
+			throw new IllegalArgumentException("Number of shards must be a power of two");
+		this.transactions = transactions;
+		this.mask = shardCount - 1;
+		this.shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++)
+			shards[i] = new Shard(i);
+		for (Shard shard : shards)
+			shard.thread.start();
+	}
+
+	/**
+	 * @return int	The number of shards
+	 */
+	int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @param account
+	 * @return int		The shard the account belongs to
+	 */
+	int shardOf(Account account) {
+		return shardOf(account.getAccountNumber(), mask + 1);
+	}
+
+	/**
+	 * @param accountNumber
+	 * @param shardCount	A power of two
+	 * @return int			The shard an account with this number belongs to
+	 */
+	static int shardOf(int accountNumber, int shardCount) {
+		int h = accountNumber * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (shardCount - 1);
+	}
+
+	/**
+	 * Makes a posting on the shards of its accounts and waits for it to be done
+	 * @param amount		In cents
+	 * @param fromAccount	The account paying, or null
+	 * @param toAccount		The account paid, or null
+	 * @param time			When a replayed posting was made
+	 * @param replaying		True if the posting is being replayed from a journal
+	 * @param key			The idempotency key, or null
+	 * @return Outcome		Whether the posting was made or why it was refused
+	 */
+	PostingBatch.Outcome post(long amount, Account fromAccount, Account toAccount, long time, boolean replaying, String key) {
+		Account owner = fromAccount != null ? fromAccount : toAccount;
+		Shard shard = owner == null ? shards[0] : shards[shardOf(owner)];
+		Completion done = completions.get();
+		done.reset(toAccount == null || fromAccount == null || fromAccount == toAccount ? null : shards[shardOf(toAccount)]);
+		if (done.target == shard)
+			done.target = null;
+		shard.publish(amount, fromAccount, toAccount, time, replaying, key, done);
+		return done.await();
+	}
+
+	/**
+	 * Stops the account's shard once it has finished what it is doing, until {@link #unlock(Account)}
+	 * @param account
+	 */
+	void lock(Account account) {
+		shards[shardOf(account)].lock.lock();
+	}
+
+	/**
+	 * Lets the account's shard carry on after {@link #lock(Account)}
+	 * @param account
+	 */
+	void unlock(Account account) {
+		shards[shardOf(account)].lock.unlock();
+	}
+
+	/**
+	 * Stops the shard threads once they have finished the postings already given to them
+	 */
+	@Override
+	public void close() {
+		for (Shard shard : shards) {
+			shard.running = false;
+			LockSupport.unpark(shard.thread);
+		}
+		for (Shard shard : shards) {
+			try {
+				shard.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/*
+	 * One posting in a ring
+	 */
+	private static final class Entry {
+		long amount;
+		Account from;
+		Account to;
+		long time;
+		boolean replaying;
+		String key;
+		Completion done;
+	}
+
+	/**
+	 * The second half of a transfer between shards, filled in by the paying shard
+	 * (see {@link Transactions#reserve}) for the receiving shard to finish
+	 */
+	static class Transfer {
+		long amount;
+		Account to;
+
+		/*
+		 * Where the transfer is in the ledger, and the journal record to note against the account paid (0 for none)
+		 */
+		int position;
+		long sequence;
+
+		/*
+		 * The consistent cut the transfer was made under, see {@link Transactions#startCut()}
+		 */
+		int cut;
+	}
+
+	/*
+	 * How a posting thread finds out that its posting is done
+	 */
+	private static final class Completion extends Transfer {
+		final Thread owner = Thread.currentThread();
+		volatile PostingBatch.Outcome outcome;
+		volatile boolean waiting;
+		RuntimeException failure;
+
+		/*
+		 * The shard of the account paid, if that isn't the shard of the account paying
+		 */
+		Shard target;
+
+		void reset(Shard target) {
+			this.target = target;
+			failure = null;
+			outcome = null;
+		}
+
+		void complete(PostingBatch.Outcome outcome) {
+			this.outcome = outcome;
+			if (waiting)
+				LockSupport.unpark(owner);
+		}
+
+		void fail(RuntimeException failure) {
+			this.failure = failure;
+			complete(PostingBatch.Outcome.INVALID);
+		}
+
+		PostingBatch.Outcome await() {
+			PostingBatch.Outcome result;
+			for (int i = 0; i < SPINS && outcome == null; i++)
+				Thread.yield();
+			waiting = true;
+			while ((result = outcome) == null)
+				LockSupport.park(this);
+			waiting = false;
+			if (failure != null)
+				throw failure;
+			return result;
+		}
+	}
+
+	private final class Shard implements Runnable {
+		final Entry[] entries = new Entry[RING_SIZE];
+
+		/*
+		 * For each entry, the sequence number last published in it
+		 */
+		final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+
+		/*
+		 * The next sequence number to claim, and the last one the shard has dealt with
+		 */
+		final AtomicLong claimed = new AtomicLong();
+		final AtomicLong consumed = new AtomicLong(-1);
+
+		/*
+		 * Second halves of transfers from other shards
+		 */
+		final Queue<Completion> credits = new ConcurrentLinkedQueue<Completion>();
+
+		final ReentrantLock lock = new ReentrantLock();
+		final Thread thread;
+		volatile boolean running = true;
+		volatile boolean sleeping;
+
+		Shard(int index) {
+			for (int i = 0; i < RING_SIZE; i++) {
+				entries[i] = new Entry();
+				published.set(i, -1);
+			}
+			thread = new Thread(this, "posting-shard-" + index);
+			thread.setDaemon(true);
+		}
+
+		/**
+		 * Claims the next entry, waiting for room if the ring is full, and hands it to the shard's thread
+		 */
+		void publish(long amount, Account from, Account to, long time, boolean replaying, String key, Completion done) {
+			long sequence = claimed.getAndIncrement();
+			while (sequence - consumed.get() > RING_SIZE) {
+				wake();
+				Thread.yield();
+			}
+			Entry entry = entries[(int) sequence & (RING_SIZE - 1)];
+			entry.amount = amount;
+			entry.from = from;
+			entry.to = to;
+			entry.time = time;
+			entry.replaying = replaying;
+			entry.key = key;
+			entry.done = done;
+			published.set((int) sequence & (RING_SIZE - 1), sequence);
+			wake();
+		}
+
+		void send(Completion done) {
+			credits.add(done);
+			wake();
+		}
+
+		void wake() {
+			if (sleeping)
+				LockSupport.unpark(thread);
+		}
+
+		boolean hasWork() {
+			long next = consumed.get() + 1;
+			return !credits.isEmpty() || published.get((int) next & (RING_SIZE - 1)) == next;
+		}
+
+		@Override
+		public void run() {
+			while (running || hasWork()) {
+				if (!work())
+					sleep();
+			}
+		}
+
+		/**
+		 * Deals with any credits waiting, then a run of entries from the ring
+		 * @return boolean	False if there was nothing to do
+		 */
+		private boolean work() {
+			boolean worked = false;
+			lock.lock();
+			try {
+				worked = credit();
+
+				long next = consumed.get() + 1;
+				long end = next + MAX_RUN;
+				while (next < end && published.get((int) next & (RING_SIZE - 1)) == next) {
+					handle(entries[(int) next & (RING_SIZE - 1)]);
+					next++;
+					worked = true;
+				}
+				consumed.set(next - 1);
+			} finally {
+				lock.unlock();
+			}
+			return worked;
+		}
+
+		/**
+		 * Finishes the transfers from other shards waiting to be credited. Called holding the shard's lock.
+		 * @return boolean	False if there were none
+		 */
+		boolean credit() {
+			boolean credited = false;
+			Completion credit;
+			while ((credit = credits.poll()) != null) {
+				try {
+					transactions.credit(credit);
+					credit.complete(PostingBatch.Outcome.ACCEPTED);
+				} catch (RuntimeException e) {
+					credit.fail(e);
+				}
+				credited = true;
+			}
+			return credited;
+		}
+
+		/**
+		 * Makes a posting, or the first half of a transfer to another shard. A posting with an idempotency key
+		 * that was already made gets its first outcome back, and a transfer's outcome is remembered as soon as
+		 * it is reserved. A failure (e.g. the journal can't be written) is passed back to the posting thread
+		 * rather than stopping the shard.
+		 */
+		private void handle(Entry entry) {
+			Completion done = entry.done;
+			String key = entry.key;
+			try {
+				PostingBatch.Outcome outcome = key == null ? null : transactions.remembered(key, entry.from, entry.to, entry.amount);
+				if (outcome != null) {
+					done.complete(outcome);
+					return;
+				}
+				IdempotencyCache.Claim claim = key == null ? null : transactions.claim(key, entry.from, entry.to, entry.amount);
+				try {
+					if (done.target == null) {
+						outcome = transactions.post(entry.amount, entry.from, entry.to, entry.time, entry.replaying);
+					} else {
+						done.amount = entry.amount;
+						done.to = entry.to;
+						outcome = transactions.reserve(done, entry.from, entry.time, entry.replaying);
+					}
+				} catch (RuntimeException e) {
+					if (key != null)
+						transactions.forget(claim);
+					throw e;
+				}
+				if (key != null)
+					transactions.remember(claim, outcome);
+				if (done.target != null && outcome == PostingBatch.Outcome.ACCEPTED)
+					done.target.send(done);
+				else
+					done.complete(outcome);
+			} catch (RuntimeException e) {
+				done.fail(e);
+			} finally {
+				entry.from = null;
+				entry.to = null;
+				entry.key = null;
+				entry.done = null;
+			}
+		}
+
+		private void sleep() {
+			for (int i = 0; i < SPINS; i++) {
+				if (hasWork())
+					return;
+			}
+			sleeping = true;
+			if (running && !hasWork())
+				LockSupport.park(this);
+			sleeping = false;
+		}
+	}
+}
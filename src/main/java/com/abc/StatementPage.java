@@ -0,0 +1,231 @@
+package com.abc;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * @author Eddy Brown
+ *
+ * One page of an account's statement for a period: the formatted lines of a run of its transactions,
+ * the balance brought forward from before the page and carried forward after it, and a cursor to pass
+ * back for the next page. A statement of any length can be sent to a client page by page, with only
+ * one page ever held in memory.
+ *
+ * The cursor is an opaque string holding where the next page starts and the balance at that point,
+ * so each page after the first costs only its own transactions. It is signed with a key only this
+ * process knows, so a client can't change the balance it carries, and it only fits the account and
+ * period it was made for. Like the position it holds, a cursor doesn't outlive a restart.
+ *
+ * The first page of a period works out the balance brought forward backwards from the account's
+ * balance, taking off the transactions made since the period started. The history before the period
+ * isn't needed, so this holds even when the history only goes back to a restart (see {@link BankSnapshot}).
+ *
+ */
+class StatementPage {
+
+	/*
+	 * Lines to make room for at first, however large the limit
+	 */
+	private static final int INITIAL_LINES = 4096;
+
+	/*
+	 * Account number, period start and end, next position and balance, then the signature
+	 */
+	private static final int SIGNED_BYTES = 4 + 8 + 8 + 8 + 8;
+	private static final int SIGNATURE_BYTES = 16;
+	private static final int CURSOR_BYTES = SIGNED_BYTES + SIGNATURE_BYTES;
+
+	/*
+	 * Cursors are signed with HMAC-SHA256, under a key made when the class is first used
+	 */
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final SecretKeySpec KEY = newKey();
+	private static final ThreadLocal<Mac> MACS = ThreadLocal.withInitial(StatementPage::newMac);
+
+	private final List<String> lines;
+	private final long broughtForward;
+	private final long carriedForward;
+	private final String cursor;
+
+	private StatementPage(List<String> lines, long broughtForward, long carriedForward, String cursor) {
+		this.lines = lines;
+		this.broughtForward = broughtForward;
+		this.carriedForward = carriedForward;
+		this.cursor = cursor;
+	}
+
+	/**
+	 * Reads one page of an account's statement
+	 * @param account
+	 * @param from		Start of the period, inclusive, in milliseconds since the epoch
+	 * @param to		End of the period, exclusive
+	 * @param cursor	Null for the first page, or the cursor of the previous page
+	 * @param limit		The most transactions on the page. A transfer to the account itself has two lines.
+	 * @return StatementPage
+	 * @throws IllegalArgumentException	If the cursor is malformed or was made for another account or period
+	 */
+	static StatementPage read(Account account, long from, long to, String cursor, int limit) {
+		if (limit <= 0)
+			throw new IllegalArgumentException("Limit must be positive");
+		Metrics metrics = account.getCustomer().getBank().getContext().getMetrics();
+		long start = metrics.start();
+
+		long position;
+		long balance;
+		if (cursor == null) {
+			position = TransactionPage.FIRST;
+			balance = balanceBefore(account, from);
+		} else {
+			ByteBuffer decoded = decode(cursor);
+			if (decoded.getInt() != account.getAccountNumber() || decoded.getLong() != from || decoded.getLong() != to)
+				throw new IllegalArgumentException("Cursor is for another account or period");
+			position = decoded.getLong();
+			balance = decoded.getLong();
+		}
+
+		Lines page = new Lines(balance, new ArrayList<String>(Math.min(limit, INITIAL_LINES)));
+		long next = account.visitTransactions(from, to, position, limit, page);
+		String nextCursor = next >= 0 ? encode(account.getAccountNumber(), from, to, next, page.balance) : null;
+		metrics.end(Metrics.Operation.STATEMENT, start);
+		return new StatementPage(Collections.unmodifiableList(page.lines), balance, page.balance, nextCursor);
+	}
+
+	/**
+	 * Works out the account's balance at a time from its balance now and the transactions made since
+	 * @return long		The balance at that time, in cents
+	 */
+	private static long balanceBefore(Account account, long time) {
+		Lines since = new Lines(0, null);
+		long balance = account.visitTransactionsSince(time, since);
+		return balance - since.balance;
+	}
+
+	/*
+	 * Keeps the running balance and, if given a list, the lines of each transaction visited
+	 */
+	private static final class Lines implements Ledger.Visitor {
+		final List<String> lines;
+		final StringBuilder line = new StringBuilder(64);
+		long balance;
+
+		Lines(long balance, List<String> lines) {
+			this.balance = balance;
+			this.lines = lines;
+		}
+
+		@Override
+		public void posting(int direction, long amount, Account counterparty) {
+			if (direction == Transaction.DEPOSIT || direction == Transaction.INTEREST || direction == Transaction.RECEIVED)
+				balance += amount;
+			else if (direction == Transaction.WITHDRAWAL || direction == Transaction.SENT)
+				balance -= amount;
+			if (lines == null)
+				return;
+
+			// Each line as the statement has it, without its indent and newline
+			line.setLength(0);
+			StatementWriter.appendPosting(line, direction, amount, counterparty);
+			int start = 0;
+			for (int end = line.indexOf("\n"); end >= 0; end = line.indexOf("\n", start)) {
+				lines.add(line.substring(start + 2, end));
+				start = end + 1;
+			}
+		}
+	}
+
+	private static String encode(int accountNumber, long from, long to, long position, long balance) {
+		ByteBuffer bytes = ByteBuffer.allocate(CURSOR_BYTES);
+		bytes.putInt(accountNumber).putLong(from).putLong(to).putLong(position).putLong(balance);
+		bytes.put(sign(bytes.array()), 0, SIGNATURE_BYTES);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array());
+	}
+
+	/**
+	 * @return ByteBuffer	The signed part of the cursor
+	 * @throws IllegalArgumentException	If the cursor is malformed or wasn't made by this process
+	 */
+	private static ByteBuffer decode(String cursor) {
+		byte[] bytes;
+		try {
+			bytes = Base64.getUrlDecoder().decode(cursor);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid cursor", e);
+		}
+		if (bytes.length != CURSOR_BYTES)
+			throw new IllegalArgumentException("Invalid cursor");
+		byte[] signature = Arrays.copyOf(sign(bytes), SIGNATURE_BYTES);
+		if (!MessageDigest.isEqual(signature, Arrays.copyOfRange(bytes, SIGNED_BYTES, CURSOR_BYTES)))
+			throw new IllegalArgumentException("Invalid cursor");
+		return ByteBuffer.wrap(bytes, 0, SIGNED_BYTES);
+	}
+
+	/**
+	 * @return byte[]	The signature of the signed part of a cursor
+	 */
+	private static byte[] sign(byte[] cursor) {
+		Mac mac = MACS.get();
+		mac.update(cursor, 0, SIGNED_BYTES);
+		return mac.doFinal();
+	}
+
+	private static SecretKeySpec newKey() {
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		return new SecretKeySpec(key, MAC_ALGORITHM);
+	}
+
+	private static Mac newMac() {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(KEY);
+			return mac;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Cursors can't be signed", e);
+		}
+	}
+
+	/**
+	 * @return List<String>	The lines of the page, oldest first, e.g. "deposit: $1.00"
+	 */
+	List<String> getLines() {
+		return lines;
+	}
+
+	/**
+	 * @return long		The account's balance before the first transaction on the page, in cents
+	 */
+	long getBalanceBroughtForward() {
+		return broughtForward;
+	}
+
+	/**
+	 * @return long		The account's balance after the last transaction on the page, in cents
+	 */
+	long getBalanceCarriedForward() {
+		return carriedForward;
+	}
+
+	/**
+	 * @return String	The cursor of the next page, or null if this is the last page of the period
+	 */
+	String getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * @return boolean	True if the period has more transactions after this page
+	 */
+	boolean hasMore() {
+		return cursor != null;
+	}
+}
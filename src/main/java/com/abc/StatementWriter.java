@@ -0,0 +1,157 @@
+package com.abc;
+
+import java.io.IOException;
+
+/**
+ * @author Eddy Brown
+ *
+ * Writes customer statements a line at a time to any Appendable (a Writer, a StringBuilder, ...).
+ * Lines are built in one reusable buffer and handed on whenever it fills up, so a statement with
+ * millions of transactions is written in a single pass without ever being held in memory as a whole.
+ *
+ * The ledger hands over each transaction's direction, amount and other account as it was classified
+ * when posted (see {@link Ledger#visit}), so writing a line is one switch and a few appends, and the
+ * other account's name and number come ready made from its label.
+ *
+ */
+class StatementWriter implements Ledger.Visitor {
+
+	/*
+	 * How much text to collect before passing it on
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/*
+	 * Transactions taken from the ledger at a time, in between which the buffer is passed on
+	 */
+	private static final int CHUNK_SIZE = 128;
+
+	private final Appendable out;
+
+	/*
+	 * The line buffer. If we are writing into a StringBuilder we can build the lines in it directly.
+	 */
+	private final StringBuilder buffer;
+
+	/**
+	 * @param out	Where the statement is written
+	 */
+	StatementWriter(Appendable out) {
+		this.out = out;
+		if (out instanceof StringBuilder)
+			buffer = (StringBuilder) out;
+		else
+			buffer = new StringBuilder(BUFFER_SIZE + 256);
+	}
+
+	/**
+	 * Writes the statement of all the customer's accounts
+	 * @param customer
+	 * @throws IOException	If the output can't be written to
+	 */
+	void writeStatement(Customer customer) throws IOException {
+		buffer.append("Statement for ").append(customer.getName()).append('\n');
+		long total = 0;
+		for (Account a : customer.getAccounts()) {
+			buffer.append('\n');
+			writeAccount(a);
+			buffer.append('\n');
+			total += a.getBalance();
+		}
+		buffer.append("\nTotal In All Accounts ");
+		Money.appendDollars(buffer, total);
+		flush();
+	}
+
+	/**
+	 * Writes the statement of one account: its type, every transaction and its balance
+	 * @param a		The account
+	 * @throws IOException
+	 */
+	void writeAccount(Account a) throws IOException {
+
+		// Translate to pretty account type
+		buffer.append(a.getProduct().getStatementTitle());
+
+		// Go through all transactions related to the account, a chunk at a time
+		long cursor = TransactionPage.FIRST;
+		do {
+			cursor = a.visitTransactions(Long.MIN_VALUE, Long.MAX_VALUE, cursor, CHUNK_SIZE, this);
+			if (buffer != out && buffer.length() >= BUFFER_SIZE)
+				flush();
+		} while (cursor >= 0);
+		buffer.append("Total ");
+		Money.appendDollars(buffer, a.getBalance());
+	}
+
+	/**
+	 * Writes the line (or lines, for a transfer to the same account) describing a transaction
+	 */
+	@Override
+	public void posting(int direction, long amount, Account counterparty) {
+		appendPosting(buffer, direction, amount, counterparty);
+	}
+
+	/**
+	 * Appends the line (or lines, for a transfer to the same account) describing a transaction, each
+	 * indented by two spaces and ended with a newline
+	 * @param buffer	Where the lines are appended
+	 * @param a			The account whose statement it is
+	 * @param t			A transaction of the account
+	 */
+	static void appendTransaction(StringBuilder buffer, Account a, Transaction t) {
+		appendPosting(buffer, t.getDirection(a), t.getAmount(), t.getCounterparty(a));
+	}
+
+	/**
+	 * Appends the line (or lines) describing a transaction as the ledger classified it
+	 * @param buffer		Where the lines are appended
+	 * @param direction		What the transaction did to the account, e.g. {@link Transaction#SENT}
+	 * @param amount		In cents
+	 * @param counterparty	The other account of a transfer
+	 */
+	static void appendPosting(StringBuilder buffer, int direction, long amount, Account counterparty) {
+		switch (direction) {
+			case Transaction.DEPOSIT:
+				buffer.append("  deposit: ");
+				Money.appendDollars(buffer, amount);
+				break;
+			case Transaction.INTEREST:
+				buffer.append("  interest: ");
+				Money.appendDollars(buffer, amount);
+				break;
+			case Transaction.WITHDRAWAL:
+				buffer.append("  withdrawal: ");
+				Money.appendDollars(buffer, amount);
+				break;
+			case Transaction.RECEIVED:
+				buffer.append("  received ");
+				Money.appendDollars(buffer, amount);
+				buffer.append(" from ").append(counterparty.getLabel());
+				break;
+			case Transaction.SENT:
+				buffer.append("  sent ");
+				Money.appendDollars(buffer, amount);
+				buffer.append(" to ").append(counterparty.getLabel());
+				break;
+			case Transaction.TO_SELF:
+				appendPosting(buffer, Transaction.RECEIVED, amount, counterparty);
+				appendPosting(buffer, Transaction.SENT, amount, counterparty);
+				return;
+			default:
+				throw new IllegalArgumentException("Unknown direction " + direction);
+		}
+		buffer.append('\n');
+	}
+
+	/**
+	 * Passes everything collected so far on to the output
+	 * @throws IOException
+	 */
+	void flush() throws IOException {
+		if (buffer == out || buffer.length() == 0)
+			return;
+		out.append(buffer);
+		buffer.setLength(0);
+	}
+}
@@ -1,6 +1,7 @@
 package com.abc;
 
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Eddy Brown
@@ -14,9 +15,9 @@ import java.util.Date;
 class Transaction {
 	
 	/*
-	 * The transaction amount
+	 * The transaction amount in cents
 	 */
-	private final double amount;
+	private final long amount;
 	
 	/*
 	 * The origin and destination accounts
@@ -25,40 +26,115 @@ class Transaction {
     private final Account fromAccount;
 
 	/*
-	 * The date of the transaction
+	 * The time of the transaction in milliseconds since the epoch
 	 */
-	private final Date transactionDate;
+	private final long time;
+	
+	/*
+	 * What the transaction does, worked out once when it is made: DEPOSIT, INTEREST, WITHDRAWAL, TO_SELF or,
+	 * for a transfer between two accounts, SENT (which is RECEIVED for the account paid)
+	 */
+	private final byte kind;
+	
+	/*
+	 * What a transaction does to one of its accounts, as it appears on the account's statement.
+	 * A transfer to the same account appears as money both received and sent. Interest paid by the bank
+	 * is money coming in like a deposit, but is shown as interest.
+	 */
+	static final int DEPOSIT = 0;
+	static final int WITHDRAWAL = 1;
+	static final int RECEIVED = 2;
+	static final int SENT = 3;
+	static final int TO_SELF = 4;
+	static final int INTEREST = 5;
 	
 	/*
 	 * Used to define when a transaction is recent enough to lower Maxi Saver interest (in days)
 	 */
-	private final int TRANSACTION_AGE_DAYS = 10;
-
-	private DateProvider dateProvider = DateProvider.getInstance();
+	static final int TRANSACTION_AGE_DAYS = 10;
     
 	/**
 	 * The transaction constructor checks that the amount being sent is greater than zero.
 	 * Since a transaction always represents funds from one place to another, original funds must
 	 * always be positive.
-	 * @param amount		Amount to be transferred
+	 * Creating a transaction doesn't move any money, the balances are updated by {@link Transactions} when it is posted.
+	 * @param amount		Amount to be transferred, in cents
 	 * @param fromAccount	From which account to take money
 	 * @param toAccount		From which account to send money
 	 * @throws Exception	An exception is thrown if the amount is less than zero
 	 */
-    Transaction(double amount, Account fromAccount, Account toAccount) throws Exception {
-    	if (amount < 0) 
-    		throw new Exception("Amount must be a positive number");
-    	else
-    		this.amount = amount;
+    Transaction(long amount, Account fromAccount, Account toAccount) throws Exception {
+    	this(amount, fromAccount, toAccount, clockOf(fromAccount, toAccount).now());
+    }
+    
+    /**
+     * Creates a transaction that happened at a given time, e.g. when replaying the journal
+     * @param amount		Amount to be transferred, in cents
+     * @param fromAccount	From which account to take money
+     * @param toAccount		From which account to send money
+     * @param date			When the transaction happened
+     * @throws Exception	An exception is thrown if the amount is less than zero
+     */
+    Transaction(long amount, Account fromAccount, Account toAccount, Date date) throws Exception {
+    	this(checkAmount(amount), fromAccount, toAccount, date.getTime());
+    }
+    
+    /**
+     * Creates a transaction without checking it, for ledgers handing back transactions that were checked when posted
+     * @param amount		Amount transferred, in cents
+     * @param fromAccount	From which account the money was taken
+     * @param toAccount		To which account the money was sent
+     * @param time			When the transaction happened, in milliseconds since the epoch
+     */
+    Transaction(long amount, Account fromAccount, Account toAccount, long time) {
+    	this(amount, fromAccount, toAccount, time, direction(fromAccount, fromAccount, toAccount));
+    }
+    
+    /**
+     * Creates a transaction of a given kind without checking it, e.g. interest paid into the account
+     * @param amount		Amount transferred, in cents
+     * @param fromAccount	From which account the money was taken
+     * @param toAccount		To which account the money was sent
+     * @param time			When the transaction happened, in milliseconds since the epoch
+     * @param kind			What the transaction does, as {@link #direction} works it out for the account paying, or INTEREST
+     */
+    Transaction(long amount, Account fromAccount, Account toAccount, long time, int kind) {
+    	this.amount = amount;
     	this.fromAccount = fromAccount;
     	this.toAccount = toAccount;
-    	this.transactionDate = dateProvider.now();
-    	
-    	if (fromAccount != null)
-    		fromAccount.updateBalance(-amount);
-    	
-    	if (toAccount != null)
-    		toAccount.updateBalance(amount);
+    	this.time = time;
+    	this.kind = (byte) kind;
+    }
+    
+    /**
+     * @return the clock of the accounts' bank context, or the default clock if there are no accounts
+     */
+    private static DateProvider clockOf(Account fromAccount, Account toAccount) {
+    	Account account = fromAccount != null ? fromAccount : toAccount;
+    	return account == null ? DateProvider.getInstance() : account.getCustomer().getBank().getContext().getClock();
+    }
+    
+    /**
+     * Works out what a transaction does to one of its accounts
+     * @param account		The from or to account of the transaction
+     * @param fromAccount	The account the amount came from, or null for a deposit
+     * @param toAccount		The account the amount went to, or null for a withdrawal
+     * @return int			DEPOSIT, WITHDRAWAL, RECEIVED, SENT or TO_SELF
+     */
+    static int direction(Account account, Account fromAccount, Account toAccount) {
+    	if (fromAccount == null)
+    		return DEPOSIT;
+    	if (toAccount == null)
+    		return WITHDRAWAL;
+    	if (fromAccount == toAccount)
+    		return TO_SELF;
+    	return account == fromAccount ? SENT : RECEIVED;
+    }
+    
+    private static long checkAmount(long amount) throws Exception {
+    	if (amount < 0) 
+    		throw new Exception("Amount must be a positive number");
+    	return amount;
     }
     
     /**
@@ -66,12 +142,20 @@ class Transaction {
      * @return
      */
     boolean IsRecentTransaction() {
-    	if (DateProvider.getInstance().dateDifference(transactionDate) <= TRANSACTION_AGE_DAYS)
+    	if (TimeUnit.MILLISECONDS.toDays(clockOf(fromAccount, toAccount).nowMillis() - time) <= TRANSACTION_AGE_DAYS)
     		return true;
     	else
     		return false;
     }
     
+    /**
+     * 
+     * @return the time of the transaction in milliseconds since the epoch
+     */
+    long getTime() {
+    	return time;
+    }
+    
     /**
      * 
      * @return the origin account
@@ -90,10 +174,26 @@ class Transaction {
 
 	/**
 	 * 
-	 * @return the transaction amount
+	 * @return the transaction amount in cents
 	 */
-	double getAmount() {
+	long getAmount() {
 		return amount;
 	}
+	
+	/**
+	 * @param account	The from or to account of the transaction
+	 * @return int		What the transaction does to the account: DEPOSIT, INTEREST, WITHDRAWAL, RECEIVED, SENT or TO_SELF
+	 */
+	int getDirection(Account account) {
+		return kind == SENT && account != fromAccount ? RECEIVED : kind;
+	}
+	
+	/**
+	 * @param account	The from or to account of the transaction
+	 * @return the other account of a transfer, the account itself for a transfer to itself, or null
+	 */
+	Account getCounterparty(Account account) {
+		return account == fromAccount ? toAccount : fromAccount;
+	}
     
 }
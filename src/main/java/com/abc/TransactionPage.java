@@ -0,0 +1,49 @@
+package com.abc;
+
+import java.util.List;
+
+/**
+ * @author Eddy Brown
+ *
+ * One page of an account's history, and the cursor to pass back to get the page after it.
+ * A cursor is a position in the account's history; pass {@link #FIRST} to start from the beginning.
+ *
+ */
+class TransactionPage {
+
+	/*
+	 * The cursor of the first page
+	 */
+	static final long FIRST = 0;
+
+	private final List<Transaction> transactions;
+	private final long nextCursor;
+	private final boolean more;
+
+	TransactionPage(List<Transaction> transactions, long nextCursor, boolean more) {
+		this.transactions = transactions;
+		this.nextCursor = nextCursor;
+		this.more = more;
+	}
+
+	/**
+	 * @return List<Transaction>	The transactions on this page, oldest first
+	 */
+	List<Transaction> getTransactions() {
+		return transactions;
+	}
+
+	/**
+	 * @return long		The cursor of the next page
+	 */
+	long getNextCursor() {
+		return nextCursor;
+	}
+
+	/**
+	 * @return boolean	True if there are more transactions after this page
+	 */
+	boolean hasMore() {
+		return more;
+	}
+}
@@ -1,72 +1,929 @@
 package com.abc;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author Eddy Brown
- * 
+ *
  * Transactions class is used to manage the transactions.
  * It performs some basic checks to make sure a transaction can take place before storing them.
  * It can also be used to get any transactions relating to an account.
+ * The transactions themselves are kept in a {@link Ledger}, either as objects or in primitive columns
+ * (see {@link Storage}), in the order they were made and indexed against the accounts they touch.
+ *
+ * By default transactions are expected to be made from one thread at a time. In concurrent mode the
+ * accounts involved are locked (see {@link PostingLocks}) while the funds are checked and moved, so
+ * many threads can post at once without losing updates or overdrawing an account. In sharded mode there
+ * are no account locks: each account belongs to a shard whose own thread makes all its postings (see
+ * {@link ShardedPosting}).
+ *
+ * If an account's bank keeps a {@link Journal}, each transaction is written to it before any balance changes.
+ *
+ * A posting can be given an idempotency key, so a client can safely retry it: the outcome of a keyed posting
+ * is kept for a while in an {@link IdempotencyCache}, and a posting with a key already used gets the same
+ * outcome back without the money moving again. Keys belong to the account paying (or for a deposit, the
+ * account paid). The key is looked up and claimed, and the outcome recorded, while the posting has that
+ * account to itself, in the same step as the funds are checked, so two tries of the same posting can't
+ * both get through however they overlap.
  *
  */
 class Transactions {
-	
+
+	/**
+	 * How transactions are stored
+	 */
+	enum Storage {
+		/*
+		 * As Transaction objects, see {@link ObjectLedger}
+		 */
+		OBJECTS,
+		/*
+		 * In columns of primitives, see {@link ColumnarLedger}
+		 */
+		COLUMNAR
+	}
+
+	/**
+	 * How transactions are protected from each other
+	 */
+	enum PostingMode {
+		/*
+		 * No locking, for when only one thread makes transactions
+		 */
+		SINGLE_THREADED,
+		/*
+		 * The accounts involved are locked for the duration of the transaction
+		 */
+		CONCURRENT,
+		/*
+		 * Each account's transactions are made by the one thread that owns its shard
+		 */
+		SHARDED
+	}
+
+	/*
+	 * Where the transactions are kept
+	 */
+	private volatile Ledger ledger = new ObjectLedger();
+	private volatile Storage storage = Storage.OBJECTS;
+
+	/*
+	 * Locks used to keep concurrent transactions on the same account apart
+	 */
+	private final PostingLocks locks = new PostingLocks();
+
+	private volatile PostingMode postingMode = PostingMode.SINGLE_THREADED;
+
+	/*
+	 * The shards and their threads, while in sharded mode
+	 */
+	private volatile ShardedPosting shards = null;
+	private int shardCount = ShardedPosting.DEFAULT_SHARDS;
+
+	/*
+	 * The number of the latest consistent cut (see {@link #startCut()}), held while a cut is being read, and how
+	 * many transfers between shards are still waiting to be credited, by the lowest bit of the cut they were made under
+	 */
+	private volatile int cut = 0;
+	private final ReentrantLock cutting = new ReentrantLock();
+	private final AtomicIntegerArray crediting = new AtomicIntegerArray(2);
+
 	/*
-	 * List of the transactions
-	 */
-	private List<Transaction> transactionList;
-	
-	private static Transactions instance = null;
-	
-    static Transactions getInstance() {
-        if (instance == null)
-            instance = new Transactions();
-        return instance;
-    }
-	
-    
-	private Transactions() {
-		transactionList = new ArrayList<Transaction>();
-	}
-	
+	 * Outcomes of postings made with idempotency keys, made the first time a key is used
+	 */
+	private volatile IdempotencyCache idempotency = null;
+
+	private final Metrics metrics;
+
+	/*
+	 * Where posting times come from
+	 */
+	private final DateProvider clock;
+
+	/**
+	 * @return the transactions of the default context, see {@link BankContext#getDefault()}
+	 */
+	static Transactions getInstance() {
+		return BankContext.getDefault().getTransactions();
+	}
+
+	/**
+	 * An empty ledger. Each {@link BankContext} makes its own.
+	 * @param clock		Where posting times come from
+	 * @param metrics	Where postings are timed and counted
+	 */
+	Transactions(DateProvider clock, Metrics metrics) {
+		this.clock = clock;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Switches between single threaded and concurrent posting. This should be done before
+	 * transactions start being made, not while they are in progress.
+	 * @param postingMode
+	 */
+	synchronized void setPostingMode(PostingMode postingMode) {
+		if (shards != null && (postingMode != PostingMode.SHARDED || shards.getShardCount() != shardCount)) {
+			shards.close();
+			shards = null;
+		}
+		if (postingMode == PostingMode.SHARDED && shards == null)
+			shards = new ShardedPosting(this, shardCount);
+		this.postingMode = postingMode;
+	}
+
+	/**
+	 * Sets the number of shards used in sharded mode, from the next time it is chosen
+	 * @param shardCount	A power of two
+	 */
+	synchronized void setShardCount(int shardCount) {
+		if (shardCount <= 0 || Integer.bitCount(shardCount) != 1)
+			throw new IllegalArgumentException("Number of shards must be a power of two");
+		this.shardCount = shardCount;
+	}
+
+	/**
+	 * Sets how many idempotency keys are remembered and for how long. Keys already used are forgotten.
+	 * Once the capacity is used up by keys still in their window, the keys nearest the end of their window
+	 * are forgotten early to make room for new ones.
+	 * @param capacity	The most keys remembered
+	 * @param window	How long a key is remembered
+	 * @param unit		The unit of the window
+	 */
+	synchronized void setIdempotencyWindow(int capacity, long window, TimeUnit unit) {
+		idempotency = new IdempotencyCache(capacity, unit.toMillis(window));
+	}
+
+	/**
+	 * @return the cache of idempotency keys, made the first time it is needed
+	 */
+	private IdempotencyCache idempotency() {
+		IdempotencyCache cache = idempotency;
+		if (cache != null)
+			return cache;
+		synchronized (this) {
+			if (idempotency == null)
+				idempotency = new IdempotencyCache(IdempotencyCache.DEFAULT_CAPACITY, IdempotencyCache.DEFAULT_WINDOW);
+			return idempotency;
+		}
+	}
+
+	/**
+	 * @return the posting mode
+	 */
+	PostingMode getPostingMode() {
+		return postingMode;
+	}
+
+	/**
+	 * Switches to a different way of storing transactions. Like the posting mode this should be done
+	 * before transactions start being made: the transactions already made are left behind in the old
+	 * storage (balances aren't affected, but the accounts' histories start again).
+	 * @param storage
+	 */
+	void setStorage(Storage storage) {
+		this.ledger = storage == Storage.COLUMNAR ? new ColumnarLedger() : new ObjectLedger();
+		this.storage = storage;
+	}
+
+	/**
+	 * @return how transactions are stored
+	 */
+	Storage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * @return int	The number of transactions made since the storage was last chosen
+	 */
+	int size() {
+		return ledger.size();
+	}
+
 	/**
 	 * Gets the transactions related to the account
 	 * @param account
-	 * @return List<Transaction>
+	 * @return List<Transaction>	A read-only view of the account's transactions, oldest first.
+	 * 								In concurrent mode this is a copy taken at the time of the call.
 	 */
-	List<Transaction>getTransactions(Account account) {
-		List<Transaction> accountTransactions = new ArrayList<Transaction>();
-			for(Transaction trans : transactionList) {
-				if (trans.getToAccount() == account || trans.getFromAccount() == account) {
-					accountTransactions.add(trans);
-				}
-			}
-		return accountTransactions;
+	List<Transaction> getTransactions(Account account) {
+		if (postingMode == PostingMode.SINGLE_THREADED)
+			return ledger.getTransactions(account, false);
+
+		// Take the history while no one can add to it
+		lock(account);
+		try {
+			return ledger.getTransactions(account, true);
+		} finally {
+			unlock(account);
+		}
+	}
+
+	/**
+	 * Gets the account's transactions made in a period, found by binary search of its history
+	 * @param account
+	 * @param from		Start of the period, inclusive, in milliseconds since the epoch
+	 * @param to		End of the period, exclusive
+	 * @return List<Transaction>	A read-only list, oldest first
+	 */
+	List<Transaction> getTransactions(Account account, long from, long to) {
+		boolean concurrent = postingMode != PostingMode.SINGLE_THREADED;
+		lock(account);
+		try {
+			return ledger.getTransactions(account, ledger.indexOf(account, from), ledger.indexOf(account, to), concurrent);
+		} finally {
+			unlock(account);
+		}
+	}
+
+	/**
+	 * Gets the account's most recent transactions
+	 * @param account
+	 * @param count		How many transactions (fewer if the account doesn't have that many)
+	 * @return List<Transaction>	A read-only list, oldest first
+	 */
+	List<Transaction> getLastTransactions(Account account, int count) {
+		boolean concurrent = postingMode != PostingMode.SINGLE_THREADED;
+		lock(account);
+		try {
+			int size = ledger.count(account);
+			return ledger.getTransactions(account, Math.max(0, size - count), size, concurrent);
+		} finally {
+			unlock(account);
+		}
 	}
-	
+
+	/**
+	 * Gets one page of the account's transactions made in a period
+	 * @param account
+	 * @param from		Start of the period, inclusive, in milliseconds since the epoch
+	 * @param to		End of the period, exclusive
+	 * @param cursor	{@link TransactionPage#FIRST}, or the cursor returned with the previous page
+	 * @param limit		The most transactions to return
+	 * @return TransactionPage
+	 */
+	TransactionPage getTransactions(Account account, long from, long to, long cursor, int limit) {
+		if (cursor < 0 || limit <= 0)
+			throw new IllegalArgumentException("Cursor must not be negative and limit must be positive");
+		boolean concurrent = postingMode != PostingMode.SINGLE_THREADED;
+		lock(account);
+		try {
+			int end = ledger.indexOf(account, to);
+			int start = (int) Math.min(Math.max(cursor, ledger.indexOf(account, from)), end);
+			int stop = (int) Math.min((long) start + limit, end);
+			return new TransactionPage(ledger.getTransactions(account, start, stop, concurrent), stop, stop < end);
+		} finally {
+			unlock(account);
+		}
+	}
+
+	/**
+	 * Goes through part of the account's transactions made in a period, without making {@link Transaction} objects
+	 * (see {@link Ledger#visit}). The account's postings wait while the visitor runs, so it shouldn't do much more
+	 * than add each transaction to a buffer.
+	 * @param account
+	 * @param from		Start of the period, inclusive, in milliseconds since the epoch
+	 * @param to		End of the period, exclusive
+	 * @param cursor	{@link TransactionPage#FIRST}, or the cursor returned by the previous call
+	 * @param limit		The most transactions to visit
+	 * @param visitor	Told about each transaction in turn
+	 * @return long		The cursor of the next transaction, or -1 if there are no more in the period
+	 */
+	long visit(Account account, long from, long to, long cursor, int limit, Ledger.Visitor visitor) {
+		if (cursor < 0 || limit <= 0)
+			throw new IllegalArgumentException("Cursor must not be negative and limit must be positive");
+		lock(account);
+		try {
+			int end = ledger.indexOf(account, to);
+			int start = (int) Math.min(Math.max(cursor, ledger.indexOf(account, from)), end);
+			int stop = (int) Math.min((long) start + limit, end);
+			ledger.visit(account, start, stop, visitor);
+			return stop < end ? stop : -1;
+		} finally {
+			unlock(account);
+		}
+	}
+
+	/**
+	 * Goes through all the account's transactions made at or after a time and reads the account's balance, both
+	 * while no one can add to its history, so the balance before the time can be worked out backwards from today's
+	 * (a history only goes back as far as the last restart, see {@link BankSnapshot}, but the balance always holds).
+	 * @param account
+	 * @param time		Milliseconds since the epoch
+	 * @param visitor	Told about each transaction in turn
+	 * @return long		The account's balance after the last transaction visited, in cents
+	 */
+	long visitSince(Account account, long time, Ledger.Visitor visitor) {
+		lock(account);
+		try {
+			ledger.visit(account, ledger.indexOf(account, time), ledger.count(account), visitor);
+			return account.getBalance();
+		} finally {
+			unlock(account);
+		}
+	}
+
 	/**
 	 * Adds a transaction.
-	 * @param amount		The transaction amount
+	 * @param amount		The transaction amount in cents
+	 * @param fromAccount	The account the amount is coming from
+	 * @param toAccount		The account the amount is going to
+	 * @return boolean		True if the transaction was made, false if it was refused
+	 */
+	boolean add(long amount, Account fromAccount, Account toAccount) {
+		return add(amount, fromAccount, toAccount, null);
+	}
+
+	/**
+	 * Adds a transaction that may be retried. The first time the key is used the transaction is made (or refused)
+	 * as usual; for as long as the key is remembered (see {@link #setIdempotencyWindow}), another try with the
+	 * same key gets the first one's outcome back and changes nothing.
+	 * @param amount		The transaction amount in cents
+	 * @param fromAccount	The account the amount is coming from
+	 * @param toAccount		The account the amount is going to
+	 * @param key			The idempotency key chosen by the client, or null for a transaction that isn't retried
+	 * @return boolean		True if the transaction was made, false if it was refused
+	 * @throws IllegalArgumentException	If the key was already used for a different transaction
+	 * @throws IllegalStateException	If too many postings with keys like this one are in progress at once
+	 */
+	boolean add(long amount, Account fromAccount, Account toAccount, String key) {
+		long start = metrics.start();
+		PostingBatch.Outcome outcome = add(amount, fromAccount, toAccount, 0, false, key);
+		metrics.posted(outcome);
+		metrics.end(Metrics.Operation.POSTING, start);
+		return outcome == PostingBatch.Outcome.ACCEPTED;
+	}
+
+	/**
+	 * Posts a whole batch of transactions, e.g. a payroll or direct debit file, and records the outcome of each item
+	 * in the batch.
+	 *
+	 * The batch is split into groups of items that share no accounts. Each group is posted in one go: all its
+	 * accounts are locked at once (in concurrent mode), and funds are checked once per account against the net
+	 * effect of the whole group, so a payment can go out before the money covering it comes in later in the same
+	 * batch. If an account would end up with nothing left, the group is checked item by item in batch order
+	 * instead and the items that can't be covered are refused. Balances and totals are then updated once per
+	 * account. In concurrent mode the groups are posted in parallel. In sharded mode the items are simply
+	 * posted one after another, each on its own accounts' shards.
+	 *
+	 * Items that share an account, directly or through other items, always land in the same group, so the
+	 * parallelism depends on the batch: a batch whose items all share one account (e.g. a payroll paid from
+	 * one company account, or direct debits all paid into one) is a single group and is netted and posted on
+	 * the calling thread, however many threads are free.
+	 * @param batch
+	 * @return int		The number of items posted
+	 */
+	int add(PostingBatch batch) {
+		long start = metrics.start();
+		if (postingMode == PostingMode.SHARDED) {
+			for (int i = 0; i < batch.size(); i++) {
+				if (batch.getAmount(i) < 0 || (batch.getFromAccount(i) == null && batch.getToAccount(i) == null))
+					batch.setOutcome(i, PostingBatch.Outcome.INVALID);
+				else
+					batch.setOutcome(i, add(batch.getAmount(i), batch.getFromAccount(i), batch.getToAccount(i), 0, false, null));
+			}
+			return finish(batch, start);
+		}
+		List<int[]> groups = batch.groups();
+		if (postingMode == PostingMode.SINGLE_THREADED || groups.size() == 1) {
+			for (int[] group : groups)
+				post(batch, group);
+		} else {
+			groups.parallelStream().forEach(group -> post(batch, group));
+		}
+		return finish(batch, start);
+	}
+
+	/**
+	 * Counts the outcomes of a batch that has been posted
+	 * @return int		The number of items posted
+	 */
+	private int finish(PostingBatch batch, long start) {
+		if (start != 0) {
+			for (int i = 0; i < batch.size(); i++)
+				metrics.posted(batch.getOutcome(i));
+			metrics.end(Metrics.Operation.BATCH, start);
+		}
+		return batch.acceptedCount();
+	}
+
+	/**
+	 * Pays interest into a run of accounts as one batch, e.g. a piece of the daily accrual (see {@link InterestAccrual}).
+	 * Interest is never refused, so there are no funds to check or net: the whole batch is made at one time, and
+	 * each account is journaled, credited and shown as {@link Transaction#INTEREST} in turn while only that
+	 * account is held (its lock in concurrent mode, its shard in sharded mode).
+	 * @param accounts
+	 * @param amounts	The interest for each account, in cents. Accounts with none are skipped.
+	 * @param start		The first account to pay
+	 * @param end		After the last account to pay
+	 * @return int		The number of accounts paid
+	 */
+	int payInterest(Account[] accounts, long[] amounts, int start, int end) {
+		long begin = metrics.start();
+		long time = clock.nowMillis();
+		int paid = 0;
+		for (int i = start; i < end; i++) {
+			if (amounts[i] <= 0)
+				continue;
+			lock(accounts[i]);
+			try {
+				payInterest(amounts[i], accounts[i], time, false);
+			} finally {
+				unlock(accounts[i]);
+			}
+			paid++;
+		}
+		if (begin != 0) {
+			for (int i = 0; i < paid; i++)
+				metrics.posted(PostingBatch.Outcome.ACCEPTED);
+			metrics.end(Metrics.Operation.BATCH, begin);
+		}
+		return paid;
+	}
+
+	/**
+	 * Applies interest read back from a journal, at the time it was first paid
+	 * @param amount		In cents
+	 * @param account		The account paid
+	 * @param time			When the interest was paid, in milliseconds since the epoch
+	 * @param sequence		The journal sequence number of the payment
+	 */
+	void replayInterest(long amount, Account account, long time, long sequence) {
+		lock(account);
+		try {
+			payInterest(amount, account, time, true);
+			account.setJournalSequence(sequence);
+		} finally {
+			unlock(account);
+		}
+	}
+
+	/**
+	 * Journals interest (unless it is being replayed), then credits it and records it in the ledger.
+	 * The caller holds the account.
+	 */
+	private void payInterest(long amount, Account account, long time, boolean replaying) {
+		account.keepCut(cut);
+		if (!replaying) {
+			Journal journal = account.getCustomer().getBank().getJournal();
+			if (journal != null)
+				account.setJournalSequence(journal.interest(amount, account.getAccountNumber(), time));
+		}
+		account.updateBalance(amount);
+		ledger.addInterest(amount, account, time, postingMode != PostingMode.SINGLE_THREADED);
+		updateTotals(account);
+	}
+
+	/**
+	 * Applies a transaction read back from a journal. The funds were checked when it was first made,
+	 * so it is applied as it was, at the time it was originally made, and isn't journaled again.
+	 * @param amount		The transaction amount in cents
 	 * @param fromAccount	The account the amount is coming from
-	 * @param toAccount		The account the amount is going to 
+	 * @param toAccount		The account the amount is going to
+	 * @param time			When the transaction was made, in milliseconds since the epoch
+	 * @param sequence		The journal sequence number of the transaction
+	 */
+	void replay(long amount, Account fromAccount, Account toAccount, long time, long sequence) {
+		add(amount, fromAccount, toAccount, time, true, null);
+		if (fromAccount != null)
+			fromAccount.setJournalSequence(sequence);
+		if (toAccount != null)
+			toAccount.setJournalSequence(sequence);
+	}
+
+	/**
+	 * Stops transactions on the account (in concurrent mode) so its state can be read as a whole,
+	 * e.g. for a snapshot. Must be followed by {@link #unlock(Account)}.
+	 * @param account
+	 */
+	void lock(Account account) {
+		ShardedPosting shards = this.shards;
+		if (shards != null)
+			shards.lock(account);
+		else if (postingMode != PostingMode.SINGLE_THREADED)
+			locks.lock(account, null);
+	}
+
+	/**
+	 * Lets transactions on the account carry on after {@link #lock(Account)}
+	 * @param account
+	 */
+	void unlock(Account account) {
+		ShardedPosting shards = this.shards;
+		if (shards != null)
+			shards.unlock(account);
+		else if (postingMode != PostingMode.SINGLE_THREADED)
+			locks.unlock(account, null);
+	}
+
+	/**
+	 * Finds the outcome of a posting already made with an idempotency key
+	 * @return Outcome		The outcome, or null if the key hasn't been used (or has been forgotten)
+	 * @throws IllegalArgumentException	If the key was used for a different posting
+	 */
+	PostingBatch.Outcome remembered(String key, Account fromAccount, Account toAccount, long amount) {
+		return idempotency().find(key, fromAccount, toAccount, amount, clock.nowMillis());
+	}
+
+	/**
+	 * Claims an idempotency key for a posting about to be made. This is done while the posting has the account
+	 * paying (or for a deposit, the account paid) to itself, right after finding it hasn't been made already.
+	 * @return Claim	The claim, to be settled with {@link #remember} or given up with {@link #forget}
+	 * @throws IllegalStateException	If too many postings with keys like this one are in progress at once
+	 */
+	IdempotencyCache.Claim claim(String key, Account fromAccount, Account toAccount, long amount) {
+		return idempotency().claim(key, fromAccount, toAccount, amount, clock.nowMillis());
+	}
+
+	/**
+	 * Remembers the outcome of a posting made with a claimed idempotency key
+	 */
+	void remember(IdempotencyCache.Claim claim, PostingBatch.Outcome outcome) {
+		idempotency().settle(claim, outcome);
+	}
+
+	/**
+	 * Gives up the claim on an idempotency key whose posting failed
+	 */
+	void forget(IdempotencyCache.Claim claim) {
+		idempotency().release(claim);
+	}
+
+	/**
+	 * Posts a new transaction, or replays one that happened at the given time
+	 */
+	private PostingBatch.Outcome add(long amount, Account fromAccount, Account toAccount, long time, boolean replaying, String key) {
+		if (postingMode == PostingMode.SINGLE_THREADED)
+			return post(amount, fromAccount, toAccount, time, replaying, key);
+		if (postingMode == PostingMode.SHARDED)
+			return shards.post(amount, fromAccount, toAccount, time, replaying, key);
+
+		// Checking the key and the funds and moving the money happens as one step while both accounts are locked
+		locks.lock(fromAccount, toAccount);
+		try {
+			return post(amount, fromAccount, toAccount, time, replaying, key);
+		} finally {
+			locks.unlock(fromAccount, toAccount);
+		}
+	}
+
+	/**
+	 * Posts a transaction unless it was already made with the same idempotency key
+	 * @param key			The idempotency key, or null
+	 */
+	private PostingBatch.Outcome post(long amount, Account fromAccount, Account toAccount, long time, boolean replaying, String key) {
+		if (key == null)
+			return post(amount, fromAccount, toAccount, time, replaying);
+		IdempotencyCache cache = idempotency();
+		long now = clock.nowMillis();
+		PostingBatch.Outcome outcome = cache.find(key, fromAccount, toAccount, amount, now);
+		if (outcome != null)
+			return outcome;
+		IdempotencyCache.Claim claim = cache.claim(key, fromAccount, toAccount, amount, now);
+		try {
+			outcome = post(amount, fromAccount, toAccount, time, replaying);
+		} catch (RuntimeException e) {
+			cache.release(claim);
+			throw e;
+		}
+		cache.settle(claim, outcome);
+		return outcome;
+	}
+
+	/**
+	 * Checks the funds, then records the transaction and updates the balances.
+	 * In concurrent mode the caller holds the locks of both accounts; in sharded mode it is the thread of
+	 * both accounts' shard.
+	 * @return Outcome		Whether the transaction was made or why it was refused
 	 */
-	void add(double amount, Account fromAccount, Account toAccount) {
-		
+	PostingBatch.Outcome post(long amount, Account fromAccount, Account toAccount, long time, boolean replaying) {
+
+		// A transaction always moves a positive amount
+		if (amount < 0)
+			return PostingBatch.Outcome.INVALID;
+
 		// We check that if the account is sending money to another account that they have the funds
-		if (fromAccount != null && fromAccount.getBalance() - amount <= 0) {
+		if (!replaying && fromAccount != null && fromAccount.getBalance() - amount <= 0) {
+			return PostingBatch.Outcome.INSUFFICIENT_FUNDS;
+		}
+
+		// Each account's state at the latest cut is kept before it changes
+		int cut = this.cut;
+		if (fromAccount != null)
+			fromAccount.keepCut(cut);
+		if (toAccount != null)
+			toAccount.keepCut(cut);
+
+		// If they do have the funds, write ahead: the transaction is journaled before anything changes
+		if (!replaying) {
+			time = clock.nowMillis();
+			journal(amount, fromAccount, toAccount, time);
+		}
+
+		if (fromAccount != null) {
+			fromAccount.updateBalance(-amount);
+			fromAccount.recordWithdrawal(time);
+		}
+		if (toAccount != null)
+			toAccount.updateBalance(amount);
+
+		ledger.add(amount, fromAccount, toAccount, time, postingMode != PostingMode.SINGLE_THREADED);
+
+		updateTotals(fromAccount);
+		if (toAccount != fromAccount)
+			updateTotals(toAccount);
+		return PostingBatch.Outcome.ACCEPTED;
+	}
+
+	/**
+	 * The first half of a transfer between two shards, made by the thread of the paying account's shard:
+	 * checks the funds, journals the transfer, takes the money out and records the transfer in the ledger.
+	 * The transfer is filled in for the receiving shard to {@link #credit} it.
+	 * @param transfer		The amount and the account paid, filled in with where the transfer was recorded
+	 * @param fromAccount	The account paying
+	 * @param time			When a replayed transfer was made
+	 * @param replaying		True if the transfer is being replayed from a journal
+	 * @return Outcome		Accepted if the credit has to follow, otherwise why the transfer was refused
+	 */
+	PostingBatch.Outcome reserve(ShardedPosting.Transfer transfer, Account fromAccount, long time, boolean replaying) {
+		long amount = transfer.amount;
+		if (amount < 0)
+			return PostingBatch.Outcome.INVALID;
+		if (!replaying && fromAccount.getBalance() - amount <= 0)
+			return PostingBatch.Outcome.INSUFFICIENT_FUNDS;
+
+		transfer.sequence = 0;
+		transfer.cut = startTransfer();
+		try {
+			fromAccount.keepCut(transfer.cut);
+			if (!replaying) {
+				time = clock.nowMillis();
+				transfer.sequence = journal(amount, fromAccount, transfer.to, time, false);
+			}
+		} catch (RuntimeException e) {
+			crediting.decrementAndGet(transfer.cut & 1);
+			throw e;
+		}
+		fromAccount.updateBalance(-amount);
+		fromAccount.recordWithdrawal(time);
+		transfer.position = ledger.record(amount, fromAccount, transfer.to, time);
+		ledger.index(fromAccount, transfer.position);
+		updateTotals(fromAccount);
+		return PostingBatch.Outcome.ACCEPTED;
+	}
+
+	/**
+	 * The second half of a transfer between two shards, made by the thread of the account paid
+	 * @param transfer		As filled in by {@link #reserve}
+	 */
+	void credit(ShardedPosting.Transfer transfer) {
+		Account toAccount = transfer.to;
+
+		try {
+
+			// A transfer made before the latest cut belongs in the account's state at the cut, even if it arrives after it
+			int cut = this.cut;
+			toAccount.keepCut(cut);
+			if (transfer.cut != cut)
+				toAccount.addToCut(transfer.amount, transfer.sequence);
+
+			// A later posting on this shard may already have been journaled and made
+			if (transfer.sequence > toAccount.getJournalSequence())
+				toAccount.setJournalSequence(transfer.sequence);
+			toAccount.updateBalance(transfer.amount);
+			ledger.index(toAccount, transfer.position);
+			updateTotals(toAccount);
+		} finally {
+			crediting.decrementAndGet(transfer.cut & 1);
+		}
+	}
+
+	/**
+	 * Counts a transfer between shards as waiting to be credited under the latest cut
+	 * @return int		The cut the transfer is made under
+	 */
+	private int startTransfer() {
+		while (true) {
+			int cut = this.cut;
+			crediting.incrementAndGet(cut & 1);
+
+			// Unless a cut started meanwhile, it will wait for this transfer
+			if (this.cut == cut)
+				return cut;
+			crediting.decrementAndGet(cut & 1);
+		}
+	}
+
+	/**
+	 * Starts a consistent cut, so the whole bank can be read as it was at one moment (e.g. for a report)
+	 * without stopping posting. Every posting made from now on first keeps the state its accounts had at the
+	 * cut (see {@link Account#keepCut}), and transfers between shards made before the cut are credited before
+	 * this returns, so no money is caught between two accounts. Each account must then be read while it is
+	 * held with {@link #lock(Account)}: its state at the cut is the kept one if it has changed since, otherwise
+	 * its current state. Only one cut is read at a time. Must be followed by {@link #endCut()}.
+	 * @return int		The number of the cut
+	 */
+	int startCut() {
+		cutting.lock();
+		int next = cut + 1;
+		cut = next;
+		while (crediting.get((next - 1) & 1) != 0)
+			Thread.yield();
+		return next;
+	}
+
+	/**
+	 * Lets another cut start after {@link #startCut()}
+	 */
+	void endCut() {
+		cutting.unlock();
+	}
+
+	/**
+	 * Posts one group of a batch, see {@link #add(PostingBatch)}
+	 * @param batch
+	 * @param items		The items of the group, in batch order
+	 */
+	private void post(PostingBatch batch, int[] items) {
+
+		// A group of one, e.g. one of many deposits to different accounts, is just an ordinary posting
+		if (items.length == 1) {
+			int item = items[0];
+			Account from = batch.getFromAccount(item);
+			Account to = batch.getToAccount(item);
+			if (batch.getAmount(item) < 0 || (from == null && to == null))
+				batch.setOutcome(item, PostingBatch.Outcome.INVALID);
+			else
+				batch.setOutcome(item, add(batch.getAmount(item), from, to, 0, false, null));
 			return;
 		}
-		
-		// If they do have the funds
-		else {
-			try {
-				transactionList.add(new Transaction(amount, fromAccount, toAccount));
-			} catch (Exception e) {
-				e.printStackTrace();
+
+		// Number the group's accounts
+		Map<Account, Integer> ids = new IdentityHashMap<Account, Integer>();
+		Account[] accounts = new Account[2 * items.length];
+		int[] fromIds = new int[items.length];
+		int[] toIds = new int[items.length];
+		int valid = 0;
+		for (int i = 0; i < items.length; i++) {
+			int item = items[i];
+			Account from = batch.getFromAccount(item);
+			Account to = batch.getToAccount(item);
+			if (batch.getAmount(item) < 0 || (from == null && to == null)) {
+				batch.setOutcome(item, PostingBatch.Outcome.INVALID);
+				items[i] = -1;
+				continue;
 			}
+			fromIds[i] = accountId(ids, accounts, from);
+			toIds[i] = accountId(ids, accounts, to);
+			valid++;
 		}
-    
+		if (valid == 0)
+			return;
+		int accountCount = ids.size();
+
+		int[] stripes = null;
+		if (postingMode != PostingMode.SINGLE_THREADED) {
+			stripes = locks.stripes(accounts, accountCount);
+			locks.lock(stripes);
+		}
+		try {
+			long[] start = new long[accountCount];
+			long[] balances = new long[accountCount];
+			boolean[] paying = new boolean[accountCount];
+			for (int a = 0; a < accountCount; a++)
+				start[a] = balances[a] = accounts[a].getBalance();
+
+			// Net the whole group, and check every account that pays out still has money left at the end
+			for (int i = 0; i < items.length; i++) {
+				if (items[i] < 0)
+					continue;
+				long amount = batch.getAmount(items[i]);
+				if (fromIds[i] >= 0) {
+					balances[fromIds[i]] -= amount;
+					paying[fromIds[i]] = true;
+				}
+				if (toIds[i] >= 0)
+					balances[toIds[i]] += amount;
+			}
+			boolean covered = true;
+			for (int a = 0; a < accountCount; a++) {
+				if (paying[a] && balances[a] <= 0)
+					covered = false;
+			}
+
+			// Otherwise go through the items in order, refusing those that can't be covered at that point
+			if (!covered) {
+				System.arraycopy(start, 0, balances, 0, accountCount);
+				Arrays.fill(paying, false);
+				for (int i = 0; i < items.length; i++) {
+					if (items[i] < 0)
+						continue;
+					long amount = batch.getAmount(items[i]);
+					if (fromIds[i] >= 0 && balances[fromIds[i]] - amount <= 0) {
+						batch.setOutcome(items[i], PostingBatch.Outcome.INSUFFICIENT_FUNDS);
+						items[i] = -1;
+						continue;
+					}
+					if (fromIds[i] >= 0) {
+						balances[fromIds[i]] -= amount;
+						paying[fromIds[i]] = true;
+					}
+					if (toIds[i] >= 0)
+						balances[toIds[i]] += amount;
+				}
+			}
+
+			// Write ahead, then move the money once per account and record the items
+			int cut = this.cut;
+			for (int a = 0; a < accountCount; a++)
+				accounts[a].keepCut(cut);
+			long time = clock.nowMillis();
+			for (int i = 0; i < items.length; i++) {
+				if (items[i] >= 0)
+					journal(batch.getAmount(items[i]), batch.getFromAccount(items[i]), batch.getToAccount(items[i]), time);
+			}
+			for (int a = 0; a < accountCount; a++) {
+				accounts[a].updateBalance(balances[a] - start[a]);
+				if (paying[a])
+					accounts[a].recordWithdrawal(time);
+			}
+			boolean concurrent = postingMode != PostingMode.SINGLE_THREADED;
+			for (int i = 0; i < items.length; i++) {
+				if (items[i] < 0)
+					continue;
+				ledger.add(batch.getAmount(items[i]), batch.getFromAccount(items[i]), batch.getToAccount(items[i]), time, concurrent);
+				batch.setOutcome(items[i], PostingBatch.Outcome.ACCEPTED);
+			}
+			for (int a = 0; a < accountCount; a++)
+				updateTotals(accounts[a]);
+		} finally {
+			if (stripes != null)
+				locks.unlock(stripes);
+		}
+	}
+
+	/**
+	 * Numbers an account within a batch group
+	 * @return int	The account's number, or -1 for a null account
+	 */
+	private static int accountId(Map<Account, Integer> ids, Account[] accounts, Account account) {
+		if (account == null)
+			return -1;
+		Integer id = ids.get(account);
+		if (id == null) {
+			id = ids.size();
+			ids.put(account, id);
+			accounts[id] = account;
+		}
+		return id;
+	}
+
+	/**
+	 * Writes the transaction to the journal of each bank involved (normally just the one).
+	 * A bank that only holds one side of a transfer sees the other side as money arriving or leaving.
+	 */
+	private void journal(long amount, Account from, Account to, long time) {
+		journal(amount, from, to, time, true);
+	}
+
+	/**
+	 * Journals the transaction, optionally leaving the account paid to be marked later by another thread
+	 * @param markTo	True to note the journal record against the account paid as well as the account paying
+	 * @return long		The journal record to note against the account paid, 0 if none
+	 */
+	private long journal(long amount, Account from, Account to, long time, boolean markTo) {
+		Bank fromBank = from == null ? null : from.getCustomer().getBank();
+		Bank toBank = to == null ? null : to.getCustomer().getBank();
+		int fromNumber = from == null ? Journal.NO_ACCOUNT : from.getAccountNumber();
+		int toNumber = to == null ? Journal.NO_ACCOUNT : to.getAccountNumber();
+		long toSequence = 0;
+
+		// Each account remembers the last journal record applied to it, so a snapshot knows which records it already includes
+		if (fromBank != null && fromBank.getJournal() != null) {
+			long sequence = fromBank.getJournal().posting(amount, fromNumber, toBank == fromBank ? toNumber : Journal.NO_ACCOUNT, time);
+			from.setJournalSequence(sequence);
+			if (toBank == fromBank)
+				toSequence = sequence;
+		}
+		if (toBank != null && toBank != fromBank && toBank.getJournal() != null)
+			toSequence = toBank.getJournal().posting(amount, Journal.NO_ACCOUNT, toNumber, time);
+		if (markTo && toSequence != 0)
+			to.setJournalSequence(toSequence);
+		return toSequence;
+	}
+
+	/**
+	 * Brings the running totals of the account's bank up to date
+	 * @param account		The account, ignored if null
+	 */
+	private void updateTotals(Account account) {
+		if (account != null)
+			account.getCustomer().getBank().getTotals().refresh(account);
 	}
 }
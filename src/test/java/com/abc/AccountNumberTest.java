@@ -1,10 +1,14 @@
 package com.abc;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.jupiter.api.Test;
@@ -21,7 +25,7 @@ public class AccountNumberTest {
 		// We populate a list with the all numbers generated by account number generator
 		List<Integer> accountNumbers = new ArrayList<Integer>();
 		AccountNumber accs = new AccountNumber();
-		for (int i=0; i<899999; i++)
+		for (int i=0; i<900000; i++)
 			accountNumbers.add(accs.generateAccountNumber());
 		
 		// We copy numbers into a set
@@ -29,5 +33,44 @@ public class AccountNumberTest {
 		
 		// If the set had less, it would show we had duplicates
 		assertEquals(accountNumbers.size(), set.size());
+		
+		// And every number is six digits
+		for (int accountNumber : set)
+			assertTrue(accountNumber >= 100000 && accountNumber <= 999999);
+	}
+	
+	/**
+	 * Once every number has been handed out the generator says so rather than repeating itself
+	 */
+	@Test
+	public void generator_reports_when_numbers_run_out() {
+		
+		AccountNumber accs = new AccountNumber();
+		for (int i=0; i<900000; i++)
+			accs.generateAccountNumber();
+		
+		assertFalse(accs.hasNext());
+		assertEquals(0, accs.remaining());
+		assertThrows(IllegalStateException.class, () -> {
+			accs.generateAccountNumber();
+		});
+	}
+	
+	/**
+	 * Numbers handed out one after another shouldn't simply count up
+	 */
+	@Test
+	public void account_numbers_are_not_sequential() {
+		
+		AccountNumber accs = new AccountNumber(new Random(42));
+		int previous = accs.generateAccountNumber();
+		int sequential = 0;
+		for (int i=0; i<1000; i++) {
+			int next = accs.generateAccountNumber();
+			if (Math.abs(next - previous) == 1)
+				sequential++;
+			previous = next;
+		}
+		assertEquals(0, sequential);
 	}
 }
@@ -0,0 +1,86 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ * 
+ * Testing the account number lookup table
+ *
+ */
+public class AccountRegistryTest {
+
+	/*
+	 * Every account added can be found again by its number, even after the table has grown
+	 */
+	@Test
+	public void accounts_can_be_found_by_number() {
+		
+		// Given a registry with many accounts
+		Customer bill = new Customer("Bill", new Bank());
+		AccountRegistry registry = new AccountRegistry();
+		List<Account> accounts = new ArrayList<Account>();
+		for (int i=0; i<1000; i++) {
+			Account account = new Account(bill, Account.CHECKING);
+			accounts.add(account);
+			registry.put(account);
+		}
+		
+		// Each one is found by its number
+		assertEquals(1000, registry.size());
+		for (Account account : accounts)
+			assertSame(account, registry.get(account.getAccountNumber()));
+	}
+	
+	/*
+	 * Looking up a number nobody has gives null
+	 */
+	@Test
+	public void unknown_account_number_is_not_found() {
+		AccountRegistry registry = new AccountRegistry();
+		assertNull(registry.get(123456));
+	}
+	
+	/*
+	 * Adding the same account twice doesn't count it twice
+	 */
+	@Test
+	public void adding_an_account_twice_keeps_one_entry() {
+		Customer bill = new Customer("Bill", new Bank());
+		Account account = new Account(bill, Account.CHECKING);
+		AccountRegistry registry = new AccountRegistry();
+		
+		registry.put(account);
+		registry.put(account);
+		assertEquals(1, registry.size());
+	}
+	
+	/*
+	 * Two different accounts can't share a number
+	 */
+	@Test
+	public void account_numbers_cannot_be_reused() {
+		Customer bill = new Customer("Bill", new Bank());
+		Account account = new Account(bill, Account.CHECKING);
+		AccountRegistry registry = new AccountRegistry();
+		registry.put(account);
+		
+		// An account pretending to have the same number is rejected
+		assertThrows(IllegalArgumentException.class, () -> {
+			registry.put(new Account(bill, Account.CHECKING) {
+				@Override
+				int getAccountNumber() {
+					return account.getAccountNumber();
+				}
+			});
+		});
+	}
+}
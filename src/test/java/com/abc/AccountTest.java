@@ -2,6 +2,8 @@ package com.abc;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.concurrent.TimeUnit;
+
 import org.junit.jupiter.api.Test;
 
 /**
@@ -12,8 +14,6 @@ import org.junit.jupiter.api.Test;
  */
 public class AccountTest {
 	
-    private static final double DOUBLE_DELTA = 1e-15;
-
     /*
      * A checking account should show the correct rates of interest over a year
      */
@@ -25,9 +25,9 @@ public class AccountTest {
         Customer bill = new Customer("Bill", bank);
         Account a = bill.openAccount(Account.CHECKING);
         
-        // In a Checking account, $500 should get an interest of %0.1 so expect 0.5
+        // In a Checking account, $500 should get an interest of %0.1 so expect 50 cents
         a.deposit(500);
-        assertEquals(0.5, bank.totalInterestPaid(), DOUBLE_DELTA);
+        assertEquals(50, bank.totalInterestPaid());
     }
 
     /*
@@ -41,13 +41,13 @@ public class AccountTest {
         Customer bill = new Customer("Bill", bank);
         Account a = bill.openAccount(Account.SAVINGS);
 
-        // In a Savings account, %0.1 for first $1000 so at $500 expect 0.5
+        // In a Savings account, %0.1 for first $1000 so at $500 expect 50 cents
         a.deposit(500.0);
-        assertEquals(0.5, bank.totalInterestPaid(), DOUBLE_DELTA);
+        assertEquals(50, bank.totalInterestPaid());
         
-        // After first $1000 interest should be %0.2 so at $1500 expect 2
+        // After first $1000 interest should be %0.2 so at $1500 expect $2
         a.deposit(1000.0);
-        assertEquals(2, bank.totalInterestPaid(), DOUBLE_DELTA);
+        assertEquals(200, bank.totalInterestPaid());
     }
 
     /*
@@ -64,15 +64,64 @@ public class AccountTest {
         Account accountWithNoWithdrawals = bill.openAccount(Account.MAXI_SAVINGS);
         Account accountWithWithdrawals = bill.openAccount(Account.MAXI_SAVINGS);
 
-        // In a Maxi account, %5 if no recent withdrawals so expect 50
+        // In a Maxi account, %5 if no recent withdrawals so expect $50
         accountWithNoWithdrawals.deposit(1000.0);
-        assertEquals(50, bank.getAccountInterest(accountWithNoWithdrawals), DOUBLE_DELTA);
+        assertEquals(5000, bank.getAccountInterest(accountWithNoWithdrawals));
         
         
-        // %0.1 if a recent withdrawal has been made so expect 
+        // %0.1 if a recent withdrawal has been made so expect $1
         accountWithWithdrawals.deposit(1100.0);
         accountWithWithdrawals.withdraw(100.0);
-        assertEquals(1, bank.getAccountInterest(accountWithWithdrawals), DOUBLE_DELTA);
+        assertEquals(100, bank.getAccountInterest(accountWithWithdrawals));
+    }
+    
+    /*
+     * A withdrawal more than 10 days ago no longer lowers the Maxi Savings rate
+     */
+    @Test
+    public void maxi_account_ignores_old_withdrawals() {
+    	
+    	// Given a maxi account with $1000 in it
+        Bank bank = new Bank();
+        Customer bill = new Customer("Bill", bank);
+        Account account = bill.openAccount(Account.MAXI_SAVINGS);
+        account.deposit(1000.0);
+        
+        // Whose last withdrawal was 11 days ago, it earns the full %5 so expect $50
+        long now = DateProvider.getInstance().nowMillis();
+        account.recordWithdrawal(now - TimeUnit.DAYS.toMillis(11));
+        assertEquals(5000, bank.getAccountInterest(account));
+        
+        // But one 10 days ago still counts, so expect $1
+        account.recordWithdrawal(now - TimeUnit.DAYS.toMillis(10));
+        assertEquals(100, bank.getAccountInterest(account));
     }
 
+    /*
+     * Retrying a posting with the same idempotency key doesn't move the money again
+     */
+    @Test
+    public void retried_postings_are_made_once() {
+
+    	// Given two accounts in a bank of their own
+        Bank bank = new Bank(new BankContext());
+        Account bill = new Customer("Bill", bank).openAccount(Account.CHECKING);
+        Account henry = new Customer("Henry", bank).openAccount(Account.CHECKING);
+
+        // Each posting tried twice is only made once, and the retry gets the same answer
+        for (int i = 0; i < 2; i++) {
+            assertEquals(true, bill.deposit(100, "deposit"));
+            assertEquals(true, bill.sendMoney(30, henry, "payment"));
+            assertEquals(true, henry.withdraw(10, "withdrawal"));
+            assertEquals(false, henry.withdraw(50, "refused"));
+        }
+        assertEquals(7000, bill.getBalance());
+        assertEquals(2000, henry.getBalance());
+        assertEquals(2, henry.getTransactions().size());
+
+        // Postings without a key aren't checked
+        bill.deposit(100);
+        bill.deposit(100);
+        assertEquals(27000, bill.getBalance());
+    }
 }
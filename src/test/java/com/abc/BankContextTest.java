@@ -0,0 +1,145 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing that banks in different contexts share nothing
+ *
+ */
+public class BankContextTest {
+
+	/*
+	 * Banks made without a context share the default one
+	 */
+	@Test
+	public void banks_share_the_default_context() {
+		assertSame(BankContext.getDefault(), new Bank().getContext());
+		assertSame(Transactions.getInstance(), BankContext.getDefault().getTransactions());
+		assertSame(DateProvider.getInstance(), BankContext.getDefault().getClock());
+		assertSame(AccountNumber.getInstance(), BankContext.getDefault().getAccountNumbers());
+	}
+
+	/*
+	 * Transactions posted in one context don't appear in another's ledger
+	 */
+	@Test
+	public void ledgers_are_isolated() {
+
+		// Given two banks in contexts of their own
+		BankContext first = new BankContext();
+		BankContext second = new BankContext();
+		Account henry = new Customer("Henry", new Bank(first)).openAccount(Account.CHECKING);
+		Account bill = new Customer("Bill", new Bank(second)).openAccount(Account.CHECKING);
+
+		// When each is used
+		henry.deposit(100);
+		henry.withdraw(20);
+		bill.deposit(50);
+
+		// Each ledger only holds its own bank's transactions
+		assertEquals(2, first.getTransactions().size());
+		assertEquals(1, second.getTransactions().size());
+		assertEquals(2, henry.getTransactions().size());
+		assertEquals(1, bill.getTransactions().size());
+	}
+
+	/*
+	 * A context's clock dates its transactions and decides when a Maxi Savings withdrawal stops counting
+	 */
+	@Test
+	public void each_context_has_its_own_clock() {
+
+		// Given a bank whose clock is stopped a year ago
+		long then = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(365);
+		FakeClock clock = new FakeClock(then);
+		Bank bank = new Bank(new BankContext(new AccountNumber(new Random(7)), clock));
+		Account account = new Customer("Henry", bank).openAccount(Account.MAXI_SAVINGS);
+		account.deposit(1100.0);
+		account.withdraw(100.0);
+
+		// Its transactions are dated by its clock, and the withdrawal is recent so $1000 earns 0.1%
+		assertEquals(then, account.getTransactions().get(1).getTime());
+		assertTrue(account.getTransactions().get(1).IsRecentTransaction());
+		assertEquals(100, bank.getAccountInterest(account));
+		assertEquals(100, bank.totalInterestPaid());
+
+		// Eleven days later on its clock the withdrawal no longer counts, even though the system clock is far past it
+		clock.advance(11, TimeUnit.DAYS);
+		assertEquals(5000, bank.getAccountInterest(account));
+		assertEquals(5000, bank.totalInterestPaid());
+		assertTrue(bank.checkTotals());
+	}
+
+	/*
+	 * Money can't be sent to a bank in another context
+	 */
+	@Test
+	public void money_cannot_move_between_contexts() {
+		Account henry = new Customer("Henry", new Bank(new BankContext())).openAccount(Account.CHECKING);
+		Account bill = new Customer("Bill", new Bank(new BankContext())).openAccount(Account.CHECKING);
+		henry.deposit(100);
+
+		assertThrows(IllegalArgumentException.class, () -> henry.sendMoney(10, bill));
+		assertEquals(10000, henry.getBalance());
+		assertEquals(0, bill.getBalance());
+	}
+
+	/*
+	 * Contexts posting in different modes at the same time don't disturb each other
+	 */
+	@Test
+	public void contexts_post_side_by_side() throws InterruptedException {
+		final int threads = 4;
+		final int transfers = 5000;
+		BankContext[] contexts = { new BankContext(), new BankContext() };
+		contexts[0].getTransactions().setPostingMode(Transactions.PostingMode.CONCURRENT);
+		contexts[1].getTransactions().setPostingMode(Transactions.PostingMode.SHARDED);
+		try {
+			final Account[][] accounts = new Account[contexts.length][8];
+			for (int c = 0; c < contexts.length; c++) {
+				Customer customer = new Customer("Henry", new Bank(contexts[c]));
+				for (int i = 0; i < accounts[c].length; i++) {
+					accounts[c][i] = customer.openAccount(Account.CHECKING);
+					accounts[c][i].deposit(100);
+				}
+			}
+
+			// Every thread in both banks passes a cent round its bank's accounts
+			Thread[] workers = new Thread[threads * contexts.length];
+			for (int w = 0; w < workers.length; w++) {
+				final Account[] own = accounts[w % contexts.length];
+				final int offset = w;
+				workers[w] = new Thread(() -> {
+					for (int i = 0; i < transfers; i++)
+						own[(i + offset) % own.length].sendMoney(0.01, own[(i + offset + 1) % own.length]);
+				});
+				workers[w].start();
+			}
+			for (Thread worker : workers)
+				worker.join();
+
+			// Each ledger holds exactly its own bank's postings and no money has moved between banks
+			for (int c = 0; c < contexts.length; c++) {
+				assertEquals(accounts[c].length + threads * transfers, contexts[c].getTransactions().size());
+				long total = 0;
+				for (Account account : accounts[c])
+					total += account.getBalance();
+				assertEquals(accounts[c].length * 10000L, total);
+				assertTrue(accounts[c][0].getCustomer().getBank().checkTotals());
+			}
+		} finally {
+			for (BankContext context : contexts)
+				context.getTransactions().setPostingMode(Transactions.PostingMode.SINGLE_THREADED);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing the bank-wide reports
+ *
+ */
+public class BankReportingTest {
+
+	@AfterEach
+	public void single_threaded_again() {
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.SINGLE_THREADED);
+	}
+
+	/*
+	 * The report's figures are the bank's own, worked out account by account
+	 */
+	@Test
+	public void report_matches_the_bank() {
+
+		// Given customers with a mix of accounts, one of them with a recent Maxi Savings withdrawal
+		Bank bank = new Bank();
+		Customer bill = new Customer("Bill", bank);
+		Customer henry = new Customer("Henry", bank);
+		new Customer("Oscar", bank);
+		Customer john = new Customer("John", bank);
+		bill.openAccount(Account.CHECKING).deposit(100);
+		bill.openAccount(Account.SAVINGS).deposit(2000);
+		Account maxi = henry.openAccount(Account.MAXI_SAVINGS);
+		maxi.deposit(3000);
+		maxi.withdraw(500);
+		john.openAccount(Account.SAVINGS).deposit(2600);
+
+		BankReport report = new BankReporting().report(bank, 2);
+
+		// Each customer
+		assertEquals(4, report.getNumberOfCustomers());
+		for (int c = 0; c < 4; c++) {
+			Customer customer = bank.getCustomer(c);
+			assertEquals(customer.getName(), report.getCustomerName(c));
+			assertEquals(customer.getNumberOfAccounts(), report.getCustomerAccounts(c));
+			assertEquals(customer.totalInterestEarned(), report.getCustomerInterest(c));
+		}
+		assertEquals(210000, report.getCustomerBalance(0));
+		assertEquals(0, report.getCustomerBalance(2));
+
+		// Each type of account, including a day's interest as it would be credited
+		long[] daily = new InterestAccrual(null).calculate(bank.getAccounts(), new long[bank.getAccounts().length]);
+		for (InterestProduct product : InterestProduct.all()) {
+			assertEquals(bank.getTotals().numberOfAccounts(product), report.getNumberOfAccounts(product));
+			assertEquals(bank.getTotals().totalBalance(product), report.getTotalBalance(product));
+			assertEquals(bank.getTotals().totalInterest(product), report.getTotalInterest(product));
+			assertEquals(daily[product.getId()], report.getDailyInterest(product));
+		}
+		assertEquals(bank.totalDeposits(), report.getTotalBalance());
+		assertEquals(bank.totalInterestPaid(), report.getTotalInterest());
+
+		// And the two richest customers: John with $2,600, then Henry with $2,500
+		assertArrayEquals(new int[] { 3, 1 }, report.getTopCustomers());
+	}
+
+	/*
+	 * However the work is split, the result is the same
+	 */
+	@Test
+	public void parallel_and_serial_reports_agree() {
+		Bank bank = new Bank(new BankContext(new AccountNumber(new Random(3)), new FakeClock(TimeUnit.DAYS.toMillis(20000))));
+		Random random = new Random(42);
+		InterestProduct[] types = { Account.CHECKING, Account.SAVINGS, Account.MAXI_SAVINGS };
+		for (int c = 0; c < 8000; c++) {
+			Customer customer = new Customer("Customer " + c, bank);
+			for (int a = random.nextInt(4); a > 0; a--) {
+				Account account = customer.openAccount(types[random.nextInt(types.length)]);
+				account.deposit(random.nextInt(100000));
+				if (random.nextInt(5) == 0)
+					account.withdraw(1);
+			}
+		}
+
+		BankReport serial = new BankReporting(null).report(bank, 25);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			BankReport parallel = new BankReporting(pool).report(bank, 25);
+			assertArrayEquals(serial.getTopCustomers(), parallel.getTopCustomers());
+			assertEquals(25, parallel.getTopCustomers().length);
+			for (int c = 0; c < serial.getNumberOfCustomers(); c++) {
+				assertEquals(serial.getCustomerAccounts(c), parallel.getCustomerAccounts(c));
+				assertEquals(serial.getCustomerBalance(c), parallel.getCustomerBalance(c));
+				assertEquals(serial.getCustomerInterest(c), parallel.getCustomerInterest(c));
+			}
+			for (InterestProduct product : InterestProduct.all()) {
+				assertEquals(serial.getTotalBalance(product), parallel.getTotalBalance(product));
+				assertEquals(serial.getTotalInterest(product), parallel.getTotalInterest(product));
+				assertEquals(serial.getDailyInterest(product), parallel.getDailyInterest(product));
+			}
+			assertEquals(bank.totalDeposits(), parallel.getTotalBalance());
+			assertEquals(bank.totalInterestPaid(), parallel.getTotalInterest());
+
+			// The ranking is in order
+			int[] top = parallel.getTopCustomers();
+			for (int i = 1; i < top.length; i++)
+				assertTrue(parallel.getCustomerBalance(top[i - 1]) >= parallel.getCustomerBalance(top[i]));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/*
+	 * Reports taken while money moves between accounts always add up to the money in the bank
+	 */
+	@ParameterizedTest
+	@EnumSource(value = Transactions.PostingMode.class, names = { "CONCURRENT", "SHARDED" })
+	public void report_is_consistent_while_posting(Transactions.PostingMode mode) throws InterruptedException {
+		Transactions.getInstance().setPostingMode(mode);
+		Bank bank = new Bank();
+		final Account[] accounts = new Account[64];
+		for (int i = 0; i < accounts.length; i++) {
+			accounts[i] = new Customer("Customer " + i, bank).openAccount(Account.CHECKING);
+			accounts[i].deposit(100);
+		}
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread[] posters = new Thread[3];
+		for (int t = 0; t < posters.length; t++) {
+			final Random random = new Random(t);
+			posters[t] = new Thread(() -> {
+				while (running.get())
+					accounts[random.nextInt(accounts.length)].sendMoney(0.25, accounts[random.nextInt(accounts.length)]);
+			});
+			posters[t].start();
+		}
+		try {
+			BankReporting reporting = new BankReporting();
+			for (int i = 0; i < 50; i++)
+				assertEquals(accounts.length * 10000L, reporting.report(bank, 5).getTotalBalance());
+		} finally {
+			running.set(false);
+			for (Thread poster : posters)
+				poster.join();
+		}
+	}
+
+	/*
+	 * The tables are written as CSV, with awkward names quoted
+	 */
+	@Test
+	public void csv_tables() throws IOException {
+		BankReport report = new BankReporting().report(smallBank(), 1);
+
+		StringWriter customers = new StringWriter();
+		report.writeCsv(BankReport.Table.CUSTOMERS, customers);
+		assertEquals("id,name,accounts,balance,interest\n"
+				+ "0,\"Smith, \"\"Bill\"\"\",1,1234.56,1.23\n"
+				+ "1,Henry,0,0.00,0.00\n", customers.toString());
+
+		StringBuilder top = new StringBuilder();
+		report.writeCsv(BankReport.Table.TOP, top);
+		assertEquals("rank,id,name,balance\n1,0,\"Smith, \"\"Bill\"\"\",1234.56\n", top.toString());
+
+		StringWriter products = new StringWriter();
+		report.writeCsv(BankReport.Table.PRODUCTS, products);
+		assertTrue(products.toString().startsWith("id,name,accounts,balance,interest,daily_interest\n0,Checking,1,1234.56,1.23,0.00\n"));
+	}
+
+	/*
+	 * The whole report is written as JSON
+	 */
+	@Test
+	public void json_report() throws IOException {
+		BankReport report = new BankReporting().report(smallBank(), 1);
+		StringWriter out = new StringWriter();
+		report.writeJson(out);
+		String json = out.toString();
+		assertTrue(json.startsWith("{\"time\":" + report.getTime() + ",\"journalSequence\":0,"
+				+ "\"totals\":{\"customers\":2,\"accounts\":1,\"balance\":1234.56,\"interest\":1.23},"
+				+ "\"products\":[{\"id\":0,\"name\":\"Checking\",\"accounts\":1,\"balance\":1234.56,\"interest\":1.23,\"dailyInterest\":0.00},"), json);
+		assertTrue(json.endsWith("\"top\":[{\"rank\":1,\"id\":0,\"name\":\"Smith, \\\"Bill\\\"\",\"balance\":1234.56}],"
+				+ "\"customers\":[{\"id\":0,\"name\":\"Smith, \\\"Bill\\\"\",\"accounts\":1,\"balance\":1234.56,\"interest\":1.23},"
+				+ "{\"id\":1,\"name\":\"Henry\",\"accounts\":0,\"balance\":0.00,\"interest\":0.00}]}"), json);
+	}
+
+	@Test
+	public void top_must_not_be_negative() {
+		assertThrows(IllegalArgumentException.class, () -> new BankReporting().report(new Bank(), -1));
+	}
+
+	private static Bank smallBank() {
+		Bank bank = new Bank();
+		new Customer("Smith, \"Bill\"", bank).openAccount(Account.CHECKING).deposit(1234.56);
+		new Customer("Henry", bank);
+		return bank;
+	}
+}
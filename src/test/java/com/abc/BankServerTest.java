@@ -0,0 +1,272 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing the HTTP front end, including many clients at once
+ *
+ */
+public class BankServerTest {
+
+	/*
+	 * The slowest the many clients test may be served, in requests a second
+	 */
+	private static final int MIN_REQUESTS_PER_SECOND = 100;
+
+	private BankServer server;
+
+	@TempDir
+	Path folder;
+
+	@AfterEach
+	public void stop() {
+		if (server != null)
+			server.close();
+	}
+
+	/*
+	 * A customer can open an account and move money through the server, and mistakes are reported
+	 */
+	@Test
+	public void customer_operations() throws IOException {
+
+		// Given a bank with two customers behind a server
+		Bank bank = new Bank(new BankContext());
+		Customer henry = new Customer("Henry", bank);
+		Account bill = new Customer("Bill", bank).openAccount(Account.CHECKING);
+		start(bank, BankServer.DEFAULT_MAX_IN_FLIGHT);
+
+		// Henry opens a savings account and moves money
+		Response opened = post("/customers/0/accounts?type=1");
+		assertEquals(201, opened.status);
+		int number = Integer.parseInt(opened.body);
+		Account account = bank.getAccountByNumber(number);
+		assertEquals(henry, account.getCustomer());
+		assertEquals(Account.SAVINGS, account.getProduct());
+
+		assertEquals(200, post("/customers/0/accounts/" + number + "/deposit?amount=100.50").status);
+		assertEquals(200, post("/customers/0/accounts/" + number + "/withdraw?amount=0.50").status);
+		assertEquals(200, post("/customers/0/accounts/" + number + "/send?amount=40&to=" + bill.getAccountNumber()).status);
+		assertEquals(409, post("/customers/0/accounts/" + number + "/withdraw?amount=60").status);
+		assertEquals(6000, account.getBalance());
+		assertEquals(4000, bill.getBalance());
+
+		// Nobody can use an account they don't own, and bad requests are refused
+		assertEquals(404, post("/customers/1/accounts/" + number + "/withdraw?amount=1").status);
+		assertEquals(404, post("/customers/7/accounts?type=1").status);
+		assertEquals(404, post("/customers/0/accounts/" + number + "/send?amount=1&to=1").status);
+		assertEquals(400, post("/customers/0/accounts/" + number + "/deposit?amount=-5").status);
+		assertEquals(400, post("/customers/0/accounts/" + number + "/deposit?amount=lots").status);
+		assertEquals(400, post("/customers/0/accounts?type=99").status);
+		assertEquals(6000, account.getBalance());
+	}
+
+	/*
+	 * A client retrying with the same idempotency key gets the first answer again, without the money moving twice
+	 */
+	@Test
+	public void retries_with_a_key_are_made_once() throws IOException {
+		Bank bank = new Bank(new BankContext());
+		Account henry = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		Account bill = new Customer("Bill", bank).openAccount(Account.CHECKING);
+		start(bank, BankServer.DEFAULT_MAX_IN_FLIGHT);
+		String account = "/customers/0/accounts/" + henry.getAccountNumber();
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals(200, post(account + "/deposit?amount=100", "deposit-1").status);
+			assertEquals(200, post(account + "/send?amount=40&to=" + bill.getAccountNumber(), "payment-1").status);
+			assertEquals(409, post(account + "/withdraw?amount=70", "withdrawal-1").status);
+		}
+		assertEquals(6000, henry.getBalance());
+		assertEquals(4000, bill.getBalance());
+
+		// The same key for a different posting is a bad request
+		assertEquals(400, post(account + "/deposit?amount=5", "deposit-1").status);
+		assertEquals(6000, henry.getBalance());
+	}
+
+	/*
+	 * Anything else going wrong, e.g. the journal can't be written, is reported as a server error
+	 */
+	@Test
+	public void failures_are_server_errors() throws IOException {
+		Bank bank = Journal.recover(folder.resolve("bank.journal"), 1, new BankContext());
+		Account account = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		start(bank, BankServer.DEFAULT_MAX_IN_FLIGHT);
+		bank.getJournal().close();
+
+		Response response = post("/customers/0/accounts/" + account.getAccountNumber() + "/deposit?amount=10");
+		assertEquals(500, response.status);
+		assertEquals(0, account.getBalance());
+	}
+
+	/*
+	 * The server won't serve a bank whose postings are made one thread at a time
+	 */
+	@Test
+	public void single_threaded_banks_are_refused() {
+		Bank bank = new Bank(new BankContext());
+		assertThrows(IllegalStateException.class, () -> new BankServer(bank, new InetSocketAddress("127.0.0.1", 0), 1));
+	}
+
+	/*
+	 * More clients than the server will work on at once are held back (or told to come back later),
+	 * and nothing they asked for is lost or done twice
+	 */
+	@Test
+	public void requests_over_the_limit_are_held_back() throws Exception {
+		Bank bank = new Bank(new BankContext());
+		Account account = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		start(bank, 2);
+
+		final AtomicInteger accepted = new AtomicInteger();
+		final AtomicInteger busy = new AtomicInteger();
+		run(50, client -> {
+			int status = post("/customers/0/accounts/" + account.getAccountNumber() + "/deposit?amount=1").status;
+			if (status == 200)
+				accepted.incrementAndGet();
+			else if (status == 503)
+				busy.incrementAndGet();
+		});
+
+		assertEquals(50, accepted.get() + busy.get());
+		if (!BankServer.hasVirtualThreads())
+			assertEquals(0, busy.get());
+		assertEquals(accepted.get() * 100L, account.getBalance());
+	}
+
+	/*
+	 * Ten thousand clients at once, each paying a neighbour, are served at a steady rate and leave the bank
+	 * holding exactly what it held before
+	 */
+	@Test
+	public void ten_thousand_concurrent_clients() throws Exception {
+
+		// Given 100 accounts holding $100 each
+		final int clients = 10000;
+		Bank bank = new Bank(new BankContext());
+		Customer henry = new Customer("Henry", bank);
+		final Account[] accounts = new Account[100];
+		for (int i = 0; i < accounts.length; i++) {
+			accounts[i] = henry.openAccount(Account.CHECKING);
+			accounts[i].deposit(100);
+		}
+		start(bank, BankServer.DEFAULT_MAX_IN_FLIGHT);
+
+		// When every client sends a cent to the next account along, all at once
+		final AtomicInteger made = new AtomicInteger();
+		long started = System.nanoTime();
+		run(clients, client -> {
+			Account from = accounts[client % accounts.length];
+			Account to = accounts[(client + 1) % accounts.length];
+			if (post("/customers/0/accounts/" + from.getAccountNumber() + "/send?amount=0.01&to=" + to.getAccountNumber()).status == 200)
+				made.incrementAndGet();
+		});
+		double perSecond = clients / ((System.nanoTime() - started) / 1e9);
+
+		// Every transfer is made and no money appears or disappears
+		assertEquals(clients, made.get());
+		long total = 0;
+		for (Account account : accounts)
+			total += account.getBalance();
+		assertEquals(accounts.length * 10000L, total);
+		assertTrue(bank.checkTotals());
+
+		// And the server keeps up, with room to spare for a slow build machine
+		assertTrue(perSecond >= MIN_REQUESTS_PER_SECOND, String.format("%.0f requests/s", perSecond));
+	}
+
+	/**
+	 * Serves the bank, whose postings are made in concurrent mode
+	 */
+	private void start(Bank bank, int maxInFlight) throws IOException {
+		bank.getContext().getTransactions().setPostingMode(Transactions.PostingMode.CONCURRENT);
+		server = new BankServer(bank, new InetSocketAddress("127.0.0.1", 0), maxInFlight);
+		server.start();
+	}
+
+	private interface Client {
+		void run(int client) throws Exception;
+	}
+
+	/**
+	 * Runs the clients on their own threads, all starting together, and waits for them to finish
+	 */
+	private static void run(int clients, Client client) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>(clients);
+		for (int c = 0; c < clients; c++) {
+			final int id = c;
+			Thread thread = new Thread(null, () -> {
+				try {
+					start.await();
+					client.run(id);
+				} catch (Throwable e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			}, "client-" + c, 256 * 1024);
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+		if (!failures.isEmpty())
+			throw new AssertionError(failures.size() + " clients failed", failures.get(0));
+	}
+
+	private static class Response {
+		final int status;
+		final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	private Response post(String path) throws IOException {
+		return post(path, null);
+	}
+
+	private Response post(String path, String idempotencyKey) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+		connection.setRequestMethod("POST");
+		if (idempotencyKey != null)
+			connection.setRequestProperty("Idempotency-Key", idempotencyKey);
+		connection.setConnectTimeout(60000);
+		connection.setReadTimeout(60000);
+		int status = connection.getResponseCode();
+		try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[256];
+			for (int n; in != null && (n = in.read(buffer)) > 0; )
+				body.write(buffer, 0, n);
+			return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8).trim());
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing saving a bank as a snapshot and restarting from it
+ *
+ */
+public class BankSnapshotTest {
+
+	@TempDir
+	Path folder;
+
+	@AfterEach
+	public void single_threaded_again() {
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.SINGLE_THREADED);
+	}
+
+	/*
+	 * A bank restarted from a snapshot and the end of its journal is the same as before the restart
+	 */
+	@Test
+	public void bank_is_restored_from_snapshot_and_journal() throws IOException {
+
+		// Given a journaled bank with some customers and transactions
+		Path journal = folder.resolve("bank.journal");
+		Path snapshot = folder.resolve("bank.snapshot");
+		Bank bank = Journal.recover(journal, 8, new BankContext());
+		Customer henry = new Customer("Henry", bank);
+		Account checking = henry.openAccount(Account.CHECKING);
+		Account maxi = henry.openAccount(Account.MAXI_SAVINGS);
+		checking.deposit(500);
+		checking.sendMoney(200, maxi);
+		maxi.withdraw(20);
+
+		// And a snapshot, after which more happens
+		BankSnapshot.capture(bank).write(snapshot);
+		Customer bill = new Customer("Bill", bank);
+		Account savings = bill.openAccount(Account.SAVINGS);
+		maxi.sendMoney(30, savings);
+		checking.deposit(1.25);
+		bank.getJournal().close();
+
+		// When the bank is restored
+		Bank restored = BankSnapshot.restore(snapshot, journal, 8, new BankContext());
+
+		// Everything is as it was
+		assertEquals(bank.customerSummary(), restored.customerSummary());
+		for (Account account : new Account[] { checking, maxi, savings }) {
+			Account copy = restored.getAccountByNumber(account.getAccountNumber());
+			assertEquals(account.getBalance(), copy.getBalance());
+			assertEquals(account.getLastWithdrawal(), copy.getLastWithdrawal());
+		}
+		assertEquals(bank.totalDeposits(), restored.totalDeposits());
+		assertEquals(bank.totalInterestPaid(), restored.totalInterestPaid());
+		assertTrue(restored.checkTotals());
+
+		// Only what happened after the snapshot is in the history
+		assertEquals(1, restored.getAccountByNumber(checking.getAccountNumber()).getTransactions().size());
+		restored.getJournal().close();
+	}
+
+	/*
+	 * A snapshot taken while transfers are being posted still restores to exactly the right balances
+	 */
+	@ParameterizedTest
+	@EnumSource(value = Transactions.PostingMode.class, names = { "CONCURRENT", "SHARDED" })
+	public void snapshot_taken_during_posting_is_consistent(Transactions.PostingMode mode) throws Exception {
+
+		// Given a journaled bank with funded accounts, posting concurrently
+		Transactions.getInstance().setPostingMode(mode);
+		Path journal = folder.resolve("busy.journal");
+		Path snapshot = folder.resolve("busy.snapshot");
+		Bank bank = Journal.recover(journal, 64, BankContext.getDefault());
+		final List<Account> accounts = new ArrayList<Account>();
+		for (int c = 0; c < 20; c++) {
+			Account account = new Customer("Customer " + c, bank).openAccount(Account.CHECKING);
+			account.deposit(1000);
+			accounts.add(account);
+		}
+
+		// When a snapshot is taken while transfers are going on
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t = 0; t < 4; t++) {
+			final long seed = t;
+			workers.add(pool.submit(() -> {
+				Random random = new Random(seed);
+				for (int i = 0; i < 20000; i++)
+					accounts.get(random.nextInt(20)).sendMoney(1 + random.nextInt(50), accounts.get(random.nextInt(20)));
+			}));
+		}
+		for (int i = 0; i < 5; i++)
+			BankSnapshot.capture(bank).write(snapshot);
+		for (Future<?> worker : workers)
+			worker.get(1, TimeUnit.MINUTES);
+		pool.shutdown();
+		bank.getJournal().close();
+
+		// The restored bank has exactly the final balances
+		Bank restored = BankSnapshot.restore(snapshot, journal, 64, new BankContext());
+		for (Account account : accounts)
+			assertEquals(account.getBalance(), restored.getAccountByNumber(account.getAccountNumber()).getBalance());
+		assertEquals(20 * 100000, restored.totalDeposits());
+		restored.getJournal().close();
+	}
+
+	/*
+	 * An account opened while a snapshot is being taken is left to the journal, and doesn't push a later
+	 * customer's account out of the snapshot
+	 */
+	@Test
+	public void account_opened_during_capture() throws IOException {
+		Path journal = folder.resolve("opening.journal");
+		Path snapshot = folder.resolve("opening.snapshot");
+		Bank bank = Journal.recover(journal, 4, new BankContext());
+
+		// Bill opens another account just as the snapshot reaches him
+		final boolean[] opened = { false };
+		Customer bill = new Customer("Bill", bank) {
+			@Override
+			List<Account> getAccounts() {
+				if (!opened[0]) {
+					opened[0] = true;
+					openAccount(Account.SAVINGS).deposit(5);
+				}
+				return super.getAccounts();
+			}
+		};
+		Account checking = bill.openAccount(Account.CHECKING);
+		checking.deposit(10);
+		Account henry = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		henry.deposit(20);
+		opened[0] = false;
+
+		BankSnapshot captured = BankSnapshot.capture(bank);
+		assertTrue(opened[0]);
+		assertEquals(2, captured.getNumberOfAccounts());
+		assertEquals(henry.getAccountNumber(), captured.accountNumbers[1]);
+		captured.write(snapshot);
+		bank.getJournal().close();
+
+		// Nothing is lost on a restart
+		Bank restored = BankSnapshot.restore(snapshot, journal, 4, new BankContext());
+		assertEquals(1000, restored.getAccountByNumber(checking.getAccountNumber()).getBalance());
+		assertEquals(2000, restored.getAccountByNumber(henry.getAccountNumber()).getBalance());
+		assertEquals(2, restored.getCustomer(0).getNumberOfAccounts());
+		assertEquals(3500, restored.totalDeposits());
+		restored.getJournal().close();
+	}
+
+	/*
+	 * A damaged snapshot is refused rather than loaded
+	 */
+	@Test
+	public void damaged_snapshot_is_refused() throws IOException {
+		Bank bank = new Bank();
+		new Customer("Henry", bank).openAccount(Account.SAVINGS).deposit(10);
+		Path snapshot = folder.resolve("damaged.snapshot");
+		BankSnapshot.capture(bank).write(snapshot);
+
+		try (RandomAccessFile raw = new RandomAccessFile(snapshot.toFile(), "rw")) {
+			raw.seek(raw.length() - 10);
+			raw.write(raw.read() ^ 1);
+		}
+		assertThrows(IllegalStateException.class, () -> {
+			BankSnapshot.read(snapshot);
+		});
+	}
+
+	/*
+	 * Snapshots can't be scheduled on another thread while postings are made single threaded
+	 */
+	@Test
+	public void scheduling_needs_concurrent_posting() {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		try {
+			assertThrows(IllegalStateException.class, () -> BankSnapshot.schedule(new Bank(), folder.resolve("bank.snapshot"),
+					1, TimeUnit.SECONDS, executor, e -> { }));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/*
+	 * A scheduled snapshot that can't be saved is reported, and the next one is still taken
+	 */
+	@Test
+	public void scheduled_failures_are_reported() throws InterruptedException {
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.CONCURRENT);
+		Bank bank = new Bank();
+		new Customer("Henry", bank).openAccount(Account.CHECKING).deposit(100);
+		CountDownLatch failed = new CountDownLatch(2);
+		List<Exception> failures = new CopyOnWriteArrayList<Exception>();
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		try {
+			ScheduledFuture<?> snapshots = BankSnapshot.schedule(bank, folder.resolve("missing").resolve("bank.snapshot"),
+					10, TimeUnit.MILLISECONDS, executor, e -> {
+						failures.add(e);
+						failed.countDown();
+					});
+			assertTrue(failed.await(10, TimeUnit.SECONDS));
+			assertTrue(failures.get(0) instanceof IOException);
+			assertFalse(snapshots.isDone());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
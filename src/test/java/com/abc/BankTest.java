@@ -1,6 +1,11 @@
 package com.abc;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -59,5 +64,107 @@ public class BankTest {
     	assertEquals("Customer Summary\n - John (1 account)"
     			+ "\n - Bill (2 accounts)", bank.customerSummary());
     }
+    
+    /*
+     * The manager can find any customer's account by its account number
+     */
+    @Test
+    public void bank_can_find_account_by_number() {
+    	
+    	// A bank with two customers and their accounts
+    	Bank bank = new Bank();
+    	Customer john = new Customer("John", bank);
+    	Customer bill = new Customer("Bill", bank);
+    	Account johnAccount = john.openAccount(Account.CHECKING);
+    	Account billAccount = bill.openAccount(Account.SAVINGS);
+    	
+    	// Both accounts can be found, and a number nobody has finds nothing
+    	assertSame(johnAccount, bank.getAccountByNumber(johnAccount.getAccountNumber()));
+    	assertSame(billAccount, bank.getAccountByNumber(billAccount.getAccountNumber()));
+    	assertNull(bank.getAccountByNumber(0));
+    }
+    
+    /*
+     * The running totals follow every kind of transaction and agree with a full recount
+     */
+    @Test
+    public void bank_totals_match_a_recount() {
+    	
+    	// A bank with two customers and one account of each type
+    	Bank bank = new Bank();
+    	Customer john = new Customer("John", bank);
+    	Customer bill = new Customer("Bill", bank);
+    	Account checking = john.openAccount(Account.CHECKING);
+    	Account savings = john.openAccount(Account.SAVINGS);
+    	Account maxi = bill.openAccount(Account.MAXI_SAVINGS);
+    	
+    	// And some transactions of every kind
+    	checking.deposit(500);
+    	savings.deposit(3000);
+    	maxi.deposit(2000);
+    	checking.sendMoney(100, maxi);
+    	maxi.withdraw(50);
+    	savings.sendMoney(2500, checking);
+    	
+    	// The totals are right and match going through every account
+    	assertEquals(545000, bank.totalDeposits());
+    	assertEquals(290000, bank.getTotals().totalBalance(Account.CHECKING));
+    	assertEquals(1, bank.getTotals().numberOfAccounts(Account.MAXI_SAVINGS));
+    	assertEquals(checking.interestEarned() + savings.interestEarned() + maxi.interestEarned(), bank.totalInterestPaid());
+    	assertTrue(bank.checkTotals());
+    }
 
+    /*
+     * However often money leaves a Maxi Savings account, it only waits once for its last withdrawal to age out
+     */
+    @Test
+    public void one_expiry_per_account() {
+    	FakeClock clock = new FakeClock(TimeUnit.DAYS.toMillis(20000));
+    	Bank bank = new Bank(new BankContext(new AccountNumber(), clock));
+    	Account maxi = new Customer("Bill", bank).openAccount(Account.MAXI_SAVINGS);
+    	maxi.deposit(5000);
+    	
+    	// Withdrawals an hour apart over two days
+    	for (int i = 0; i < 48; i++) {
+    		maxi.withdraw(1);
+    		clock.advance(1, TimeUnit.HOURS);
+    	}
+    	assertEquals(1, bank.getTotals().queuedExpiries());
+    	assertTrue(bank.checkTotals());
+    	
+    	// Once the first has aged out the account is waiting for the last
+    	clock.advance(9, TimeUnit.DAYS);
+    	assertTrue(bank.checkTotals());
+    	assertEquals(1, bank.getTotals().queuedExpiries());
+    	
+    	// And once that one has too, the full interest is back and nothing is waiting
+    	clock.advance(2, TimeUnit.DAYS);
+    	assertEquals(maxi.interestEarned(), bank.getTotals().totalInterest(Account.MAXI_SAVINGS));
+    	assertTrue(bank.checkTotals());
+    	assertEquals(0, bank.getTotals().queuedExpiries());
+    }
+
+    /*
+     * An account queued again for a later withdrawal doesn't hold up another account due before it
+     */
+    @Test
+    public void expiries_are_kept_in_time_order() {
+    	FakeClock clock = new FakeClock(TimeUnit.DAYS.toMillis(20000));
+    	Bank bank = new Bank(new BankContext(new AccountNumber(), clock));
+    	Account first = new Customer("Bill", bank).openAccount(Account.MAXI_SAVINGS);
+    	Account second = new Customer("Henry", bank).openAccount(Account.MAXI_SAVINGS);
+    	first.deposit(1000);
+    	second.deposit(1000);
+
+    	// Money leaves the first account on days 0 and 5, and the second on day 6
+    	for (int day = 0; day <= 20; day++) {
+    		if (day == 0 || day == 5)
+    			first.withdraw(1);
+    		if (day == 6)
+    			second.withdraw(1);
+    		assertTrue("Day " + day, bank.checkTotals());
+    		clock.advance(1, TimeUnit.DAYS);
+    	}
+    	assertEquals(0, bank.getTotals().queuedExpiries());
+    }
 }
@@ -0,0 +1,65 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing the coarse clock kept by a ticker thread
+ *
+ */
+public class CachedClockTest {
+
+	/*
+	 * The clock tells the system time to within a few ticks, and moves on by itself
+	 */
+	@Test
+	public void clock_follows_the_system_clock() throws InterruptedException {
+		try (CachedClock clock = new CachedClock(1, TimeUnit.MILLISECONDS)) {
+			long before = System.currentTimeMillis();
+			long first = clock.nowMillis();
+			assertTrue(Math.abs(first - before) < 1000);
+
+			Thread.sleep(50);
+			assertTrue(clock.nowMillis() > first);
+			assertTrue(Math.abs(clock.nowMillis() - System.currentTimeMillis()) < 1000);
+		}
+	}
+
+	/*
+	 * Once closed the clock stops at its last tick
+	 */
+	@Test
+	public void closed_clock_stops() throws InterruptedException {
+		CachedClock clock = new CachedClock();
+		clock.close();
+		long stopped = clock.nowMillis();
+		Thread.sleep(20);
+		assertEquals(stopped, clock.nowMillis());
+	}
+
+	/*
+	 * A bank can post with a cached clock
+	 */
+	@Test
+	public void bank_posts_with_cached_clock() {
+		try (CachedClock clock = new CachedClock()) {
+			Bank bank = new Bank(new BankContext(new AccountNumber(), clock));
+			Account account = new Customer("Bill", bank).openAccount(Account.CHECKING);
+			account.deposit(10);
+			assertTrue(Math.abs(account.getTransactions().get(0).getTime() - System.currentTimeMillis()) < 1000);
+			assertTrue(account.getTransactions().get(0).IsRecentTransaction());
+		}
+	}
+
+	@Test
+	public void tick_must_be_positive() {
+		assertThrows(IllegalArgumentException.class, () -> new CachedClock(0, TimeUnit.MILLISECONDS));
+	}
+}
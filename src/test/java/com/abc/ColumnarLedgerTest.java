@@ -0,0 +1,202 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing the columnar transaction store
+ *
+ */
+public class ColumnarLedgerTest {
+
+	@AfterEach
+	public void default_storage_again() {
+		Transactions.getInstance().setStorage(Transactions.Storage.OBJECTS);
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.SINGLE_THREADED);
+	}
+
+	/*
+	 * Transactions read back from the columns are the ones that were posted
+	 */
+	@Test
+	public void transactions_are_read_back_from_columns() {
+		ColumnarLedger ledger = new ColumnarLedger();
+		Bank bank = new Bank();
+		Account checking = new Customer("Bill", bank).openAccount(Account.CHECKING);
+		Account savings = new Customer("Henry", bank).openAccount(Account.SAVINGS);
+
+		ledger.add(10000, null, checking, 1000L, false);
+		ledger.add(2500, checking, savings, 2000L, false);
+		ledger.add(300, savings, null, 3000L, false);
+		ledger.add(50, savings, savings, 4000L, false);
+
+		List<Transaction> history = ledger.getTransactions(savings, false);
+		assertEquals(3, history.size());
+		Transaction received = history.get(0);
+		assertEquals(2500, received.getAmount());
+		assertSame(checking, received.getFromAccount());
+		assertSame(savings, received.getToAccount());
+		assertEquals(2000L, received.getTime());
+		assertNull(history.get(1).getToAccount());
+		assertSame(history.get(2).getFromAccount(), history.get(2).getToAccount());
+		assertEquals(2, ledger.getTransactions(checking, false).size());
+		assertEquals(4, ledger.size());
+	}
+
+	/*
+	 * Visiting a history gives what each transaction did to the account and the other account,
+	 * as worked out when posted, for both kinds of storage and after the clock goes back
+	 */
+	@Test
+	public void visits_match_transactions() {
+		for (Ledger ledger : new Ledger[] { new ColumnarLedger(), new ObjectLedger() }) {
+			Bank bank = new Bank();
+			Account checking = new Customer("Bill", bank).openAccount(Account.CHECKING);
+			Account savings = new Customer("Henry", bank).openAccount(Account.SAVINGS);
+
+			ledger.add(10000, null, savings, 1000L, false);
+			ledger.add(2500, checking, savings, 2000L, false);
+			ledger.add(300, savings, null, 3000L, false);
+			ledger.add(50, savings, savings, 4000L, false);
+			ledger.add(70, savings, checking, 1500L, false);
+
+			final List<String> visited = new ArrayList<String>();
+			ledger.visit(savings, 0, ledger.count(savings), (direction, amount, counterparty) ->
+					visited.add(direction + " " + amount + " " + (counterparty == null ? "-" : counterparty.getLabel())));
+
+			assertEquals(Arrays.asList(
+					Transaction.DEPOSIT + " 10000 -",
+					Transaction.SENT + " 70 " + checking.getLabel(),
+					Transaction.RECEIVED + " 2500 " + checking.getLabel(),
+					Transaction.WITHDRAWAL + " 300 -",
+					Transaction.TO_SELF + " 50 " + savings.getLabel()), visited);
+
+			List<String> expected = new ArrayList<String>();
+			for (Transaction t : ledger.getTransactions(savings, false)) {
+				Account counterparty = t.getCounterparty(savings);
+				expected.add(t.getDirection(savings) + " " + t.getAmount() + " " + (counterparty == null ? "-" : counterparty.getLabel()));
+			}
+			assertEquals(expected, visited);
+		}
+	}
+
+	/*
+	 * The columns keep growing past the size of a chunk
+	 */
+	@Test
+	public void ledger_grows_across_chunks() {
+		ColumnarLedger ledger = new ColumnarLedger();
+		Account account = new Customer("Bill", new Bank()).openAccount(Account.CHECKING);
+		int postings = 2 * ColumnarLedger.CHUNK_SIZE + 10;
+		for (int i = 0; i < postings; i++)
+			ledger.add(i, null, account, i, false);
+
+		List<Transaction> history = ledger.getTransactions(account, false);
+		assertEquals(postings, history.size());
+		assertEquals(ColumnarLedger.CHUNK_SIZE, history.get(ColumnarLedger.CHUNK_SIZE).getAmount());
+		assertEquals(postings - 1, history.get(postings - 1).getTime());
+	}
+
+	/*
+	 * A history that has been handed out doesn't change and can't be changed
+	 */
+	@Test
+	public void history_is_fixed_when_read() {
+		Transactions.getInstance().setStorage(Transactions.Storage.COLUMNAR);
+		Account account = new Customer("Bill", new Bank()).openAccount(Account.CHECKING);
+		account.deposit(100);
+		List<Transaction> history = account.getTransactions();
+
+		for (int i = 0; i < 10; i++)
+			account.deposit(1);
+		assertEquals(1, history.size());
+		assertEquals(11, account.getTransactions().size());
+		assertThrows(UnsupportedOperationException.class, () -> {
+			history.clear();
+		});
+		assertThrows(IndexOutOfBoundsException.class, () -> {
+			history.get(1);
+		});
+	}
+
+	/*
+	 * Customers see the same statements whichever way transactions are stored
+	 */
+	@Test
+	public void statements_match_object_storage() {
+		assertEquals(statementAfterPostings(Transactions.Storage.OBJECTS), statementAfterPostings(Transactions.Storage.COLUMNAR));
+	}
+
+	private static String statementAfterPostings(Transactions.Storage storage) {
+		Transactions.getInstance().setStorage(storage);
+		Bank bank = new Bank();
+		Customer henry = new Customer("Henry", bank);
+		Account checking = henry.openAccount(Account.CHECKING, 100001);
+		Account savings = henry.openAccount(Account.SAVINGS, 100002);
+		checking.deposit(100);
+		savings.deposit(4000);
+		checking.sendMoney(25.50, savings);
+		savings.withdraw(200);
+		savings.sendMoney(1, savings);
+		checking.withdraw(1000);
+		return henry.getStatement();
+	}
+
+	/*
+	 * Many threads posting into the columns at once don't lose or mix up transactions
+	 */
+	@Test
+	public void concurrent_postings_are_all_stored() throws Exception {
+		Transactions.getInstance().setStorage(Transactions.Storage.COLUMNAR);
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.CONCURRENT);
+		Bank bank = new Bank();
+		final List<Account> accounts = new ArrayList<Account>();
+		for (int i = 0; i < 16; i++) {
+			Account account = new Customer("Customer " + i, bank).openAccount(Account.CHECKING);
+			account.deposit(1000);
+			accounts.add(account);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t = 0; t < 8; t++) {
+			final long seed = t;
+			workers.add(pool.submit(() -> {
+				Random random = new Random(seed);
+				for (int i = 0; i < 50000; i++)
+					accounts.get(random.nextInt(16)).sendMoney(1 + random.nextInt(20), accounts.get(random.nextInt(16)));
+			}));
+		}
+		for (Future<?> worker : workers)
+			worker.get(1, TimeUnit.MINUTES);
+		pool.shutdown();
+
+		// Every balance matches its history
+		for (Account account : accounts) {
+			long sum = 0;
+			for (Transaction t : account.getTransactions()) {
+				if (t.getToAccount() == account)
+					sum += t.getAmount();
+				if (t.getFromAccount() == account)
+					sum -= t.getAmount();
+			}
+			assertEquals(account.getBalance(), sum);
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package com.abc;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
 
 import org.junit.Test;
 
@@ -12,8 +16,6 @@ import org.junit.Test;
  */
 public class CustomerTest {
 	
-    private static final double DOUBLE_DELTA = 1e-15;
-
     /*
      * A customer should be able to open an account
      */
@@ -79,7 +81,7 @@ public class CustomerTest {
     	// If the customer deposits, it should show up
     	bill.deposit(account.getAccountNumber(), 100);
     	
-    	assertEquals(100.0, account.getBalance(), DOUBLE_DELTA);
+    	assertEquals(10000, account.getBalance());
     }
     
     /*
@@ -98,7 +100,7 @@ public class CustomerTest {
     	// Withdraw some money
     	bill.withdraw(account.getAccountNumber(), 50);
     	
-    	assertEquals(50.0, account.getBalance(), DOUBLE_DELTA);
+    	assertEquals(5000, account.getBalance());
     }
     
     /*
@@ -163,4 +165,25 @@ public class CustomerTest {
     			"\n" +
     			"Total In All Accounts $40.00", henry.getStatement());
     }
+    
+    /*
+     * A statement written out a piece at a time is the same as the one returned as a string
+     */
+    @Test
+    public void statement_can_be_written_to_a_writer() throws IOException {
+    	
+    	// Given a customer with a long history
+    	Customer henry = new Customer("Henry", new Bank());
+    	Account checkingAccount = henry.openAccount(Account.CHECKING);
+    	Account savingsAccount = henry.openAccount(Account.SAVINGS);
+    	checkingAccount.deposit(100000);
+    	for (int i = 0; i < 2000; i++)
+    		checkingAccount.sendMoney(1.25, savingsAccount);
+    	
+    	// Writing it to a writer gives the same statement
+    	StringWriter out = new StringWriter();
+    	henry.writeStatement(out);
+    	assertEquals(henry.getStatement(), out.toString());
+    	assertTrue(out.toString().endsWith("Total In All Accounts $100,000.00"));
+    }
 }
@@ -0,0 +1,47 @@
+package com.abc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Eddy Brown
+ *
+ * A clock that only moves when it is told to, so tests can post transactions at chosen times and
+ * watch withdrawals age without waiting. It keeps nanoseconds, so moving it on by less than a
+ * millisecond at a time still adds up.
+ * Any thread may move it; readers on other threads see the new time straight away.
+ *
+ */
+class FakeClock extends DateProvider {
+
+	private final AtomicLong nanos;
+
+	/**
+	 * @param millis	The time to start at, in milliseconds since the epoch
+	 */
+	FakeClock(long millis) {
+		nanos = new AtomicLong(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	/**
+	 * Moves the clock to a given time, forwards or back
+	 * @param millis	Milliseconds since the epoch
+	 */
+	void set(long millis) {
+		nanos.set(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	/**
+	 * Moves the clock on
+	 * @param amount	How far, backwards if negative
+	 * @param unit		The unit of the amount
+	 */
+	void advance(long amount, TimeUnit unit) {
+		nanos.addAndGet(unit.toNanos(amount));
+	}
+
+	@Override
+	long nowMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(nanos.get());
+	}
+}
@@ -0,0 +1,58 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing the clock tests control
+ *
+ */
+public class FakeClockTest {
+
+	/*
+	 * The clock stays where it is put, its milliseconds and dates agree, and small steps add up
+	 */
+	@Test
+	public void clock_only_moves_when_told() {
+		FakeClock clock = new FakeClock(1000);
+		assertEquals(1000, clock.nowMillis());
+		assertEquals(1000, clock.now().getTime());
+
+		clock.advance(1500, TimeUnit.MICROSECONDS);
+		assertEquals(1001, clock.nowMillis());
+		clock.advance(500, TimeUnit.MICROSECONDS);
+		assertEquals(1002, clock.nowMillis());
+
+		clock.advance(2, TimeUnit.DAYS);
+		assertEquals(2, clock.dateDifference(new Date(1000)));
+
+		clock.set(5);
+		assertEquals(5, clock.nowMillis());
+	}
+
+	/*
+	 * Transactions are dated by the clock of their bank's context and age as it moves
+	 */
+	@Test
+	public void transactions_age_with_the_clock() {
+		FakeClock clock = new FakeClock(TimeUnit.DAYS.toMillis(1000));
+		Bank bank = new Bank(new BankContext(new AccountNumber(), clock));
+		Account account = new Customer("Bill", bank).openAccount(Account.CHECKING);
+		account.deposit(10);
+		Transaction deposit = account.getTransactions().get(0);
+		assertEquals(TimeUnit.DAYS.toMillis(1000), deposit.getTime());
+
+		clock.advance(Transaction.TRANSACTION_AGE_DAYS, TimeUnit.DAYS);
+		assertTrue(deposit.IsRecentTransaction());
+		clock.advance(1, TimeUnit.DAYS);
+		assertFalse(deposit.IsRecentTransaction());
+	}
+}
@@ -0,0 +1,149 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing the cache of postings made with idempotency keys
+ *
+ */
+public class IdempotencyCacheTest {
+
+	/*
+	 * A key's outcome is found again until its window has passed
+	 */
+	@Test
+	public void outcomes_are_kept_for_the_window() {
+		Bank bank = new Bank();
+		Account bill = new Customer("Bill", bank).openAccount(Account.CHECKING);
+		Account henry = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		IdempotencyCache cache = new IdempotencyCache(64, 1000);
+
+		assertNull(cache.find("a", bill, henry, 500, 0));
+		put(cache, "a", bill, henry, 500, PostingBatch.Outcome.ACCEPTED, 0);
+		put(cache, "b", null, henry, 100, PostingBatch.Outcome.INSUFFICIENT_FUNDS, 0);
+
+		assertEquals(PostingBatch.Outcome.ACCEPTED, cache.find("a", bill, henry, 500, 999));
+		assertEquals(PostingBatch.Outcome.INSUFFICIENT_FUNDS, cache.find("b", null, henry, 100, 999));
+		assertNull(cache.find("a", bill, henry, 500, 1000));
+
+		// Once it has expired the key can be used again
+		put(cache, "a", bill, henry, 500, PostingBatch.Outcome.INSUFFICIENT_FUNDS, 1000);
+		assertEquals(PostingBatch.Outcome.INSUFFICIENT_FUNDS, cache.find("a", bill, henry, 500, 1500));
+	}
+
+	/*
+	 * An account can't use a key again for a posting of another amount or to another account
+	 */
+	@Test
+	public void keys_belong_to_one_posting() {
+		Bank bank = new Bank();
+		Account bill = new Customer("Bill", bank).openAccount(Account.CHECKING);
+		Account henry = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		Account oscar = new Customer("Oscar", bank).openAccount(Account.CHECKING);
+		IdempotencyCache cache = new IdempotencyCache(64, 1000);
+		put(cache, "a", bill, henry, 500, PostingBatch.Outcome.ACCEPTED, 0);
+
+		assertThrows(IllegalArgumentException.class, () -> cache.find("a", bill, henry, 501, 0));
+		assertThrows(IllegalArgumentException.class, () -> cache.find("a", bill, oscar, 500, 0));
+		assertThrows(IllegalArgumentException.class, () -> cache.find("a", bill, null, 500, 0));
+	}
+
+	/*
+	 * Each account has its own keys, so another customer choosing the same key is a different posting
+	 */
+	@Test
+	public void keys_belong_to_one_account() {
+		Bank bank = new Bank();
+		Account bill = new Customer("Bill", bank).openAccount(Account.CHECKING);
+		Account henry = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		IdempotencyCache cache = new IdempotencyCache(64, 1000);
+		put(cache, "a", bill, henry, 500, PostingBatch.Outcome.ACCEPTED, 0);
+
+		assertNull(cache.find("a", henry, bill, 500, 0));
+		assertNull(cache.find("a", null, henry, 900, 0));
+		put(cache, "a", henry, bill, 500, PostingBatch.Outcome.INSUFFICIENT_FUNDS, 0);
+		assertEquals(PostingBatch.Outcome.ACCEPTED, cache.find("a", bill, henry, 500, 0));
+		assertEquals(PostingBatch.Outcome.INSUFFICIENT_FUNDS, cache.find("a", henry, bill, 500, 0));
+	}
+
+	/*
+	 * However many keys are used the cache stays the same size: once it is full, the keys nearest the end of
+	 * their window make room for new ones
+	 */
+	@Test
+	public void cache_is_bounded() {
+		Account bill = new Customer("Bill", new Bank()).openAccount(Account.CHECKING);
+		IdempotencyCache cache = new IdempotencyCache(100, 100000);
+		assertEquals(128, cache.getCapacity());
+
+		// Every key is taken, one a millisecond
+		for (int i = 0; i < 10000; i++)
+			put(cache, "key-" + i, null, bill, i, PostingBatch.Outcome.ACCEPTED, i);
+
+		// Only the newest are still there
+		int found = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (cache.find("key-" + i, null, bill, i, 10000) != null)
+				found++;
+		}
+		assertTrue(found >= 128 && found <= 256, "found " + found);
+		assertNull(cache.find("key-0", null, bill, 0, 10000));
+		assertEquals(PostingBatch.Outcome.ACCEPTED, cache.find("key-9999", null, bill, 9999, 10000));
+	}
+
+	/*
+	 * A key whose posting is still being made is never dropped, so a new key is only refused when all the
+	 * slots it can go in hold postings in progress
+	 */
+	@Test
+	public void keys_in_progress_are_kept() {
+		Account bill = new Customer("Bill", new Bank()).openAccount(Account.CHECKING);
+		IdempotencyCache cache = new IdempotencyCache(1, 1000);
+		IdempotencyCache.Claim[] claims = new IdempotencyCache.Claim[16];
+		for (int i = 0; i < claims.length; i++)
+			claims[i] = cache.claim("key-" + i, null, bill, i, 0);
+		assertThrows(IllegalStateException.class, () -> cache.claim("key-new", null, bill, 1, 0));
+
+		// Once one is settled it can make room
+		cache.settle(claims[3], PostingBatch.Outcome.ACCEPTED);
+		IdempotencyCache.Claim taken = cache.claim("key-new", null, bill, 1, 0);
+		assertNull(cache.find("key-3", null, bill, 3, 0));
+
+		// And a claim that was taken over can't be settled or released by its old owner
+		cache.settle(claims[3], PostingBatch.Outcome.INSUFFICIENT_FUNDS);
+		cache.release(claims[3]);
+		assertEquals(PostingBatch.Outcome.PENDING, cache.find("key-new", null, bill, 1, 0));
+		cache.settle(taken, PostingBatch.Outcome.ACCEPTED);
+		assertEquals(PostingBatch.Outcome.ACCEPTED, cache.find("key-new", null, bill, 1, 0));
+	}
+
+	/*
+	 * A key whose posting failed can be tried again
+	 */
+	@Test
+	public void released_keys_can_be_used_again() {
+		Account bill = new Customer("Bill", new Bank()).openAccount(Account.CHECKING);
+		IdempotencyCache cache = new IdempotencyCache(64, 1000);
+		cache.release(cache.claim("a", null, bill, 100, 0));
+		assertNull(cache.find("a", null, bill, 100, 0));
+		put(cache, "a", null, bill, 100, PostingBatch.Outcome.ACCEPTED, 0);
+		assertEquals(PostingBatch.Outcome.ACCEPTED, cache.find("a", null, bill, 100, 0));
+	}
+
+	@Test
+	public void capacity_and_window_must_be_positive() {
+		assertThrows(IllegalArgumentException.class, () -> new IdempotencyCache(0, 1000));
+		assertThrows(IllegalArgumentException.class, () -> new IdempotencyCache(16, 0));
+	}
+
+	private static void put(IdempotencyCache cache, String key, Account fromAccount, Account toAccount, long amount, PostingBatch.Outcome outcome, long now) {
+		cache.settle(cache.claim(key, fromAccount, toAccount, amount, now), outcome);
+	}
+}
@@ -0,0 +1,107 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing the daily interest accrual
+ *
+ */
+public class InterestAccrualTest {
+
+	@AfterEach
+	public void single_threaded_again() {
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.SINGLE_THREADED);
+	}
+
+	/*
+	 * A day's interest is a 365th of the yearly rate for each product
+	 */
+	@Test
+	public void daily_interest_per_product() {
+		Customer bill = new Customer("Bill", new Bank());
+		Account checking = bill.openAccount(Account.CHECKING);
+		Account savings = bill.openAccount(Account.SAVINGS);
+		Account maxi = bill.openAccount(Account.MAXI_SAVINGS);
+		checking.deposit(3650000);
+		savings.deposit(1000 + 1825000);
+		maxi.deposit(365000);
+
+		assertEquals(1000, checking.dailyInterest());
+		assertEquals(0 + 1000, savings.dailyInterest());	// the first $1,000 earns less than a cent a day
+		assertEquals(5000, maxi.dailyInterest());
+	}
+
+	/*
+	 * Accrued interest is paid in, and shown as interest rather than as a deposit
+	 */
+	@Test
+	public void interest_is_credited() {
+		Bank bank = new Bank();
+		Account maxi = new Customer("Bill", bank).openAccount(Account.MAXI_SAVINGS);
+		maxi.deposit(365000);
+
+		long[] credited = new InterestAccrual(null).accrue(bank);
+
+		assertEquals(5000, credited[Account.MAXI_SAVINGS.getId()]);
+		assertEquals(36500000 + 5000, maxi.getBalance());
+		List<Transaction> last = maxi.getLastTransactions(1);
+		assertEquals(5000, last.get(0).getAmount());
+		assertEquals(Transaction.INTEREST, last.get(0).getDirection(maxi));
+		assertTrue(maxi.getCustomer().getStatement().contains("  interest: $50.00\n"));
+		assertTrue(bank.checkTotals());
+	}
+
+	/*
+	 * Splitting the work across cores gives exactly the same result as doing it on one thread
+	 */
+	@Test
+	public void parallel_accrual_matches_sequential() {
+		Account[] sequential = book(20000);
+		Account[] parallel = book(20000);
+
+		long[] sequentialTotals = new InterestAccrual(null).accrue(sequential[0].getCustomer().getBank());
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.CONCURRENT);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		long[] parallelTotals;
+		try {
+			parallelTotals = new InterestAccrual(pool).accrue(parallel[0].getCustomer().getBank());
+		} finally {
+			pool.shutdown();
+		}
+
+		assertArrayEquals(sequentialTotals, parallelTotals);
+		for (int i = 0; i < sequential.length; i++)
+			assertEquals(sequential[i].getBalance(), parallel[i].getBalance());
+		Bank bank = parallel[0].getCustomer().getBank();
+		assertEquals(sequential[0].getCustomer().getBank().totalDeposits(), bank.totalDeposits());
+		assertTrue(bank.checkTotals());
+	}
+
+	/*
+	 * A bank full of accounts of every type with random balances, the same every time
+	 */
+	private static Account[] book(int size) {
+		Random random = new Random(7);
+		Bank bank = new Bank();
+		Account[] accounts = new Account[size];
+		Customer customer = null;
+		for (int i = 0; i < size; i++) {
+			if (i % 3 == 0)
+				customer = new Customer("Customer " + i, bank);
+			accounts[i] = customer.openAccount(InterestProduct.get(random.nextInt(3)));
+			accounts[i].deposit(random.nextInt(10000000) / 100.0);
+		}
+		return accounts;
+	}
+}
@@ -0,0 +1,116 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing interest products and their tier tables
+ *
+ */
+public class InterestProductTest {
+
+	/*
+	 * The standard products keep their numbers, which are what the journal records
+	 */
+	@Test
+	public void standard_products() {
+		assertEquals(0, Account.CHECKING.getId());
+		assertEquals(1, Account.SAVINGS.getId());
+		assertEquals(2, Account.MAXI_SAVINGS.getId());
+		assertSame(Account.SAVINGS, InterestProduct.get(1));
+		assertEquals("Maxi Savings Account\n", Account.MAXI_SAVINGS.getStatementTitle());
+	}
+
+	/*
+	 * A new multi-tier product can be set up from configuration and used straight away
+	 */
+	@Test
+	public void product_is_loaded_from_configuration() {
+
+		// Given a premier savings product with three tiers, and a lower rate for 30 days after a withdrawal
+		Properties configuration = new Properties();
+		configuration.setProperty("product.10.name", "Premier Savings");
+		configuration.setProperty("product.10.tiers", "0:0.1%, 1000:0.5%, 50000:1.25%");
+		configuration.setProperty("product.10.withdrawalTiers", "0:0.05%");
+		configuration.setProperty("product.10.withdrawalDays", "30");
+		List<InterestProduct> loaded = InterestProduct.load(configuration);
+		assertEquals(1, loaded.size());
+		InterestProduct premier = loaded.get(0);
+
+		// When a customer opens one with $60,000
+		Bank bank = new Bank();
+		Customer bill = new Customer("Bill", bank);
+		Account account = bill.openAccount(premier);
+		account.deposit(60000);
+
+		// Each tier pays its own rate: $1 + $245 + $125
+		assertEquals(100 + 24500 + 12500, account.interestEarned());
+		assertTrue(bill.getStatement().contains("Premier Savings Account\n"));
+		assertEquals(1, bank.getTotals().numberOfAccounts(premier));
+		assertTrue(bank.checkTotals());
+
+		// And after a withdrawal the lower rate applies
+		account.withdraw(10000);
+		assertEquals(2500, account.interestEarned());
+		assertTrue(bank.checkTotals());
+	}
+
+	/*
+	 * The compiled tables give the same interest as working through the tiers one at a time
+	 */
+	@Test
+	public void tier_table_matches_tier_by_tier_calculation() {
+		InterestProduct product = InterestProduct.define(11, "Stepped", "0:0.5%, 10:1%, 2500.50:2.25%, 100000:3%");
+		long[] starts = { 0, 1000, 250050, 10000000 };
+		long[] rates = { 5000, 10000, 22500, 30000 };
+		Random random = new Random(3);
+		for (int i = 0; i < 10000; i++) {
+			long balance = random.nextInt(20000000);
+			for (int periods : new int[] { 1, InterestAccrual.DAYS_PER_YEAR, 12 }) {
+				long expected = 0;
+				for (int tier = 0; tier < starts.length; tier++) {
+					long top = tier + 1 < starts.length ? starts[tier + 1] : Long.MAX_VALUE;
+					if (balance > starts[tier])
+						expected += Money.applyRate(Math.min(balance, top) - starts[tier], rates[tier], periods, InterestProduct.ROUNDING);
+				}
+				assertEquals(expected, product.interest(balance, false, periods));
+			}
+		}
+	}
+
+	/*
+	 * Products that are described wrongly or clash with another are refused
+	 */
+	@Test
+	public void bad_products_are_refused() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			InterestProduct.define(12, "No Start", "100:1%");
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			InterestProduct.define(12, "Backwards", "0:1%, 500:2%, 400:3%");
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			InterestProduct.define(12, "No Percent", "0:1");
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			InterestProduct.define(12, "Fraction", "0:0.00001%");
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			InterestProduct.define(1, "Not Savings", "0:1%");
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			InterestProduct.get(InterestProduct.MAX_PRODUCTS);
+		});
+		assertSame(Account.SAVINGS, InterestProduct.define(1, "Savings", "0:0.1%, 1000:0.2%"));
+	}
+}
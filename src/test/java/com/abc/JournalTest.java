@@ -0,0 +1,216 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing the journal and rebuilding a bank from it after a restart
+ *
+ */
+public class JournalTest {
+
+	@TempDir
+	Path folder;
+
+	/*
+	 * A bank rebuilt from its journal has the same customers, accounts, balances and statements
+	 */
+	@Test
+	public void bank_is_rebuilt_from_journal() throws IOException {
+
+		// Given a journaled bank with some customers and transactions
+		Path file = folder.resolve("bank.journal");
+		Bank bank = Journal.recover(file, 4, new BankContext());
+		Customer henry = new Customer("Henry", bank);
+		Customer bill = new Customer("Bill", bank);
+		Account henryAccount = henry.openAccount(Account.CHECKING);
+		Account billAccount = bill.openAccount(Account.MAXI_SAVINGS);
+		henryAccount.deposit(100);
+		billAccount.deposit(250.50);
+		henryAccount.sendMoney(40, billAccount);
+		billAccount.withdraw(10);
+		henryAccount.withdraw(1000);
+		henry.openAccount(Account.SAVINGS).deposit(1000000);
+		new InterestAccrual(null).accrue(bank);
+		bank.getJournal().close();
+
+		// When it is rebuilt
+		Bank recovered = Journal.recover(file, 4, new BankContext());
+
+		// Everything is as it was
+		assertEquals(bank.customerSummary(), recovered.customerSummary());
+		assertEquals(henry.getStatement(), recovered.getCustomer(0).getStatement());
+		assertEquals(bill.getStatement(), recovered.getCustomer(1).getStatement());
+		Account recoveredBill = recovered.getAccountByNumber(billAccount.getAccountNumber());
+		assertEquals(billAccount.getBalance(), recoveredBill.getBalance());
+		assertEquals(billAccount.getLastWithdrawal(), recoveredBill.getLastWithdrawal());
+		assertEquals(bank.totalInterestPaid(), recovered.totalInterestPaid());
+		assertTrue(recovered.getCustomer(0).getStatement().contains("  interest: $5.47\n"));
+		recovered.getJournal().close();
+	}
+
+	/*
+	 * Half a record at the end of the journal (the process died while writing it) is dropped,
+	 * and the journal carries on cleanly from the last complete record
+	 */
+	@Test
+	public void torn_write_is_ignored_and_truncated() throws IOException {
+
+		// Given a journal of a customer, an account and two deposits
+		Path file = folder.resolve("torn.journal");
+		Bank bank = Journal.recover(file, 1, new BankContext());
+		Account account = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		account.deposit(100);
+		account.deposit(20);
+		bank.getJournal().close();
+		assertEquals(4 * Journal.RECORD_SIZE, Files.size(file));
+
+		// When the last record is only half written
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(3 * Journal.RECORD_SIZE + Journal.RECORD_SIZE / 2);
+		}
+
+		// Only the complete records are replayed and the torn one is cut off
+		Bank recovered = Journal.recover(file, 1, new BankContext());
+		Account recoveredAccount = recovered.getAccountByNumber(account.getAccountNumber());
+		assertEquals(10000, recoveredAccount.getBalance());
+		assertEquals(3 * Journal.RECORD_SIZE, Files.size(file));
+
+		// And new records follow on from there
+		recoveredAccount.deposit(5);
+		recovered.getJournal().close();
+		Bank again = Journal.recover(file, 1, new BankContext());
+		assertEquals(10500, again.getAccountByNumber(account.getAccountNumber()).getBalance());
+		again.getJournal().close();
+	}
+
+	/*
+	 * A record whose contents don't match its checksum ends the journal
+	 */
+	@Test
+	public void corrupted_record_ends_the_journal() throws IOException {
+
+		Path file = folder.resolve("corrupt.journal");
+		Bank bank = Journal.recover(file, 1, new BankContext());
+		Account account = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		account.deposit(100);
+		account.deposit(20);
+		account.deposit(3);
+		bank.getJournal().close();
+
+		// Flip a bit in the amount of the second deposit
+		try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+			raw.seek(3 * Journal.RECORD_SIZE + 19);
+			raw.write(raw.read() ^ 1);
+		}
+
+		// Only the first deposit survives
+		Bank recovered = Journal.recover(file, 1, new BankContext());
+		assertEquals(10000, recovered.getAccountByNumber(account.getAccountNumber()).getBalance());
+		recovered.getJournal().close();
+	}
+
+	/*
+	 * Records are written in batches, and sync() writes out a partial batch
+	 */
+	@Test
+	public void records_are_written_in_batches() throws IOException {
+
+		Path file = folder.resolve("batched.journal");
+		Bank bank = Journal.recover(file, 10, new BankContext());
+		bank.getJournal().setLinger(1, TimeUnit.HOURS);
+		Account account = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		for (int i = 0; i < 12; i++)
+			account.deposit(1);
+
+		// One full batch of ten goes to disk on the flusher thread, the other four records are waiting
+		long deadline = System.currentTimeMillis() + 10000;
+		while (bank.getJournal().durableSequence() < 10 && System.currentTimeMillis() < deadline)
+			Thread.yield();
+		assertEquals(10, bank.getJournal().durableSequence());
+		assertEquals(10 * Journal.RECORD_SIZE, Files.size(file));
+		assertEquals(14, bank.getJournal().lastSequence());
+
+		bank.getJournal().sync();
+		assertEquals(14 * Journal.RECORD_SIZE, Files.size(file));
+		bank.getJournal().close();
+	}
+
+	/*
+	 * A batch that doesn't fill up still goes to disk once it has lingered, without anyone syncing it
+	 */
+	@Test
+	public void partial_batch_is_written_after_its_linger() throws IOException {
+		Path file = folder.resolve("quiet.journal");
+		Bank bank = Journal.recover(file, 100, new BankContext());
+		bank.getJournal().setLinger(5, TimeUnit.MILLISECONDS);
+		new Customer("Henry", bank);
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (bank.getJournal().durableSequence() < 1 && System.currentTimeMillis() < deadline)
+			Thread.yield();
+		assertEquals(1, bank.getJournal().durableSequence());
+		assertEquals(Journal.RECORD_SIZE, Files.size(file));
+
+		// A poster can wait for its record to be on disk before acknowledging it
+		Account account = bank.getCustomer(0).openAccount(Account.CHECKING);
+		account.deposit(10);
+		bank.getJournal().waitDurable(3);
+		assertEquals(3 * Journal.RECORD_SIZE, Files.size(file));
+		bank.getJournal().close();
+	}
+
+	/*
+	 * Once a batch can't be written, changes are refused rather than made without being journaled
+	 */
+	@Test
+	public void failed_write_stops_postings() throws IOException {
+
+		// Given a journaled account whose journal file then goes away
+		FileChannel channel = FileChannel.open(folder.resolve("failing.journal"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		Bank bank = new Bank();
+		Journal journal = new Journal(channel, 1, 2);
+		journal.setLinger(1, TimeUnit.HOURS);
+		bank.setJournal(journal);
+		Account account = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		account.deposit(100);
+		channel.close();
+
+		// The waiting records can't be synced, and nothing more is posted
+		assertThrows(UncheckedIOException.class, journal::sync);
+		assertThrows(UncheckedIOException.class, () -> account.deposit(50));
+		assertEquals(10000, account.getBalance());
+
+		// And no sequence number was used up by the refused posting
+		assertEquals(3, journal.lastSequence());
+		journal.close();
+	}
+
+	/*
+	 * Names that don't fit in a record are refused
+	 */
+	@Test
+	public void long_names_cannot_be_journaled() throws IOException {
+		Path file = folder.resolve("names.journal");
+		Bank bank = Journal.recover(file, 1, new BankContext());
+		assertThrows(IllegalArgumentException.class, () -> {
+			new Customer("A name that is far too long to fit into one journal record", bank);
+		});
+		bank.getJournal().close();
+	}
+}
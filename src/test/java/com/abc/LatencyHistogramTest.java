@@ -0,0 +1,79 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing the latency histogram's buckets and percentiles
+ *
+ */
+public class LatencyHistogramTest {
+
+	/*
+	 * Every value falls in a bucket that holds it, and the buckets are no wider than about 3% of their values
+	 */
+	@Test
+	public void buckets_hold_their_values() {
+		for (long value = 0; value < LatencyHistogram.HIGHEST; value = value * 3 / 2 + 1) {
+			int index = LatencyHistogram.index(value);
+			long highest = LatencyHistogram.highestIn(index);
+			long lowest = index == 0 ? 0 : LatencyHistogram.highestIn(index - 1) + 1;
+			assertTrue(lowest <= value && value <= highest, "value " + value);
+			assertTrue(highest - lowest <= Math.max(0, value / 32), "value " + value);
+		}
+		assertEquals(LatencyHistogram.HIGHEST, LatencyHistogram.highestIn(LatencyHistogram.index(LatencyHistogram.HIGHEST)));
+	}
+
+	/*
+	 * Percentiles of 1 to 1000 microseconds come out within a bucket of the true values
+	 */
+	@Test
+	public void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int micros = 1; micros <= 1000; micros++)
+			histogram.record(micros * 1000L);
+
+		assertEquals(1000, histogram.count());
+		assertEquals(500500.0, histogram.mean(), 0.001);
+		assertEquals(1000000, histogram.max());
+		assertClose(500000, histogram.percentile(50));
+		assertClose(990000, histogram.percentile(99));
+		assertEquals(1000000, histogram.percentile(100));
+
+		histogram.reset();
+		assertEquals(0, histogram.count());
+		assertEquals(0, histogram.percentile(99));
+	}
+
+	/*
+	 * Many threads can record at once without losing any values
+	 */
+	@Test
+	public void concurrent_recording() throws InterruptedException {
+		LatencyHistogram histogram = new LatencyHistogram();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 100000; i++)
+					histogram.record(i);
+			}));
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(400000, histogram.count());
+		assertEquals(99999, histogram.max());
+	}
+
+	private static void assertClose(long expected, long actual) {
+		assertTrue(actual >= expected && actual <= expected + expected / 32, expected + " but was " + actual);
+	}
+}
@@ -0,0 +1,134 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing the operation metrics
+ *
+ */
+public class MetricsTest {
+
+	private final BankContext context = new BankContext();
+	private final Metrics metrics = context.getMetrics();
+
+	/*
+	 * Postings are timed and counted by outcome, including the ones that are refused
+	 */
+	@Test
+	public void postings_are_counted() {
+		Bank bank = new Bank(context);
+		Account account = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		account.deposit(100);
+		account.withdraw(30);
+		account.withdraw(500);
+		assertEquals(false, context.getTransactions().add(-1, null, account));
+
+		assertEquals(4, metrics.latency(Metrics.Operation.POSTING).count());
+		assertEquals(2, metrics.count(PostingBatch.Outcome.ACCEPTED));
+		assertEquals(1, metrics.count(PostingBatch.Outcome.INSUFFICIENT_FUNDS));
+		assertEquals(1, metrics.count(PostingBatch.Outcome.INVALID));
+	}
+
+	/*
+	 * Statements, account lookups and interest totals are timed, and show up in the snapshot
+	 */
+	@Test
+	public void reads_are_timed() {
+		Bank bank = new Bank(context);
+		Customer henry = new Customer("Henry", bank);
+		Account account = henry.openAccount(Account.SAVINGS);
+		account.deposit(100);
+		henry.getStatement();
+		bank.getAccountByNumber(account.getAccountNumber());
+		bank.totalInterestPaid();
+
+		assertEquals(1, metrics.latency(Metrics.Operation.STATEMENT).count());
+		assertTrue(metrics.latency(Metrics.Operation.ACCOUNT_LOOKUP).count() >= 1);
+		assertEquals(1, metrics.latency(Metrics.Operation.TOTAL_INTEREST).count());
+
+		String snapshot = metrics.snapshot();
+		assertTrue(snapshot.startsWith("operation (us)"), snapshot);
+		assertTrue(snapshot.contains("statement"), snapshot);
+		assertTrue(snapshot.contains("postings accepted=1 insufficient_funds=0 invalid=0"), snapshot);
+	}
+
+	/*
+	 * Batches are timed once and each item's outcome is counted
+	 */
+	@Test
+	public void batch_items_are_counted() {
+		Bank bank = new Bank(context);
+		Account henry = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		Account bill = new Customer("Bill", bank).openAccount(Account.CHECKING);
+		henry.deposit(100);
+		metrics.reset();
+
+		PostingBatch batch = new PostingBatch();
+		batch.add(5000, henry, bill);
+		batch.add(9000, bill, henry);
+		context.getTransactions().add(batch);
+
+		assertEquals(1, metrics.latency(Metrics.Operation.BATCH).count());
+		assertEquals(1, metrics.count(PostingBatch.Outcome.ACCEPTED));
+		assertEquals(1, metrics.count(PostingBatch.Outcome.INSUFFICIENT_FUNDS));
+	}
+
+	/*
+	 * Nothing is recorded while metrics are switched off
+	 */
+	@Test
+	public void metrics_can_be_switched_off() {
+		metrics.setEnabled(false);
+		Account account = new Customer("Henry", new Bank(context)).openAccount(Account.CHECKING);
+		account.deposit(100);
+		assertEquals(0, metrics.latency(Metrics.Operation.POSTING).count());
+		assertEquals(0, metrics.count(PostingBatch.Outcome.ACCEPTED));
+	}
+
+	/*
+	 * Banks in different contexts are measured apart
+	 */
+	@Test
+	public void each_context_has_its_own_metrics() {
+		BankContext other = new BankContext();
+		new Customer("Henry", new Bank(context)).openAccount(Account.CHECKING).deposit(100);
+		new Customer("Bill", new Bank(other)).openAccount(Account.CHECKING).deposit(100);
+		new Customer("Oscar", new Bank(other)).openAccount(Account.CHECKING).deposit(100);
+
+		assertEquals(1, metrics.count(PostingBatch.Outcome.ACCEPTED));
+		assertEquals(2, other.getMetrics().count(PostingBatch.Outcome.ACCEPTED));
+	}
+
+	/*
+	 * The metrics can be read through JMX
+	 */
+	@Test
+	public void metrics_are_visible_through_jmx() throws Exception {
+		metrics.register("metrics-test");
+		metrics.register("metrics-test");
+		new Customer("Henry", new Bank(context)).openAccount(Account.CHECKING).deposit(100);
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(Metrics.OBJECT_NAME + ",context=" + ObjectName.quote("metrics-test"));
+		TabularData counts = (TabularData) server.getAttribute(name, "Counts");
+		CompositeData posting = counts.get(new Object[] { "posting" });
+		assertEquals(1L, posting.get("value"));
+		assertTrue(((String) server.getAttribute(name, "Snapshot")).contains("posting"));
+		assertTrue(((TabularData) server.getAttribute(name, "Latencies")).containsKey(new Object[] { "posting.p99.9" }));
+
+		server.invoke(name, "reset", null, null);
+		assertEquals(0, metrics.latency(Metrics.Operation.POSTING).count());
+	}
+}
@@ -0,0 +1,111 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ * 
+ * Testing conversions and rounding of amounts held in cents
+ *
+ */
+public class MoneyTest {
+
+	/*
+	 * Dollar amounts become whole cents
+	 */
+	@Test
+	public void dollars_convert_to_cents() {
+		assertEquals(10000, Money.fromDollars(100));
+		assertEquals(1, Money.fromDollars(0.01));
+		assertEquals(-250, Money.fromDollars(-2.5));
+		assertEquals(12.34, Money.toDollars(1234));
+	}
+	
+	/*
+	 * Fractions of a cent are rounded the way that was asked for
+	 */
+	@Test
+	public void fractions_of_a_cent_are_rounded_as_asked() {
+		assertEquals(2, Money.fromDollars(0.025, RoundingMode.HALF_EVEN));
+		assertEquals(3, Money.fromDollars(0.025, RoundingMode.HALF_UP));
+		assertEquals(2, Money.fromDollars(0.029, RoundingMode.DOWN));
+		assertEquals(-3, Money.fromDollars(-0.021, RoundingMode.FLOOR));
+		assertThrows(ArithmeticException.class, () -> {
+			Money.fromDollars(0.015, RoundingMode.UNNECESSARY);
+		});
+	}
+	
+	/*
+	 * Dividing whole numbers rounds like BigDecimal would
+	 */
+	@Test
+	public void division_rounds_like_big_decimal() {
+		long[] dividends = { 25, 35, -25, -35, 26, -26, 24, 7, -7 };
+		for (RoundingMode mode : RoundingMode.values()) {
+			if (mode == RoundingMode.UNNECESSARY)
+				continue;
+			for (long dividend : dividends) {
+				long expected = new BigDecimal(dividend).divide(new BigDecimal(10), 0, mode).longValueExact();
+				assertEquals(expected, Money.divide(dividend, 10, mode), dividend + " / 10 " + mode);
+			}
+		}
+	}
+	
+	/*
+	 * Applying a rate gives the expected interest
+	 */
+	@Test
+	public void rate_is_applied_in_parts_per_million() {
+		
+		// 0.1% of $500 is 50 cents
+		assertEquals(50, Money.applyRate(50000, 1000, RoundingMode.HALF_EVEN));
+		
+		// 0.1% of $0.05 is half a hundredth of a cent, which rounds down to nothing
+		assertEquals(0, Money.applyRate(5, 1000, RoundingMode.HALF_EVEN));
+		assertEquals(1, Money.applyRate(5, 1000, RoundingMode.UP));
+	}
+	
+	/*
+	 * Amounts are written with a dollar sign, thousands separators and two decimal places
+	 */
+	@Test
+	public void amounts_are_formatted_as_dollars() {
+		assertEquals("$0.00", dollars(0));
+		assertEquals("$0.05", dollars(5));
+		assertEquals("$12.30", dollars(1230));
+		assertEquals("$999.99", dollars(99999));
+		assertEquals("$1,000.00", dollars(100000));
+		assertEquals("$1,002,003.04", dollars(100200304));
+		assertEquals("$200.00", dollars(-20000));
+	}
+	
+	private static String dollars(long cents) {
+		StringBuilder out = new StringBuilder();
+		Money.appendDollars(out, cents);
+		return out.toString();
+	}
+	
+	/*
+	 * Amounts written for machines are plain dollars and cents
+	 */
+	@Test
+	public void decimal_amounts() {
+		StringBuilder out = new StringBuilder();
+		Money.appendDecimal(out, 123456789);
+		out.append(' ');
+		Money.appendDecimal(out, 5);
+		out.append(' ');
+		Money.appendDecimal(out, -1050);
+		out.append(' ');
+		Money.appendDecimal(out, -7);
+		out.append(' ');
+		Money.appendDecimal(out, 0);
+		assertEquals("1234567.89 0.05 -10.50 -0.07 0.00", out.toString());
+	}
+}
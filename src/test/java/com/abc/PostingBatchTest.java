@@ -0,0 +1,178 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing posting whole batches of transactions
+ *
+ */
+public class PostingBatchTest {
+
+	@TempDir
+	Path folder;
+
+	@AfterEach
+	public void single_threaded_again() {
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.SINGLE_THREADED);
+	}
+
+	/*
+	 * Funds are checked against the net effect of the batch, so money can go out before it comes in
+	 */
+	@Test
+	public void batch_is_netted_per_account() {
+
+		// Given an employer with $10 and an employee with $10
+		Bank bank = new Bank();
+		Account employer = new Customer("Employer", bank).openAccount(Account.CHECKING);
+		Account employee = new Customer("Employee", bank).openAccount(Account.CHECKING);
+		employer.deposit(10);
+		employee.deposit(10);
+
+		// When the wages are paid before the day's takings arrive in the same batch
+		PostingBatch batch = new PostingBatch();
+		batch.add(50000, employer, employee);
+		batch.add(100000, null, employer);
+		batch.add(2000, employee, null);
+
+		// Everything is posted
+		assertEquals(3, Transactions.getInstance().add(batch));
+		assertEquals(1000 - 50000 + 100000, employer.getBalance());
+		assertEquals(1000 + 50000 - 2000, employee.getBalance());
+		assertEquals(3, employer.getTransactions().size());
+		assertEquals(3, employee.getTransactions().size());
+		assertEquals(employer.getBalance() + employee.getBalance(), bank.totalDeposits());
+		assertTrue(bank.checkTotals());
+	}
+
+	/*
+	 * Items that can't be covered are refused one by one and the rest of the batch still goes through
+	 */
+	@Test
+	public void uncovered_items_are_refused() {
+
+		Bank bank = new Bank();
+		Account payer = new Customer("Payer", bank).openAccount(Account.CHECKING);
+		Account payee = new Customer("Payee", bank).openAccount(Account.SAVINGS);
+		payer.deposit(100);
+
+		PostingBatch batch = new PostingBatch(2);
+		int first = batch.add(6000, payer, payee);
+		int second = batch.add(6000, payer, payee);
+		int third = batch.add(3000, payer, payee);
+		int negative = batch.add(-5, null, payee);
+		int empty = batch.add(5, null, null);
+
+		assertEquals(2, Transactions.getInstance().add(batch));
+		assertEquals(PostingBatch.Outcome.ACCEPTED, batch.getOutcome(first));
+		assertEquals(PostingBatch.Outcome.INSUFFICIENT_FUNDS, batch.getOutcome(second));
+		assertEquals(PostingBatch.Outcome.ACCEPTED, batch.getOutcome(third));
+		assertEquals(PostingBatch.Outcome.INVALID, batch.getOutcome(negative));
+		assertEquals(PostingBatch.Outcome.INVALID, batch.getOutcome(empty));
+		assertEquals(1000, payer.getBalance());
+		assertEquals(9000, payee.getBalance());
+		assertTrue(bank.checkTotals());
+	}
+
+	/*
+	 * Items are grouped by the accounts they share
+	 */
+	@Test
+	public void batch_splits_into_independent_groups() {
+		Bank bank = new Bank();
+		Customer bill = new Customer("Bill", bank);
+		Account a = bill.openAccount(Account.CHECKING);
+		Account b = bill.openAccount(Account.CHECKING);
+		Account c = bill.openAccount(Account.CHECKING);
+		Account d = bill.openAccount(Account.CHECKING);
+
+		PostingBatch batch = new PostingBatch();
+		batch.add(1, a, b);
+		batch.add(1, c, null);
+		batch.add(1, b, a);
+		batch.add(1, null, d);
+		batch.add(1, d, c);
+
+		List<int[]> groups = batch.groups();
+		assertEquals(2, groups.size());
+		assertEquals(2, groups.get(0).length);
+		assertEquals(3, groups.get(1).length);
+		assertEquals(4, groups.get(1)[2]);
+
+		// Paying everyone from one account joins them all into one group
+		PostingBatch payroll = new PostingBatch();
+		payroll.add(1, a, b);
+		payroll.add(1, a, c);
+		payroll.add(1, a, d);
+		assertEquals(1, payroll.groups().size());
+	}
+
+	/*
+	 * A large batch of unrelated payments posted in parallel ends up the same as posting them one by one
+	 */
+	@Test
+	public void parallel_batch_matches_one_by_one() {
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.CONCURRENT);
+		Bank bank = new Bank();
+		Customer bill = new Customer("Bill", bank);
+		Account[] accounts = new Account[200];
+		for (int i = 0; i < accounts.length; i++) {
+			accounts[i] = bill.openAccount(Account.CHECKING);
+			accounts[i].deposit(100);
+		}
+
+		// Pairs of accounts paying each other, each pair eventually running out
+		PostingBatch batch = new PostingBatch();
+		for (int round = 0; round < 50; round++) {
+			for (int i = 0; i < accounts.length; i += 2)
+				batch.add(300 + i, accounts[i], accounts[i + 1]);
+		}
+		int accepted = Transactions.getInstance().add(batch);
+
+		long total = 0;
+		int expected = 0;
+		for (int i = 0; i < accounts.length; i += 2) {
+			int payments = (10000 - 1) / (300 + i);
+			expected += payments;
+			assertEquals(10000 - payments * (300 + i), accounts[i].getBalance());
+			total += accounts[i].getBalance() + accounts[i + 1].getBalance();
+		}
+		assertEquals(expected, accepted);
+		assertEquals(accounts.length * 10000, total);
+		assertEquals(total, bank.totalDeposits());
+		assertTrue(bank.checkTotals());
+	}
+
+	/*
+	 * A batch is journaled like any other postings
+	 */
+	@Test
+	public void batch_is_journaled() throws IOException {
+		Path file = folder.resolve("batch.journal");
+		Bank bank = Journal.recover(file, 16, BankContext.getDefault());
+		Account from = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		Account to = new Customer("Bill", bank).openAccount(Account.MAXI_SAVINGS);
+		PostingBatch batch = new PostingBatch();
+		batch.add(10000, null, from);
+		batch.add(2500, from, to);
+		batch.add(99999, from, null);
+		Transactions.getInstance().add(batch);
+		bank.getJournal().close();
+
+		Bank recovered = Journal.recover(file, 16, BankContext.getDefault());
+		assertEquals(7500, recovered.getAccountByNumber(from.getAccountNumber()).getBalance());
+		assertEquals(2500, recovered.getAccountByNumber(to.getAccountNumber()).getBalance());
+		recovered.getJournal().close();
+	}
+}
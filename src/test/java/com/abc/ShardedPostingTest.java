@@ -0,0 +1,112 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing sharded posting, where each shard's accounts are only changed by its own thread
+ *
+ */
+public class ShardedPostingTest {
+
+	@TempDir
+	Path folder;
+
+	@BeforeEach
+	public void sharded() {
+		Transactions.getInstance().setShardCount(4);
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.SHARDED);
+	}
+
+	@AfterEach
+	public void single_threaded_again() {
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.SINGLE_THREADED);
+		Transactions.getInstance().setShardCount(ShardedPosting.DEFAULT_SHARDS);
+	}
+
+	/*
+	 * A transfer between accounts on different shards is made in two steps but ends up like any other transfer
+	 */
+	@Test
+	public void transfer_between_shards() {
+
+		// Given two accounts on different shards
+		Customer henry = new Customer("Henry", new Bank());
+		Account from = henry.openAccount(Account.CHECKING);
+		Account to = henry.openAccount(Account.SAVINGS);
+		while (ShardedPosting.shardOf(to.getAccountNumber(), 4) == ShardedPosting.shardOf(from.getAccountNumber(), 4))
+			to = henry.openAccount(Account.SAVINGS);
+		assertNotEquals(ShardedPosting.shardOf(from.getAccountNumber(), 4), ShardedPosting.shardOf(to.getAccountNumber(), 4));
+
+		// When money is sent from one to the other, and more than is left is refused
+		assertTrue(from.deposit(100));
+		assertTrue(from.sendMoney(60, to));
+		assertEquals(false, from.sendMoney(40, to));
+
+		// Both sides have moved and the transfer is in both histories
+		assertEquals(4000, from.getBalance());
+		assertEquals(6000, to.getBalance());
+		List<Transaction> received = to.getTransactions();
+		assertEquals(1, received.size());
+		assertEquals(from, received.get(0).getFromAccount());
+		assertEquals(2, from.getTransactions().size());
+		assertTrue(henry.getBank().checkTotals());
+	}
+
+	/*
+	 * A batch is posted item by item on the items' shards
+	 */
+	@Test
+	public void batch_is_posted_item_by_item() {
+		Bank bank = new Bank();
+		Account henry = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		Account bill = new Customer("Bill", bank).openAccount(Account.CHECKING);
+		henry.deposit(100);
+
+		PostingBatch batch = new PostingBatch();
+		batch.add(5000, henry, bill);
+		batch.add(9000, bill, henry);
+		batch.add(-1, henry, bill);
+		assertEquals(1, Transactions.getInstance().add(batch));
+		assertEquals(PostingBatch.Outcome.INSUFFICIENT_FUNDS, batch.getOutcome(1));
+		assertEquals(PostingBatch.Outcome.INVALID, batch.getOutcome(2));
+		assertEquals(5000, bill.getBalance());
+	}
+
+	/*
+	 * A posting that fails on its shard's thread fails for the caller, and the shard carries on
+	 */
+	@Test
+	public void failure_is_passed_back_to_the_caller() throws IOException {
+		Bank bank = Journal.recover(folder.resolve("closed.journal"), 1, BankContext.getDefault());
+		Account account = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		bank.getJournal().close();
+
+		assertThrows(UncheckedIOException.class, () -> account.deposit(10));
+
+		Account other = new Customer("Bill", new Bank()).openAccount(Account.CHECKING);
+		assertTrue(other.deposit(10));
+	}
+
+	/*
+	 * The number of shards must be a power of two
+	 */
+	@Test
+	public void shard_count_is_a_power_of_two() {
+		assertThrows(IllegalArgumentException.class, () -> Transactions.getInstance().setShardCount(3));
+	}
+}
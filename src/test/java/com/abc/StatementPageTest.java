@@ -0,0 +1,171 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing statements read a page at a time
+ *
+ */
+public class StatementPageTest {
+
+	private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+	private FakeClock clock;
+	private Account henry;
+	private Account bill;
+
+	/*
+	 * Henry's account has $80 from before the period, 25 transactions in it (days 10 to 14) and one after it
+	 */
+	@BeforeEach
+	public void setUp() {
+		clock = new FakeClock(100 * DAY);
+		Bank bank = new Bank(new BankContext(new AccountNumber(), clock));
+		henry = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		bill = new Customer("Bill", bank).openAccount(Account.CHECKING);
+		henry.deposit(100);
+		clock.advance(1, TimeUnit.DAYS);
+		henry.withdraw(20);
+
+		clock.set(110 * DAY);
+		for (int i = 0; i < 22; i++) {
+			henry.deposit(1);
+			if (i % 5 == 4)
+				clock.advance(1, TimeUnit.DAYS);
+		}
+		henry.sendMoney(5, bill);
+		bill.sendMoney(2, henry);
+		henry.sendMoney(3, henry);
+
+		clock.set(130 * DAY);
+		henry.withdraw(50);
+	}
+
+	/*
+	 * Paging through a period gives the same lines as the period's whole statement, with the balance running on from page to page
+	 */
+	@Test
+	public void pages_cover_the_period() {
+		long from = 110 * DAY;
+		long to = 120 * DAY;
+
+		List<String> lines = new ArrayList<String>();
+		long balance = 8000;
+		int pages = 0;
+		String cursor = null;
+		do {
+			StatementPage page = henry.getStatementPage(from, to, cursor, 10);
+			assertEquals(balance, page.getBalanceBroughtForward());
+			lines.addAll(page.getLines());
+			balance = page.getBalanceCarriedForward();
+			cursor = page.getCursor();
+			pages++;
+		} while (cursor != null);
+
+		assertEquals(3, pages);
+		assertEquals(8000 + 2200 - 500 + 200, balance);
+		assertEquals(wholeStatement(henry, from, to), lines);
+		assertEquals("deposit: $1.00", lines.get(0));
+		assertEquals(Arrays.asList(
+				"sent $5.00 to Bill (" + bill.getAccountNumber() + ")",
+				"received $2.00 from Bill (" + bill.getAccountNumber() + ")",
+				"received $3.00 from Henry (" + henry.getAccountNumber() + ")",
+				"sent $3.00 to Henry (" + henry.getAccountNumber() + ")"), lines.subList(22, 26));
+	}
+
+	/*
+	 * A period with nothing in it is one empty page holding the balance of the time
+	 */
+	@Test
+	public void empty_period() {
+		StatementPage page = henry.getStatementPage(121 * DAY, 125 * DAY, null, 10);
+		assertTrue(page.getLines().isEmpty());
+		assertFalse(page.hasMore());
+		assertNull(page.getCursor());
+		assertEquals(9900, page.getBalanceBroughtForward());
+		assertEquals(9900, page.getBalanceCarriedForward());
+	}
+
+	/*
+	 * The whole history ends on the account's balance
+	 */
+	@Test
+	public void whole_history_ends_on_the_balance() {
+		String cursor = null;
+		StatementPage page;
+		do {
+			page = henry.getStatementPage(Long.MIN_VALUE, Long.MAX_VALUE, cursor, 4);
+			cursor = page.getCursor();
+		} while (page.hasMore());
+		assertEquals(henry.getBalance(), page.getBalanceCarriedForward());
+	}
+
+	/*
+	 * A cursor only works for the account and period it was made for
+	 */
+	@Test
+	public void cursors_are_checked() {
+		String cursor = henry.getStatementPage(110 * DAY, 120 * DAY, null, 10).getCursor();
+
+		assertThrows(IllegalArgumentException.class, () -> bill.getStatementPage(110 * DAY, 120 * DAY, cursor, 10));
+		assertThrows(IllegalArgumentException.class, () -> henry.getStatementPage(110 * DAY, 121 * DAY, cursor, 10));
+		assertThrows(IllegalArgumentException.class, () -> henry.getStatementPage(110 * DAY, 120 * DAY, "not a cursor!", 10));
+		assertThrows(IllegalArgumentException.class, () -> henry.getStatementPage(110 * DAY, 120 * DAY, cursor.substring(4), 10));
+		assertThrows(IllegalArgumentException.class, () -> henry.getStatementPage(110 * DAY, 120 * DAY, null, 0));
+	}
+
+	/*
+	 * A cursor's balance can't be changed by the client
+	 */
+	@Test
+	public void cursors_are_signed() {
+		String cursor = henry.getStatementPage(110 * DAY, 120 * DAY, null, 10).getCursor();
+		byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+		bytes[4 + 8 + 8 + 8 + 7] ^= 1;
+		String forged = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+		assertThrows(IllegalArgumentException.class, () -> henry.getStatementPage(110 * DAY, 120 * DAY, forged, 10));
+	}
+
+	/*
+	 * After a restart the history starts again, but the balances brought and carried forward still match the account
+	 */
+	@Test
+	public void balances_hold_after_a_restart() {
+		FakeClock restarted = new FakeClock(200 * DAY);
+		Bank bank = BankSnapshot.capture(henry.getCustomer().getBank()).toBank(new BankContext(new AccountNumber(), restarted));
+		Account account = bank.getAccountByNumber(henry.getAccountNumber());
+		restarted.advance(1, TimeUnit.DAYS);
+		account.deposit(5);
+
+		StatementPage page = account.getStatementPage(200 * DAY, 300 * DAY, null, 10);
+		assertEquals(Arrays.asList("deposit: $5.00"), page.getLines());
+		assertEquals(4900, page.getBalanceBroughtForward());
+		assertEquals(5400, page.getBalanceCarriedForward());
+		assertEquals(account.getBalance(), page.getBalanceCarriedForward());
+	}
+
+	private static List<String> wholeStatement(Account account, long from, long to) {
+		StringBuilder text = new StringBuilder();
+		for (Transaction t : account.getTransactions(from, to))
+			StatementWriter.appendTransaction(text, account, t);
+		List<String> lines = new ArrayList<String>();
+		for (String line : text.toString().split("\n"))
+			lines.add(line.substring(2));
+		return lines;
+	}
+}
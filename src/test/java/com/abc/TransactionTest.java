@@ -5,6 +5,8 @@ import static org.junit.Assert.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 
 /**
@@ -15,6 +17,8 @@ import org.junit.jupiter.api.Test;
  */
 public class TransactionTest {
 	
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+	
 	/*
 	 * Transactions can be created
 	 */
@@ -49,7 +53,7 @@ public class TransactionTest {
     	
     	// Sending money to the same account shouldn't change the balance
     	bill.sendMoney(100, account.getAccountNumber(), account.getAccountNumber());
-    	assertEquals(500, account.getBalance());
+    	assertEquals(50000, account.getBalance());
     }
     
     /*
@@ -67,7 +71,7 @@ public class TransactionTest {
         bill.withdraw(account.getAccountNumber(), 100);
     	
         // Make sure the balance hasn't changed
-    	assertEquals(50, account.getBalance());
+    	assertEquals(5000, account.getBalance());
     }
     
     /*
@@ -89,7 +93,7 @@ public class TransactionTest {
     	billAccount.sendMoney(100, johnAccount);
     	
     	// Bills account should keep the same balance
-    	assertEquals(50, billAccount.getBalance());
+    	assertEquals(5000, billAccount.getBalance());
     }
     
     /*
@@ -110,8 +114,8 @@ public class TransactionTest {
     	bill.sendMoney(200,account1.getAccountNumber(), account2.getAccountNumber());
     	
     	// The first account should have 300 remaining, the second account should receive the 200
-    	assertEquals(300, account1.getBalance());
-    	assertEquals(200, account2.getBalance());
+    	assertEquals(30000, account1.getBalance());
+    	assertEquals(20000, account2.getBalance());
     }
     
     /*
@@ -133,8 +137,8 @@ public class TransactionTest {
     	bill.sendMoney(300, billAccount.getAccountNumber(), johnAccount.getAccountNumber());
     	
     	// We should see the corresponding changes
-    	assertEquals(700, billAccount.getBalance());
-    	assertEquals(300, johnAccount.getBalance());
+    	assertEquals(70000, billAccount.getBalance());
+    	assertEquals(30000, johnAccount.getBalance());
     }
     
     /*
@@ -155,6 +159,127 @@ public class TransactionTest {
     	account1.sendMoney(10, account2);
     	
     	// The sum of transactions related to the account should be equal to balance
-    	assertEquals(130, account1.getBalance());
+    	assertEquals(13000, account1.getBalance());
+    }
+    
+    /*
+     * An account's history only contains its own transactions, in the order they were made
+     */
+    @Test
+    public void account_history_only_contains_its_own_transactions() {
+    	
+    	// Given a customer with two accounts
+    	Customer bill = new Customer("Bill", new Bank());
+    	Account account1 = bill.openAccount(Account.CHECKING);
+    	Account account2 = bill.openAccount(Account.CHECKING);
+    	
+    	// And some transactions on both
+    	account1.deposit(100);
+    	account2.deposit(20);
+    	account1.sendMoney(30, account2);
+    	account1.sendMoney(10, account1);
+    	
+    	// The first account sees its deposit, the transfer and the transfer to itself once
+    	List<Transaction> history = account1.getTransactions();
+    	assertEquals(3, history.size());
+    	assertEquals(10000, history.get(0).getAmount());
+    	assertEquals(3000, history.get(1).getAmount());
+    	assertEquals(1000, history.get(2).getAmount());
+    	
+    	// The second account sees its deposit and the transfer it received
+    	assertEquals(2, account2.getTransactions().size());
+    }
+    
+    /*
+     * An account's history cannot be changed by whoever asks for it
+     */
+    @Test
+    public void account_history_is_read_only() {
+    	
+    	Customer bill = new Customer("Bill", new Bank());
+    	Account account = bill.openAccount(Account.CHECKING);
+    	account.deposit(100);
+    	
+    	assertThrows(UnsupportedOperationException.class, () -> {
+    		account.getTransactions().clear();
+    	});
+    }
+    
+    /*
+     * Parts of an account's history can be found by time, from the end, and a page at a time
+     */
+    @Test
+    public void history_can_be_queried_by_time() {
+    	for (Transactions.Storage storage : Transactions.Storage.values()) {
+    		Transactions.getInstance().setStorage(storage);
+    		try {
+    			
+    			// Given an account with a deposit every day for 100 days (and one posted late, after the clock went back)
+    			Account account = new Customer("Bill", new Bank()).openAccount(Account.CHECKING);
+    			for (int day = 0; day < 100; day++) {
+    				if (day != 50)
+    					Transactions.getInstance().replay(day + 1, null, account, day * DAY, 0);
+    			}
+    			Transactions.getInstance().replay(51, null, account, 50 * DAY, 0);
+    			
+    			// A period only holds the days in it, in order
+    			List<Transaction> period = account.getTransactions(40 * DAY, 60 * DAY);
+    			assertEquals(20, period.size());
+    			for (int i = 0; i < period.size(); i++)
+    				assertEquals(41 + i, period.get(i).getAmount());
+    			assertEquals(0, account.getTransactions(200 * DAY, 300 * DAY).size());
+    			
+    			// The last few
+    			List<Transaction> last = account.getLastTransactions(3);
+    			assertEquals(3, last.size());
+    			assertEquals(98, last.get(0).getAmount());
+    			assertEquals(100, account.getLastTransactions(500).size());
+    			
+    			// And pages that join up exactly
+    			long cursor = TransactionPage.FIRST;
+    			long expected = 11;
+    			int pages = 0;
+    			TransactionPage page;
+    			do {
+    				page = account.getTransactions(10 * DAY, 35 * DAY, cursor, 10);
+    				for (Transaction t : page.getTransactions())
+    					assertEquals(expected++, t.getAmount());
+    				cursor = page.getNextCursor();
+    				pages++;
+    			} while (page.hasMore());
+    			assertEquals(36, expected);
+    			assertEquals(3, pages);
+    		} finally {
+    			Transactions.getInstance().setStorage(Transactions.Storage.OBJECTS);
+    		}
+    	}
     }
+
+    /*
+     * A transaction is classified once for each of its accounts, as it appears on their statements
+     */
+    @Test
+    public void transaction_direction_and_counterparty() {
+    	Bank bank = new Bank();
+    	Account bill = new Customer("Bill", bank).openAccount(Account.CHECKING);
+    	Account henry = new Customer("Henry", bank).openAccount(Account.CHECKING);
+    	
+    	Transaction deposit = new Transaction(100, null, bill, 0L);
+    	Transaction withdrawal = new Transaction(100, bill, null, 0L);
+    	Transaction transfer = new Transaction(100, bill, henry, 0L);
+    	Transaction toSelf = new Transaction(100, bill, bill, 0L);
+    	
+    	assertEquals(Transaction.DEPOSIT, deposit.getDirection(bill));
+    	assertEquals(Transaction.WITHDRAWAL, withdrawal.getDirection(bill));
+    	assertEquals(Transaction.SENT, transfer.getDirection(bill));
+    	assertEquals(Transaction.RECEIVED, transfer.getDirection(henry));
+    	assertEquals(Transaction.TO_SELF, toSelf.getDirection(bill));
+    	
+    	assertNull(deposit.getCounterparty(bill));
+    	assertSame(henry, transfer.getCounterparty(bill));
+    	assertSame(bill, transfer.getCounterparty(henry));
+    	assertSame(bill, toSelf.getCounterparty(bill));
+    	assertEquals("Henry (" + henry.getAccountNumber() + ")", henry.getLabel());
+    }
+    
 }
@@ -0,0 +1,211 @@
+package com.abc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * @author Eddy Brown
+ *
+ * Testing the transaction manager when many threads post at once
+ *
+ */
+public class TransactionsTest {
+
+	private static final int ACCOUNTS = 8;
+	private static final int THREADS = 8;
+	private static final int TRANSFERS_PER_THREAD = 200000;
+
+	/*
+	 * Every sharded posting is handed to another thread, which is slow on a machine with few cores
+	 */
+	private static final int SHARDED_TRANSFERS_PER_THREAD = 20000;
+
+	@AfterEach
+	public void single_threaded_again() {
+		Transactions.getInstance().setPostingMode(Transactions.PostingMode.SINGLE_THREADED);
+	}
+
+	/*
+	 * Money moving between accounts on many threads is never lost or created, and no account is overdrawn
+	 */
+	@ParameterizedTest
+	@EnumSource(value = Transactions.PostingMode.class, names = { "CONCURRENT", "SHARDED" })
+	public void concurrent_transfers_conserve_total_balance(Transactions.PostingMode mode) throws Exception {
+
+		// Given a bank with accounts holding $1,000 each
+		Transactions.getInstance().setPostingMode(mode);
+		final int transfers = mode == Transactions.PostingMode.SHARDED ? SHARDED_TRANSFERS_PER_THREAD : TRANSFERS_PER_THREAD;
+		Bank bank = new Bank();
+		Customer bill = new Customer("Bill", bank);
+		final List<Account> accounts = new ArrayList<Account>();
+		for (int i=0; i<ACCOUNTS; i++) {
+			Account account = bill.openAccount(Account.CHECKING);
+			account.deposit(1000);
+			accounts.add(account);
+		}
+
+		// When many threads send random amounts between random accounts (in both directions)
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t=0; t<THREADS; t++) {
+			final long seed = t;
+			workers.add(pool.submit(() -> {
+				Random random = new Random(seed);
+				start.await();
+				for (int i=0; i<transfers; i++) {
+					Account from = accounts.get(random.nextInt(ACCOUNTS));
+					Account to = accounts.get(random.nextInt(ACCOUNTS));
+					from.sendMoney(1 + random.nextInt(200), to);
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> worker : workers)
+			worker.get(1, TimeUnit.MINUTES);
+		pool.shutdown();
+
+		// The bank still holds exactly what was deposited, nobody went overdrawn,
+		// and each balance matches the account's own history
+		long total = 0;
+		for (Account account : accounts) {
+			assertTrue(account.getBalance() > 0);
+			assertEquals(account.getBalance(), sumOfHistory(account));
+			total += account.getBalance();
+		}
+		assertEquals(ACCOUNTS * 1000 * Money.CENTS_PER_DOLLAR, total);
+
+		// And the bank's running totals kept up
+		assertEquals(total, bank.totalDeposits());
+		assertTrue(bank.checkTotals());
+	}
+
+	/*
+	 * Withdrawals racing each other can't take more than the account holds
+	 */
+	@ParameterizedTest
+	@EnumSource(value = Transactions.PostingMode.class, names = { "CONCURRENT", "SHARDED" })
+	public void concurrent_withdrawals_cannot_overdraw(Transactions.PostingMode mode) throws Exception {
+
+		// Given an account with $1,000
+		Transactions.getInstance().setPostingMode(mode);
+		Customer bill = new Customer("Bill", new Bank());
+		final Account account = bill.openAccount(Account.CHECKING);
+		account.deposit(1000);
+
+		// When many threads try to take $1 at a time, far more than is there
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t=0; t<THREADS; t++) {
+			workers.add(pool.submit(() -> {
+				for (int i=0; i<1000; i++)
+					account.withdraw(1);
+			}));
+		}
+		for (Future<?> worker : workers)
+			worker.get(1, TimeUnit.MINUTES);
+		pool.shutdown();
+
+		// Only the withdrawals that could be covered went through (the last dollar always stays)
+		assertEquals(100, account.getBalance());
+		assertEquals(1000, account.getTransactions().size());
+	}
+
+	/*
+	 * Clients retrying postings with idempotency keys, even at the same time, move the money only once
+	 */
+	@ParameterizedTest
+	@EnumSource(value = Transactions.PostingMode.class, names = { "CONCURRENT", "SHARDED" })
+	public void retried_postings_are_made_once(Transactions.PostingMode mode) throws Exception {
+
+		// Given a bank of its own, with Bill holding $1,000 and Henry's account on a different shard
+		FakeClock clock = new FakeClock(TimeUnit.DAYS.toMillis(20000));
+		BankContext context = new BankContext(new AccountNumber(), clock);
+		Transactions transactions = context.getTransactions();
+		transactions.setPostingMode(mode);
+		Bank bank = new Bank(context);
+		final Account bill = new Customer("Bill", bank).openAccount(Account.CHECKING);
+		Account other = new Customer("Henry", bank).openAccount(Account.CHECKING);
+		while (ShardedPosting.shardOf(other.getAccountNumber(), ShardedPosting.DEFAULT_SHARDS) == ShardedPosting.shardOf(bill.getAccountNumber(), ShardedPosting.DEFAULT_SHARDS))
+			other = other.getCustomer().openAccount(Account.CHECKING);
+		final Account henry = other;
+		bill.deposit(1000);
+
+		try {
+			// When every thread makes the same 100 payments and deposits, each with its own key
+			ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Future<Integer>> workers = new ArrayList<Future<Integer>>();
+			for (int t=0; t<THREADS; t++) {
+				workers.add(pool.submit(() -> {
+					start.await();
+					int made = 0;
+					for (int i=0; i<100; i++) {
+						if (bill.sendMoney(1, henry, "payment-" + i))
+							made++;
+						if (henry.deposit(2, "deposit-" + i))
+							made++;
+					}
+					return made;
+				}));
+			}
+			start.countDown();
+			for (Future<Integer> worker : workers)
+				assertEquals(200, (int) worker.get(1, TimeUnit.MINUTES));
+			pool.shutdown();
+
+			// Every try was told it went through, but each posting was only made once
+			assertEquals(90000, bill.getBalance());
+			assertEquals(30000, henry.getBalance());
+			assertEquals(101, bill.getTransactions().size());
+			assertEquals(200, henry.getTransactions().size());
+			assertTrue(bank.checkTotals());
+
+			// A refusal is remembered too, even once the money is there
+			assertFalse(henry.withdraw(400, "too-much"));
+			bill.sendMoney(500, henry);
+			assertFalse(henry.withdraw(400, "too-much"));
+			assertEquals(80000, henry.getBalance());
+
+			// A key can't be used for another posting
+			assertThrows(IllegalArgumentException.class, () -> bill.sendMoney(2, henry, "payment-0"));
+
+			// And once the window has passed, a key is forgotten
+			clock.advance(IdempotencyCache.DEFAULT_WINDOW, TimeUnit.MILLISECONDS);
+			assertTrue(henry.withdraw(400, "too-much"));
+			assertEquals(40000, henry.getBalance());
+		} finally {
+			transactions.setPostingMode(Transactions.PostingMode.SINGLE_THREADED);
+		}
+	}
+
+	/*
+	 * Adds up the effect of every transaction in the account's history
+	 */
+	private static long sumOfHistory(Account account) {
+		long sum = 0;
+		for (Transaction t : account.getTransactions()) {
+			if (t.getToAccount() == account)
+				sum += t.getAmount();
+			if (t.getFromAccount() == account)
+				sum -= t.getAmount();
+		}
+		return sum;
+	}
+}